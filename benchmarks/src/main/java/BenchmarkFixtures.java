@@ -0,0 +1,130 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Sets up the simulator for the JMH benchmarks in orbsim.bench.
+ * The simulator lives in the default package, which named packages cannot import, so the benchmarks
+ * look these methods up once during setup and then only call the returned Runnable.
+ */
+public class BenchmarkFixtures
+{
+    /**Creates a simulator holding n random bodies, spread and sized like SystemSimulator.populateSystem().*/
+    static SystemSimulator simulator(int n, int seed)
+    {
+        SystemSimulator sim = new SystemSimulator(seed);
+        BodyStore bodies = sim.bodies;
+        bodies.clear();
+        Random rand = new Random(seed);
+        for (int k = 0; k < n; k++)
+        {
+            double r1 = rand.nextDouble();
+            double r2 = rand.nextDouble();
+            double r3 = rand.nextDouble();
+            double r4 = rand.nextDouble();
+            double r7 = rand.nextDouble();
+            double r8 = rand.nextDouble();
+            double r9 = rand.nextDouble();
+            bodies.add(Integer.toString(k), 2*((r1+1)/2)*Math.pow(10, 27), 1000000000*((r2+1)/2),
+                    new Vector3D(r3*SystemAnimator.B_WIDTH*sim.spaceCompression, r4*SystemAnimator.B_HEIGHT*sim.spaceCompression, r7*SystemAnimator.B_DEPTH*sim.spaceCompression),
+                    new Vector3D(20000*(r4-0.5), -20000*(r3-0.5), (r8*2-1.1)*10000), new int[]{0, 0, (int)(255*r9)});
+        }
+        bodies.initNumBodies = n;
+        sim.colorDimension();
+        return sim;
+    }
+
+    static ForceEngine engine(String name)
+    {
+        if (name.equals("tiled"))
+        {
+            return TiledForceEngine.create();
+        }
+        else if (name.equals("symmetric"))
+        {
+            return new SymmetricForceEngine();
+        }
+        else if (name.equals("octree"))
+        {
+            return new OctreeForceEngine(0.5);
+        }
+        return new DirectForceEngine();
+    }
+
+    /**One call to updateSystem(), optionally with the collision pass switched off.*/
+    public static Runnable updateSystem(int n, boolean collisions)
+    {
+        final SystemSimulator sim = simulator(n, 1);
+        if (!collisions)
+        {
+            sim.collisionDetector = new CollisionDetector() {
+                @Override
+                public void resolveCollisions(BodyStore bodies) {
+                }
+            };
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                sim.updateSystem();
+            }
+        };
+    }
+
+    /**One force evaluation for every body with the named engine.*/
+    public static Runnable forcePass(int n, String engineName)
+    {
+        final BodyStore bodies = simulator(n, 1).bodies;
+        final ForceEngine engine = engine(engineName);
+        return new Runnable() {
+            @Override
+            public void run() {
+                engine.computeAccelerations(bodies);
+            }
+        };
+    }
+
+    /**One call to Body.acceleration()'s direct sum, cycling through the bodies.*/
+    public static Runnable bodyAcceleration(int n)
+    {
+        final BodyStore bodies = simulator(n, 1).bodies;
+        return new Runnable() {
+            int next = 0;
+
+            @Override
+            public void run() {
+                bodies.acceleration(next);
+                next = (next+1) % bodies.count;
+            }
+        };
+    }
+
+    /**One collision pass over every body with the named detector. Bodies merged by earlier calls stay removed.*/
+    public static Runnable collisionPass(int n, String detectorName)
+    {
+        final BodyStore bodies = simulator(n, 1).bodies;
+        final CollisionDetector detector = detectorName.equals("brute") ? new BruteForceCollisions() : new CollisionGrid();
+        return new Runnable() {
+            @Override
+            public void run() {
+                detector.resolveCollisions(bodies);
+            }
+        };
+    }
+
+    /**One SystemSimulator.draw() into an offscreen image the size of the window.*/
+    public static Runnable draw(int n)
+    {
+        final SystemSimulator sim = simulator(n, 1);
+        BufferedImage image = new BufferedImage(SystemAnimator.B_WIDTH, SystemAnimator.B_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g2 = image.createGraphics();
+        return new Runnable() {
+            @Override
+            public void run() {
+                g2.setColor(Color.BLACK);
+                g2.fillRect(0, 0, SystemAnimator.B_WIDTH, SystemAnimator.B_HEIGHT);
+                sim.draw(g2);
+            }
+        };
+    }
+}
@@ -0,0 +1,36 @@
+package orbsim.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single Body.acceleration() direct sum over every other body. It uses no force engine, so it is kept apart from
+ * ForceBenchmark and runs once per N rather than once per engine.
+ * Run with: java -jar benchmarks/target/benchmarks.jar BodyAccelerationBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BodyAccelerationBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int n;
+
+    private Runnable bodyAcceleration;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        bodyAcceleration = Fixtures.get("bodyAcceleration", new Class<?>[]{int.class}, n);
+    }
+
+    @Benchmark
+    public void bodyAcceleration()
+    {
+        bodyAcceleration.run();
+    }
+}
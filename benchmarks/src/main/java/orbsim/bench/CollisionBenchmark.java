@@ -0,0 +1,38 @@
+package orbsim.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One collision pass over every body, checking each pair with collisionChk() or through the spatial hash.
+ * Run with: java -jar benchmarks/target/benchmarks.jar CollisionBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollisionBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int n;
+
+    @Param({"brute", "grid"})
+    public String detector;
+
+    private Runnable pass;
+
+    @Setup(Level.Iteration)
+    public void setUp()
+    {
+        pass = Fixtures.get("collisionPass", new Class<?>[]{int.class, String.class}, n, detector);
+    }
+
+    @Benchmark
+    public void collisionPass()
+    {
+        pass.run();
+    }
+}
@@ -0,0 +1,35 @@
+package orbsim.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SystemSimulator.draw() into an offscreen image the size of the window.
+ * Run with: java -Djava.awt.headless=true -jar benchmarks/target/benchmarks.jar DrawBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DrawBenchmark
+{
+    @Param({"100", "1000", "10000", "100000"})
+    public int n;
+
+    private Runnable draw;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        draw = Fixtures.get("draw", new Class<?>[]{int.class}, n);
+    }
+
+    @Benchmark
+    public void draw()
+    {
+        draw.run();
+    }
+}
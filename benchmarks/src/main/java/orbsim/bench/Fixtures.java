@@ -0,0 +1,26 @@
+package orbsim.bench;
+
+import java.lang.reflect.Method;
+
+/**
+ * Looks up a fixture from the default-package BenchmarkFixtures class. Done once per setup, never inside a measured call.
+ */
+final class Fixtures
+{
+    private Fixtures()
+    {
+    }
+
+    static Runnable get(String name, Class<?>[] types, Object... args)
+    {
+        try
+        {
+            Method method = Class.forName("BenchmarkFixtures").getMethod(name, types);
+            return (Runnable) method.invoke(null, args);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Cannot set up fixture "+name, e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package orbsim.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A force evaluation for every body with each engine. The single Body.acceleration() sum, which uses no engine,
+ * is in BodyAccelerationBenchmark.
+ * Run with: java -jar benchmarks/target/benchmarks.jar ForceBenchmark -prof gc
+ * The tiled engine uses the vector kernel when built on JDK 17 and run with -jvmArgsAppend "--add-modules jdk.incubator.vector".
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ForceBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int n;
+
+    @Param({"direct", "tiled", "symmetric", "octree"})
+    public String engine;
+
+    private Runnable forcePass;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        forcePass = Fixtures.get("forcePass", new Class<?>[]{int.class, String.class}, n, engine);
+    }
+
+    @Benchmark
+    public void forcePass()
+    {
+        forcePass.run();
+    }
+}
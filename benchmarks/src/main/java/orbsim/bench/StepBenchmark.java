@@ -0,0 +1,38 @@
+package orbsim.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full SystemSimulator.updateSystem() step, with and without the collision pass.
+ * Run with: java -jar benchmarks/target/benchmarks.jar StepBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StepBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int n;
+
+    @Param({"true", "false"})
+    public boolean collisions;
+
+    private Runnable step;
+
+    @Setup(Level.Iteration)
+    public void setUp()
+    {
+        step = Fixtures.get("updateSystem", new Class<?>[]{int.class, boolean.class}, n, collisions);
+    }
+
+    @Benchmark
+    public void updateSystem()
+    {
+        step.run();
+    }
+}
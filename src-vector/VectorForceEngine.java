@@ -0,0 +1,102 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * TiledForceEngine's direct sum with the inner loop written against the jdk.incubator.vector API,
+ * so one pass of the loop handles as many bodies as the processor's widest double vector holds.
+ * The body itself, at distance zero, is masked out of each lane; removed bodies have zero mass in the packed arrays.
+ * The jerk, when asked for, is summed the same way in interactJerk().
+ * Needs JDK 16 or later with --add-modules jdk.incubator.vector at compile and run time, which is why it lives in
+ * src-vector; TiledForceEngine.create() falls back to the scalar kernel when it cannot be loaded.
+ */
+public class VectorForceEngine extends TiledForceEngine
+{
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    public VectorForceEngine()
+    {
+        if (SPECIES.length() > 8)
+        {
+            //The packed arrays are padded to a multiple of 8
+            throw new IllegalStateException("Unsupported vector length "+SPECIES.length());
+        }
+    }
+
+    @Override
+    public String kernel()
+    {
+        return "vector ("+SPECIES.length()+" lanes)";
+    }
+
+    @Override
+    protected void interact(BodyStore bodies, int i, int from, int to)
+    {
+        DoubleVector xi = DoubleVector.broadcast(SPECIES, bodies.x[i]);
+        DoubleVector yi = DoubleVector.broadcast(SPECIES, bodies.y[i]);
+        DoubleVector zi = DoubleVector.broadcast(SPECIES, bodies.z[i]);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector sumX = zero, sumY = zero, sumZ = zero, sumP = zero;
+        for (int j = from; j < to; j += SPECIES.length())
+        {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, px, j).sub(xi);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, py, j).sub(yi);
+            DoubleVector dz = DoubleVector.fromArray(SPECIES, pz, j).sub(zi);
+            DoubleVector distSq = dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz));
+            VectorMask<Double> valid = distSq.compare(VectorOperators.GT, 0);
+            DoubleVector scale = DoubleVector.fromArray(SPECIES, pgm, j).div(distSq.mul(distSq.sqrt()));
+            scale = zero.blend(scale, valid);
+            sumX = dx.fma(scale, sumX);
+            sumY = dy.fma(scale, sumY);
+            sumZ = dz.fma(scale, sumZ);
+            sumP = distSq.fma(scale, sumP);
+        }
+        bodies.ax[i] += sumX.reduceLanes(VectorOperators.ADD);
+        bodies.ay[i] += sumY.reduceLanes(VectorOperators.ADD);
+        bodies.az[i] += sumZ.reduceLanes(VectorOperators.ADD);
+        bodies.potential[i] -= sumP.reduceLanes(VectorOperators.ADD);
+    }
+
+    @Override
+    protected void interactJerk(BodyStore bodies, int i, int from, int to)
+    {
+        DoubleVector xi = DoubleVector.broadcast(SPECIES, bodies.x[i]);
+        DoubleVector yi = DoubleVector.broadcast(SPECIES, bodies.y[i]);
+        DoubleVector zi = DoubleVector.broadcast(SPECIES, bodies.z[i]);
+        DoubleVector vxi = DoubleVector.broadcast(SPECIES, bodies.vx[i]);
+        DoubleVector vyi = DoubleVector.broadcast(SPECIES, bodies.vy[i]);
+        DoubleVector vzi = DoubleVector.broadcast(SPECIES, bodies.vz[i]);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector sumX = zero, sumY = zero, sumZ = zero, sumP = zero, sumJX = zero, sumJY = zero, sumJZ = zero;
+        for (int j = from; j < to; j += SPECIES.length())
+        {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, px, j).sub(xi);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, py, j).sub(yi);
+            DoubleVector dz = DoubleVector.fromArray(SPECIES, pz, j).sub(zi);
+            DoubleVector dvx = DoubleVector.fromArray(SPECIES, pvx, j).sub(vxi);
+            DoubleVector dvy = DoubleVector.fromArray(SPECIES, pvy, j).sub(vyi);
+            DoubleVector dvz = DoubleVector.fromArray(SPECIES, pvz, j).sub(vzi);
+            DoubleVector distSq = dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz));
+            VectorMask<Double> valid = distSq.compare(VectorOperators.GT, 0);
+            DoubleVector scale = DoubleVector.fromArray(SPECIES, pgm, j).div(distSq.mul(distSq.sqrt()));
+            scale = zero.blend(scale, valid);
+            DoubleVector rv = dx.mul(dvx).add(dy.mul(dvy)).add(dz.mul(dvz)).mul(3).div(distSq);
+            rv = zero.blend(rv, valid);
+            sumX = dx.fma(scale, sumX);
+            sumY = dy.fma(scale, sumY);
+            sumZ = dz.fma(scale, sumZ);
+            sumP = distSq.fma(scale, sumP);
+            sumJX = dvx.sub(rv.mul(dx)).fma(scale, sumJX);
+            sumJY = dvy.sub(rv.mul(dy)).fma(scale, sumJY);
+            sumJZ = dvz.sub(rv.mul(dz)).fma(scale, sumJZ);
+        }
+        bodies.ax[i] += sumX.reduceLanes(VectorOperators.ADD);
+        bodies.ay[i] += sumY.reduceLanes(VectorOperators.ADD);
+        bodies.az[i] += sumZ.reduceLanes(VectorOperators.ADD);
+        bodies.potential[i] -= sumP.reduceLanes(VectorOperators.ADD);
+        bodies.jx[i] += sumJX.reduceLanes(VectorOperators.ADD);
+        bodies.jy[i] += sumJY.reduceLanes(VectorOperators.ADD);
+        bodies.jz[i] += sumJZ.reduceLanes(VectorOperators.ADD);
+    }
+}
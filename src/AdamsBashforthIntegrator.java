@@ -0,0 +1,119 @@
+/**
+ * The linear multistep method the simulator has always used.
+ * The preferred method of integration is the 3rd order Adams-Bashford method, but this requires information from 3 timesteps in the past.
+ * As this is not available at the start of the simulation, it first makes use of the Euler method for a frame.
+ * It then uses the two sets of position-velocity to use a more accurate 2nd order method.
+ * At this point, the 3rd frame in the simulation, it has enough data to use the 3rd order method and does so for the rest of the simulation.
+ * This system allows for roughly a 4-fold increase in speed with no loss of accuracy, or a 4-fold increase in accuracy with no loss of speed
+ * (compared to using solely the Euler method).
+ */
+public class AdamsBashforthIntegrator implements Integrator
+{
+    public void forcesReady(BodyStore bodies, int step, double dt)
+    {
+        bodies.refreshPendingAccelerations();
+    }
+
+    public void advance(BodyStore bodies, int i, int step, double dt)
+    {
+        if (step == 0)
+        {
+            eulerStep(bodies, i, dt);
+        }
+        else if (step == 1)
+        {
+            adamBash2ndOrdStep(bodies, i, dt);
+        }
+        else
+        {
+            adamBash3rdOrdStep(bodies, i, dt);
+        }
+    }
+
+    /**Updates a bodies position-velocity through the Euler method, a 1st order linear explicit method for numerical integration.
+     * Requires no more information than the current position and velocity, but stores the last values of them before simulating for future use.
+     * Least accurate of the three implemented methods, but requires little information, used only for the first frame.
+     * The body's acceleration must already have been computed into the store for this step.
+     * @param i The slot of the body to be simulated.*/
+    public static void eulerStep(BodyStore s, int i, double dt)
+    {
+        s.ax1[i]=s.ax[i];
+        s.ay1[i]=s.ay[i];
+        s.az1[i]=s.az[i];
+        s.vx1[i]=s.vx[i];
+        s.vy1[i]=s.vy[i];
+        s.vz1[i]=s.vz[i];
+        s.x[i]+=s.vx1[i]*dt;
+        s.y[i]+=s.vy1[i]*dt;
+        s.z[i]+=s.vz1[i]*dt;
+        s.vx[i]+=s.ax1[i]*dt;
+        s.vy[i]+=s.ay1[i]*dt;
+        s.vz[i]+=s.az1[i]*dt;
+    }
+
+    /**Updates a bodies position-velocity through the 2nd order explicit Adams-Bashford method.
+     * Requires both the current information and information from 1 frame ago, but stores info from 2 frames ago.
+     * Intermediate accuracy, intermediate information needs, used only for the second frame.
+     * @param i The slot of the body to be simulated.*/
+    public static void adamBash2ndOrdStep(BodyStore s, int i, double dt)
+    {
+        double c1 = 1.5*dt;
+        double c2 = 0.5*dt;
+        s.ax2[i]=s.ax1[i];
+        s.ay2[i]=s.ay1[i];
+        s.az2[i]=s.az1[i];
+        s.ax1[i]=s.ax[i];
+        s.ay1[i]=s.ay[i];
+        s.az1[i]=s.az[i];
+
+        s.vx2[i]=s.vx1[i];
+        s.vy2[i]=s.vy1[i];
+        s.vz2[i]=s.vz1[i];
+        s.vx1[i]=s.vx[i];
+        s.vy1[i]=s.vy[i];
+        s.vz1[i]=s.vz[i];
+        s.vx[i]+=s.ax1[i]*c1-s.ax2[i]*c2;
+        s.vy[i]+=s.ay1[i]*c1-s.ay2[i]*c2;
+        s.vz[i]+=s.az1[i]*c1-s.az2[i]*c2;
+
+        s.x[i]+=s.vx1[i]*c1-s.vx2[i]*c2;
+        s.y[i]+=s.vy1[i]*c1-s.vy2[i]*c2;
+        s.z[i]+=s.vz1[i]*c1-s.vz2[i]*c2;
+    }
+
+    /**Updates a bodies position-velocity through the 3rd order explicit Adams-Bashford method.
+     * Requires information from the 2 previous frames, used for every frame after the second.
+     * @param i The slot of the body to be simulated.*/
+    public static void adamBash3rdOrdStep(BodyStore s, int i, double dt)
+    {
+        double c1 = dt*(23D/12D);
+        double c2 = dt*(4D/3D);
+        double c3 = dt*(5D/12D);
+        s.ax3[i]=s.ax2[i];
+        s.ay3[i]=s.ay2[i];
+        s.az3[i]=s.az2[i];
+        s.ax2[i]=s.ax1[i];
+        s.ay2[i]=s.ay1[i];
+        s.az2[i]=s.az1[i];
+        s.ax1[i]=s.ax[i];
+        s.ay1[i]=s.ay[i];
+        s.az1[i]=s.az[i];
+
+        s.vx3[i]=s.vx2[i];
+        s.vy3[i]=s.vy2[i];
+        s.vz3[i]=s.vz2[i];
+        s.vx2[i]=s.vx1[i];
+        s.vy2[i]=s.vy1[i];
+        s.vz2[i]=s.vz1[i];
+        s.vx1[i]=s.vx[i];
+        s.vy1[i]=s.vy[i];
+        s.vz1[i]=s.vz[i];
+        s.vx[i]+=s.ax1[i]*c1-s.ax2[i]*c2+s.ax3[i]*c3;
+        s.vy[i]+=s.ay1[i]*c1-s.ay2[i]*c2+s.ay3[i]*c3;
+        s.vz[i]+=s.az1[i]*c1-s.az2[i]*c2+s.az3[i]*c3;
+
+        s.x[i]+=s.vx1[i]*c1-s.vx2[i]*c2+s.vx3[i]*c3;
+        s.y[i]+=s.vy1[i]*c1-s.vy2[i]*c2+s.vy3[i]*c3;
+        s.z[i]+=s.vz1[i]*c1-s.vz2[i]*c2+s.vz3[i]*c3;
+    }
+}
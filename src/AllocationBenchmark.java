@@ -0,0 +1,48 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the heap allocated by SystemSimulator.updateSystem() on the simulating thread.
+ * With the BodyStore in place the force loop and integrators allocate nothing, so a step with no collisions reports 0 bytes.
+ * Run with: java AllocationBenchmark [warmupSteps] [measuredSteps]
+ */
+public class AllocationBenchmark
+{
+    public static void main(String[] args)
+    {
+        int warmup = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        SystemSimulator sim = new SystemSimulator();
+        for (int i = 0; i < warmup; i++)
+        {
+            sim.updateSystem();
+        }
+
+        long worst = 0;
+        int zeroSteps = 0;
+        long start = threads.getThreadAllocatedBytes(thread);
+        long before = start;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < steps; i++)
+        {
+            sim.updateSystem();
+            long after = threads.getThreadAllocatedBytes(thread);
+            long delta = after - before;
+            worst = Math.max(worst, delta);
+            if (delta == 0)
+            {
+                zeroSteps++;
+            }
+            before = threads.getThreadAllocatedBytes(thread);
+        }
+        long elapsed = System.nanoTime() - startTime;
+        long total = before - start;
+
+        System.out.println("Bodies: "+sim.bodies.count);
+        System.out.println("Steps: "+steps+"  ms/step: "+(elapsed/1e6/steps));
+        System.out.println("Allocated bytes/step: "+(total/(double) steps)+"  worst step: "+worst);
+        System.out.println("Steps allocating nothing: "+zeroSteps+"/"+steps);
+    }
+}
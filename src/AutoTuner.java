@@ -0,0 +1,327 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Chooses the force engine and collision detector while a run goes on. The fastest choice for the ~1300 bodies a run
+ * starts with is rarely the fastest for the few dozen left after accretion.
+ * Install forceEngine and/or collisionDetector in the simulator. The candidates then take turns running real steps,
+ * trialSteps each, so no pass is spent on measurement alone, and the fastest is kept. The first round times code the
+ * JIT has not compiled yet, so it only warms the candidates up, and the first choice is made warmupSteps later.
+ * After that the candidates are timed again when the number of bodies has changed by retuneChange since the last
+ * choice, or retuneEvery steps later. A detector is timed only in its own beginStep() and resolveCollisions() calls,
+ * so the force pass of the same step, whichever engine runs it, is not counted against it.
+ * Only candidates that give the same results up to rounding are tried: direct, tiled and symmetric summation, on the
+ * worker pool and on the calling thread, and the grid and brute force collision checks. The octree is tried too when
+ * approximate forces are allowed. Every choice is printed, and written to the log file if there is one, as
+ * <pre>
+ * step,bodies,kind,reason,candidate,millis,chosen
+ * </pre>
+ * with one line per candidate timed; millis is its fastest trial step, and chosen is 1 for the one kept.
+ */
+public class AutoTuner
+{
+    /**Steps each candidate is timed for, taking turns; the fastest of them counts*/
+    public int trialSteps = 3;
+    /**Steps after the warm-up round at which the candidates are timed for the first choice*/
+    public int warmupSteps = 100;
+    /**Steps after which the candidates are timed again even if the number of bodies has not changed*/
+    public int retuneEvery = 2000;
+    /**Fraction by which the number of bodies must change since the last choice for the candidates to be timed again*/
+    public double retuneChange = 0.25;
+    /**Fraction by which another candidate must beat the current one to replace it, so timing noise does not cause switches*/
+    public double margin = 0.1;
+
+    private final SystemSimulator sim;
+    /**Destination of the log lines, or null to only print the choices*/
+    private final PrintWriter out;
+    private final ForceEngine[] engines;
+    /**Whether each engine candidate is given the worker pool, when the simulator has one*/
+    private final boolean[] pooled;
+    private final CollisionDetector[] detectors;
+    private final Choice engineChoice;
+    private final Choice detectorChoice;
+    private ForceEngine lastEngine;
+    /**Detector picked by beginStep() for the step under way*/
+    private int detector;
+    /**Time the detector spent in beginStep() this step; the force pass and integration between it and
+     * resolveCollisions() are not the detector's, so only the two calls themselves are timed*/
+    private long detectorBegin;
+
+    /**Times the candidate engines in place of a single engine; install it as the simulator's forceEngine.*/
+    public final ForceEngine forceEngine = new ForceEngine() {
+        @Override
+        public void computeAccelerations(BodyStore bodies) {
+            computeAccelerations(bodies, null);
+        }
+
+        @Override
+        public void computeAccelerations(BodyStore bodies, WorkerPool workers) {
+            for (int k = 0; k < engines.length; k++)
+            {
+                //Pooled and serial runs are the same without a pool, and only some engines compute the jerk
+                engineChoice.usable[k] = (workers != null || !pooled[k]) && (!bodies.computeJerk || engines[k].computesJerk());
+            }
+            int k = engineChoice.next(bodies.count);
+            long start = System.nanoTime();
+            if (pooled[k] && workers != null)
+            {
+                engines[k].computeAccelerations(bodies, workers);
+            }
+            else
+            {
+                engines[k].computeAccelerations(bodies);
+            }
+            lastEngine = engines[k];
+            engineChoice.timed(k, System.nanoTime() - start, bodies.count);
+        }
+
+        @Override
+        public boolean computesJerk() {
+            for (ForceEngine e : engines)
+            {
+                if (e.computesJerk())
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public long getInteractionCount() {
+            return lastEngine != null ? lastEngine.getInteractionCount() : 0;
+        }
+    };
+
+    /**Times the candidate detectors in place of a single detector; install it as the simulator's collisionDetector.*/
+    public final CollisionDetector collisionDetector = new CollisionDetector() {
+        @Override
+        public void beginStep(BodyStore bodies) {
+            Arrays.fill(detectorChoice.usable, true);
+            detector = detectorChoice.next(bodies.count);
+            long start = System.nanoTime();
+            detectors[detector].beginStep(bodies);
+            detectorBegin = System.nanoTime() - start;
+        }
+
+        @Override
+        public void resolveCollisions(BodyStore bodies) {
+            long start = System.nanoTime();
+            detectors[detector].resolveCollisions(bodies);
+            //Before compaction, so count is still the number of bodies the step started with
+            detectorChoice.timed(detector, detectorBegin + System.nanoTime() - start, bodies.count);
+        }
+    };
+
+    /**Creates a tuner for a simulation.
+     * @param sim The simulation whose steps are counted
+     * @param path The CSV log to write, or null to only print the choices
+     * @param theta Opening angle for the octree candidate; 0 leaves the octree out, keeping the forces exact*/
+    public AutoTuner(SystemSimulator sim, String path, double theta) throws IOException
+    {
+        this.sim = sim;
+        if (path != null)
+        {
+            out = new PrintWriter(new BufferedWriter(new FileWriter(path)));
+            out.println("step,bodies,kind,reason,candidate,millis,chosen");
+        }
+        else
+        {
+            out = null;
+        }
+        DirectForceEngine direct = new DirectForceEngine();
+        TiledForceEngine tiled = TiledForceEngine.create();
+        //SymmetricForceEngine writes both bodies of a pair, so it only runs on the calling thread
+        if (theta > 0)
+        {
+            OctreeForceEngine octree = new OctreeForceEngine(theta);
+            engines = new ForceEngine[] {direct, direct, tiled, tiled, new SymmetricForceEngine(), octree, octree};
+            pooled = new boolean[] {true, false, true, false, false, true, false};
+            engineChoice = new Choice("force", new String[] {"direct", "direct serial", "tiled", "tiled serial", "symmetric", "octree", "octree serial"});
+        }
+        else
+        {
+            engines = new ForceEngine[] {direct, direct, tiled, tiled, new SymmetricForceEngine()};
+            pooled = new boolean[] {true, false, true, false, false};
+            engineChoice = new Choice("force", new String[] {"direct", "direct serial", "tiled", "tiled serial", "symmetric"});
+        }
+        detectors = new CollisionDetector[] {new CollisionGrid(), new BruteForceCollisions()};
+        detectorChoice = new Choice("collisions", new String[] {"grid", "brute"});
+    }
+
+    /**Name of the force engine in use, as logged*/
+    public String getEngine()
+    {
+        return engineChoice.names[engineChoice.choice];
+    }
+
+    /**Name of the collision detector in use, as logged*/
+    public String getDetector()
+    {
+        return detectorChoice.names[detectorChoice.choice];
+    }
+
+    /**Number of rounds in which the force engines or collision detectors were timed, the warm-up rounds included.*/
+    public int getTuneCount()
+    {
+        return engineChoice.tunes + detectorChoice.tunes;
+    }
+
+    /**Flushes and closes the log file, if there is one.*/
+    public void close()
+    {
+        if (out != null)
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * The candidates for one kind of pass, and the timing of them.
+     * The caller marks which candidates are usable, asks next() which to run, and reports the time with timed().
+     */
+    private class Choice
+    {
+        final String kind;
+        final String[] names;
+        final boolean[] usable;
+        /**Fastest trial of each candidate in the current round, in nanoseconds*/
+        final long[] best;
+        int choice;
+        /**Trial steps done in the current round, or -1 between rounds*/
+        int trial = -1;
+        int tunedCount;
+        int tunedStep = -1;
+        /**Rounds finished, the warm-up included*/
+        int tunes;
+        String reason;
+
+        Choice(String kind, String[] names)
+        {
+            this.kind = kind;
+            this.names = names;
+            usable = new boolean[names.length];
+            best = new long[names.length];
+        }
+
+        /**Starts a round of timing if one is due and returns the candidate to run this step.*/
+        int next(int bodies)
+        {
+            if (trial < 0)
+            {
+                int step = sim.getStepCount();
+                if (tunedStep < 0)
+                {
+                    reason = "warm-up";
+                }
+                else if (bodies < tunedCount*(1 - retuneChange) || bodies > tunedCount*(1 + retuneChange))
+                {
+                    reason = "bodies "+tunedCount+" to "+bodies;
+                }
+                else if (tunes == 1 && step - tunedStep >= warmupSteps)
+                {
+                    reason = "warmed up";
+                }
+                else if (step - tunedStep >= retuneEvery)
+                {
+                    reason = (step - tunedStep)+" steps";
+                }
+                else if (!usable[choice])
+                {
+                    reason = names[choice]+" unusable";
+                }
+                else
+                {
+                    return choice;
+                }
+                trial = 0;
+                Arrays.fill(best, Long.MAX_VALUE);
+            }
+            skipUnusable();
+            if (trial < names.length*trialSteps)
+            {
+                return trial % names.length;
+            }
+            //What was usable has changed since the round began and none is left to time; this step ends the round
+            for (int k = usable[choice] ? choice : 0; k < names.length; k++)
+            {
+                if (usable[k])
+                {
+                    return k;
+                }
+            }
+            throw new IllegalStateException("No usable "+kind+" candidate");
+        }
+
+        /**Records the time of a trial step, and chooses once every usable candidate has had its steps.*/
+        void timed(int candidate, long nanos, int bodies)
+        {
+            if (trial < 0)
+            {
+                return;
+            }
+            best[candidate] = Math.min(best[candidate], nanos);
+            trial++;
+            skipUnusable();
+            if (trial < names.length*trialSteps)
+            {
+                return;
+            }
+            int fastest = choice;
+            for (int k = 0; k < names.length; k++)
+            {
+                if (best[k] < best[fastest])
+                {
+                    fastest = k;
+                }
+            }
+            //The current choice stays unless it was not usable or another is clearly faster; after warm-up it always stays
+            if (best[choice] == Long.MAX_VALUE || (tunes > 0 && best[fastest] < best[choice]*(1 - margin)))
+            {
+                choice = fastest;
+            }
+            trial = -1;
+            tunedStep = sim.getStepCount();
+            tunedCount = bodies;
+            tunes++;
+            log(bodies);
+        }
+
+        /**Moves the trial count past candidates that cannot run this step.*/
+        private void skipUnusable()
+        {
+            while (trial < names.length*trialSteps && !usable[trial % names.length])
+            {
+                trial++;
+            }
+        }
+
+        private void log(int bodies)
+        {
+            StringBuilder line = new StringBuilder("Auto-tune ").append(kind).append(" at step ").append(tunedStep)
+                    .append(", ").append(bodies).append(" bodies (").append(reason).append("):");
+            for (int k = 0; k < names.length; k++)
+            {
+                if (best[k] == Long.MAX_VALUE)
+                {
+                    continue;
+                }
+                double millis = best[k]/1e6;
+                line.append(' ').append(names[k]).append(' ').append(String.format("%.3f", millis)).append(" ms,");
+                if (out != null)
+                {
+                    out.println(tunedStep+","+bodies+","+kind+","+reason+","+names[k]+","+millis+","+(k == choice ? 1 : 0));
+                }
+            }
+            line.setLength(line.length() - 1);
+            System.out.println(line.append(" -> ").append(names[choice]));
+            if (out != null)
+            {
+                out.flush();
+            }
+        }
+    }
+}
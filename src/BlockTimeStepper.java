@@ -0,0 +1,412 @@
+import java.util.Arrays;
+
+/**
+ * Hierarchical block time-stepping. Each body steps by the base step (timeCompression) divided by a power of two,
+ * chosen from its acceleration and jerk, so bodies in close encounters take small steps while bodies on wide orbits
+ * keep taking the full base step. One call to step() advances every body by one base step; at its end all bodies
+ * are synchronised again, which is when collisions are resolved.
+ * At each sub-step only the bodies that are due are integrated, with forces computed against the positions of the
+ * other bodies predicted to the same time. Each body keeps its Adams-Bashford history at its own step size;
+ * the history is re-sampled by polynomial interpolation whenever the body changes level.
+ * Forces are always evaluated by direct summation, since only the due bodies need them.
+ */
+public class BlockTimeStepper
+{
+    /**Finest level; the smallest step is the base step divided by 2^maxLevel*/
+    private final int maxLevel;
+    /**Accuracy parameter: a body's step is at most eta*|a|/|da/dt|*/
+    private final double eta;
+
+    /**Time of each body within the current base step, in ticks of base/2^maxLevel*/
+    private long[] time = new long[0];
+    /**Positions and velocities of every body predicted to the current block time*/
+    private double[] px = new double[0], py = new double[0], pz = new double[0];
+    private double[] pvx = new double[0], pvy = new double[0], pvz = new double[0];
+    /**Jerk (rate of change of acceleration) from each body's latest force evaluation*/
+    private double[] jx = new double[0], jy = new double[0], jz = new double[0];
+    /**Bodies due at the current block time*/
+    private int[] active = new int[0];
+    private int activeCount;
+    private long interactions;
+    private long subSteps;
+    /**Length of the base step being taken, in seconds*/
+    private double base;
+
+    private BodyStore target;
+    private final WorkerPool.RangeTask forceTask = new WorkerPool.RangeTask() {
+        @Override
+        public void run(int from, int to, int worker) {
+            for (int k = from; k < to; k++)
+            {
+                evaluate(target, active[k]);
+            }
+        }
+    };
+
+    /**@param maxLevel Finest level allowed, so steps can shrink to base/2^maxLevel
+     * @param eta Accuracy parameter; smaller values give smaller steps*/
+    public BlockTimeStepper(int maxLevel, double eta)
+    {
+        this.maxLevel = Math.max(0, Math.min(maxLevel, 40));
+        this.eta = eta;
+    }
+
+    public BlockTimeStepper()
+    {
+        this(10, 0.01);
+    }
+
+    /**Number of pairwise interactions evaluated during the last base step*/
+    public long getInteractionCount()
+    {
+        return interactions;
+    }
+
+    /**Number of block times visited during the last base step*/
+    public long getSubStepCount()
+    {
+        return subSteps;
+    }
+
+    /**Advances every live body by one base step.
+     * @param bodies The store to advance
+     * @param workers Pool to spread force evaluation over, or null
+     * @param base Length of the base step in seconds*/
+    public void step(BodyStore bodies, WorkerPool workers, double base)
+    {
+        int n = bodies.count;
+        ensureCapacity(bodies.mass.length);
+        this.base = base;
+        long ticks = 1L << maxLevel;
+        double tick = base/ticks;
+        interactions = 0;
+        subSteps = 0;
+
+        //Bodies changed by a merge restart their history from a fresh evaluation
+        if (bodies.hasPendingAccelerations())
+        {
+            for (int i = 0; i < n; i++)
+            {
+                if (bodies.accelPending[i])
+                {
+                    bodies.history[i] = 0;
+                }
+            }
+            bodies.clearPendingAccelerations();
+        }
+        //Every body starts the base step synchronised; bodies without history get their first force evaluation now
+        activeCount = 0;
+        for (int i = 0; i < n; i++)
+        {
+            time[i] = 0;
+            predictFromCurrent(bodies, i);
+            if (!bodies.removed[i] && bodies.history[i] == 0)
+            {
+                active[activeCount++] = i;
+            }
+        }
+        if (activeCount > 0)
+        {
+            evaluateActive(bodies, workers);
+            for (int k = 0; k < activeCount; k++)
+            {
+                int i = active[k];
+                bodies.ax1[i] = bodies.ax[i];
+                bodies.ay1[i] = bodies.ay[i];
+                bodies.az1[i] = bodies.az[i];
+                bodies.vx1[i] = bodies.vx[i];
+                bodies.vy1[i] = bodies.vy[i];
+                bodies.vz1[i] = bodies.vz[i];
+                bodies.history[i] = 1;
+                bodies.level[i] = chooseLevel(bodies, i, bodies.level[i], 0, true);
+            }
+        }
+
+        while (true)
+        {
+            long now = Long.MAX_VALUE;
+            for (int i = 0; i < n; i++)
+            {
+                if (!bodies.removed[i])
+                {
+                    now = Math.min(now, time[i] + span(bodies.level[i]));
+                }
+            }
+            if (now == Long.MAX_VALUE || now > ticks)
+            {
+                break;
+            }
+            subSteps++;
+
+            activeCount = 0;
+            for (int i = 0; i < n; i++)
+            {
+                if (bodies.removed[i])
+                {
+                    continue;
+                }
+                if (time[i] + span(bodies.level[i]) == now)
+                {
+                    active[activeCount++] = i;
+                    advance(bodies, i, span(bodies.level[i])*tick);
+                    time[i] = now;
+                    predictFromCurrent(bodies, i);
+                }
+                else
+                {
+                    predict(bodies, i, (now - time[i])*tick);
+                }
+            }
+
+            evaluateActive(bodies, workers);
+            for (int k = 0; k < activeCount; k++)
+            {
+                int i = active[k];
+                shiftHistory(bodies, i);
+                int oldLevel = bodies.level[i];
+                int newLevel = chooseLevel(bodies, i, oldLevel, now, now == ticks);
+                if (newLevel != oldLevel)
+                {
+                    rescaleHistory(bodies, i, Math.pow(2, oldLevel - newLevel));
+                    bodies.level[i] = newLevel;
+                }
+            }
+            if (now == ticks)
+            {
+                break;
+            }
+        }
+    }
+
+    /**Distance between a level's steps, in ticks*/
+    private long span(int level)
+    {
+        return 1L << (maxLevel - level);
+    }
+
+    /**Moves a body from its own time to the end of its step with the Adams-Bashford method its history allows.
+     * Its history holds the acceleration and velocity at its current time and the previous steps.*/
+    private void advance(BodyStore s, int i, double h)
+    {
+        int depth = s.history[i];
+        if (depth <= 1)
+        {
+            s.x[i] += s.vx1[i]*h;
+            s.y[i] += s.vy1[i]*h;
+            s.z[i] += s.vz1[i]*h;
+            s.vx[i] = s.vx1[i] + s.ax1[i]*h;
+            s.vy[i] = s.vy1[i] + s.ay1[i]*h;
+            s.vz[i] = s.vz1[i] + s.az1[i]*h;
+        }
+        else if (depth == 2)
+        {
+            double c1 = 1.5*h, c2 = 0.5*h;
+            s.x[i] += s.vx1[i]*c1 - s.vx2[i]*c2;
+            s.y[i] += s.vy1[i]*c1 - s.vy2[i]*c2;
+            s.z[i] += s.vz1[i]*c1 - s.vz2[i]*c2;
+            s.vx[i] = s.vx1[i] + s.ax1[i]*c1 - s.ax2[i]*c2;
+            s.vy[i] = s.vy1[i] + s.ay1[i]*c1 - s.ay2[i]*c2;
+            s.vz[i] = s.vz1[i] + s.az1[i]*c1 - s.az2[i]*c2;
+        }
+        else
+        {
+            double c1 = h*(23D/12D), c2 = h*(4D/3D), c3 = h*(5D/12D);
+            s.x[i] += s.vx1[i]*c1 - s.vx2[i]*c2 + s.vx3[i]*c3;
+            s.y[i] += s.vy1[i]*c1 - s.vy2[i]*c2 + s.vy3[i]*c3;
+            s.z[i] += s.vz1[i]*c1 - s.vz2[i]*c2 + s.vz3[i]*c3;
+            s.vx[i] = s.vx1[i] + s.ax1[i]*c1 - s.ax2[i]*c2 + s.ax3[i]*c3;
+            s.vy[i] = s.vy1[i] + s.ay1[i]*c1 - s.ay2[i]*c2 + s.ay3[i]*c3;
+            s.vz[i] = s.vz1[i] + s.az1[i]*c1 - s.az2[i]*c2 + s.az3[i]*c3;
+        }
+    }
+
+    private void predictFromCurrent(BodyStore s, int i)
+    {
+        px[i] = s.x[i];
+        py[i] = s.y[i];
+        pz[i] = s.z[i];
+        pvx[i] = s.vx[i];
+        pvy[i] = s.vy[i];
+        pvz[i] = s.vz[i];
+    }
+
+    /**Predicts a body that is not due forward by dt seconds from its own time, using its latest acceleration.*/
+    private void predict(BodyStore s, int i, double dt)
+    {
+        double half = 0.5*dt*dt;
+        px[i] = s.x[i] + s.vx[i]*dt + s.ax1[i]*half;
+        py[i] = s.y[i] + s.vy[i]*dt + s.ay1[i]*half;
+        pz[i] = s.z[i] + s.vz[i]*dt + s.az1[i]*half;
+        pvx[i] = s.vx[i] + s.ax1[i]*dt;
+        pvy[i] = s.vy[i] + s.ay1[i]*dt;
+        pvz[i] = s.vz[i] + s.az1[i]*dt;
+    }
+
+    private void evaluateActive(BodyStore bodies, WorkerPool workers)
+    {
+        if (workers != null)
+        {
+            target = bodies;
+            workers.forEach(activeCount, forceTask);
+            target = null;
+        }
+        else
+        {
+            for (int k = 0; k < activeCount; k++)
+            {
+                evaluate(bodies, active[k]);
+            }
+        }
+        interactions += (long) activeCount*(bodies.liveCount()-1);
+    }
+
+    /**Computes the acceleration (into ax, ay, az), potential and jerk of body i against the predicted positions of every other body.*/
+    private void evaluate(BodyStore s, int i)
+    {
+        double G = s.G;
+        double xi = px[i], yi = py[i], zi = pz[i];
+        double vxi = pvx[i], vyi = pvy[i], vzi = pvz[i];
+        double sumX = 0, sumY = 0, sumZ = 0, sumP = 0, jerkX = 0, jerkY = 0, jerkZ = 0;
+        for (int j = 0; j < s.count; j++)
+        {
+            if (j == i || s.removed[j])
+            {
+                continue;
+            }
+            double dx = px[j] - xi, dy = py[j] - yi, dz = pz[j] - zi;
+            double dvx = pvx[j] - vxi, dvy = pvy[j] - vyi, dvz = pvz[j] - vzi;
+            double distSq = dx*dx + dy*dy + dz*dz;
+            double invDist = 1/Math.sqrt(distSq);
+            double scale = G*s.mass[j]*invDist*invDist*invDist;
+            double rv = 3*(dx*dvx + dy*dvy + dz*dvz)/distSq;
+            sumX += dx*scale;
+            sumY += dy*scale;
+            sumZ += dz*scale;
+            sumP -= G*s.mass[j]*invDist;
+            jerkX += (dvx - rv*dx)*scale;
+            jerkY += (dvy - rv*dy)*scale;
+            jerkZ += (dvz - rv*dz)*scale;
+        }
+        s.ax[i] = sumX;
+        s.ay[i] = sumY;
+        s.az[i] = sumZ;
+        s.potential[i] = sumP;
+        jx[i] = jerkX;
+        jy[i] = jerkY;
+        jz[i] = jerkZ;
+    }
+
+    /**Pushes the new acceleration and velocity onto a body's history.*/
+    private void shiftHistory(BodyStore s, int i)
+    {
+        s.ax3[i] = s.ax2[i];
+        s.ay3[i] = s.ay2[i];
+        s.az3[i] = s.az2[i];
+        s.ax2[i] = s.ax1[i];
+        s.ay2[i] = s.ay1[i];
+        s.az2[i] = s.az1[i];
+        s.ax1[i] = s.ax[i];
+        s.ay1[i] = s.ay[i];
+        s.az1[i] = s.az[i];
+        s.vx3[i] = s.vx2[i];
+        s.vy3[i] = s.vy2[i];
+        s.vz3[i] = s.vz2[i];
+        s.vx2[i] = s.vx1[i];
+        s.vy2[i] = s.vy1[i];
+        s.vz2[i] = s.vz1[i];
+        s.vx1[i] = s.vx[i];
+        s.vy1[i] = s.vy[i];
+        s.vz1[i] = s.vz[i];
+        s.history[i] = Math.min(3, s.history[i]+1);
+    }
+
+    /**Picks the level for a body's next step. It may move to any finer level at once, but only one level coarser,
+     * and only when the current time lies on a step of the coarser level so that it stays in sync with it.
+     * @param now Current block time in ticks
+     * @param synced Whether every body is at this time (the start or end of a base step)*/
+    private int chooseLevel(BodyStore s, int i, int current, long now, boolean synced)
+    {
+        double a = Math.sqrt(s.ax[i]*s.ax[i] + s.ay[i]*s.ay[i] + s.az[i]*s.az[i]);
+        double jerk = Math.sqrt(jx[i]*jx[i] + jy[i]*jy[i] + jz[i]*jz[i]);
+        double wanted = jerk > 0 ? eta*a/jerk : Double.POSITIVE_INFINITY;
+        double dt = base;
+        int level = 0;
+        while (level < maxLevel && dt > wanted)
+        {
+            dt /= 2;
+            level++;
+        }
+        if (level >= current || synced && s.history[i] <= 1)
+        {
+            return level;
+        }
+        int coarser = current-1;
+        return now % span(coarser) == 0 ? coarser : current;
+    }
+
+    /**Re-samples a body's history at a new step size, from a quadratic (or, with less history, linear) fit
+     * through the stored points.
+     * @param ratio New step size divided by the old one*/
+    private void rescaleHistory(BodyStore s, int i, double ratio)
+    {
+        int depth = s.history[i];
+        if (depth <= 1)
+        {
+            return;
+        }
+        if (depth == 2)
+        {
+            //Line through f(0) and f(-1), f(u) = (1+u)*f(0) - u*f(-1), evaluated at u = -ratio
+            double w0 = 1-ratio, w1 = ratio;
+            s.ax2[i] = w0*s.ax1[i] + w1*s.ax2[i];
+            s.ay2[i] = w0*s.ay1[i] + w1*s.ay2[i];
+            s.az2[i] = w0*s.az1[i] + w1*s.az2[i];
+            s.vx2[i] = w0*s.vx1[i] + w1*s.vx2[i];
+            s.vy2[i] = w0*s.vy1[i] + w1*s.vy2[i];
+            s.vz2[i] = w0*s.vz1[i] + w1*s.vz2[i];
+            return;
+        }
+        //Lagrange weights on nodes 0, -1, -2 evaluated at u = -ratio and u = -2*ratio
+        double u = -ratio, v = -2*ratio;
+        double a0 = (u+1)*(u+2)/2, a1 = -u*(u+2), a2 = u*(u+1)/2;
+        double b0 = (v+1)*(v+2)/2, b1 = -v*(v+2), b2 = v*(v+1)/2;
+        double f0, f1, f2;
+        f0 = s.ax1[i]; f1 = s.ax2[i]; f2 = s.ax3[i];
+        s.ax2[i] = a0*f0 + a1*f1 + a2*f2;
+        s.ax3[i] = b0*f0 + b1*f1 + b2*f2;
+        f0 = s.ay1[i]; f1 = s.ay2[i]; f2 = s.ay3[i];
+        s.ay2[i] = a0*f0 + a1*f1 + a2*f2;
+        s.ay3[i] = b0*f0 + b1*f1 + b2*f2;
+        f0 = s.az1[i]; f1 = s.az2[i]; f2 = s.az3[i];
+        s.az2[i] = a0*f0 + a1*f1 + a2*f2;
+        s.az3[i] = b0*f0 + b1*f1 + b2*f2;
+        f0 = s.vx1[i]; f1 = s.vx2[i]; f2 = s.vx3[i];
+        s.vx2[i] = a0*f0 + a1*f1 + a2*f2;
+        s.vx3[i] = b0*f0 + b1*f1 + b2*f2;
+        f0 = s.vy1[i]; f1 = s.vy2[i]; f2 = s.vy3[i];
+        s.vy2[i] = a0*f0 + a1*f1 + a2*f2;
+        s.vy3[i] = b0*f0 + b1*f1 + b2*f2;
+        f0 = s.vz1[i]; f1 = s.vz2[i]; f2 = s.vz3[i];
+        s.vz2[i] = a0*f0 + a1*f1 + a2*f2;
+        s.vz3[i] = b0*f0 + b1*f1 + b2*f2;
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (time.length >= capacity)
+        {
+            return;
+        }
+        time = new long[capacity];
+        px = new double[capacity];
+        py = new double[capacity];
+        pz = new double[capacity];
+        pvx = new double[capacity];
+        pvy = new double[capacity];
+        pvz = new double[capacity];
+        jx = Arrays.copyOf(jx, capacity);
+        jy = Arrays.copyOf(jy, capacity);
+        jz = Arrays.copyOf(jz, capacity);
+        active = new int[capacity];
+    }
+}
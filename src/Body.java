@@ -1,176 +1,173 @@
-import java.awt.*;
-import java.awt.geom.Ellipse2D;
-
 /**
  * A gravitationally interacting body, with methods to compute its current acceleration
  * based on the presence of other bodies.
+ * The state itself lives in a BodyStore; a Body is a lightweight view onto one slot of it,
+ * used by the GUI and the collision code.
  */
 public class Body
 {
-    /**Name of the body; a body only interacts gravitationally with other bodies with unique names*/
-    public String ident;
+    /**The store holding this body's state*/
+    public final BodyStore store;
+    /**The slot of this body in the store; updated when the store compacts*/
+    public int index;
+
+    /**Creates a view of a body already held in a store.
+     * @param s The store holding the Body
+     * @param i The slot of the Body*/
+    public Body(BodyStore s, int i)
+    {
+        store = s;
+        index = i;
+    }
+
+    /**Name of the body*/
+    public String getIdent()
+    {
+        return store.ident[index];
+    }
+
     /**Mass in kilograms*/
-    public double mass;
+    public double getMass()
+    {
+        return store.mass[index];
+    }
+
     /**Radius in meters*/
-    public double size;
-    /**Density in kg/m^3, computed when object is instantiated*/
-    public double density;
-    /**x-y position of the body in the simulation, origin at top left*/
-    public Vector3D location;
+    public double getSize()
+    {
+        return store.size[index];
+    }
+
+    /**Density in kg/m^3*/
+    public double getDensity()
+    {
+        return store.density[index];
+    }
+
+    /**Position of the body in the simulation, origin at top left*/
+    public Vector3D getLocation()
+    {
+        return new Vector3D(store.x[index], store.y[index], store.z[index]);
+    }
+
     /**Velocity of the body*/
-    public Vector3D velocity;
-    /**An RGB color for visual identification*/
-    int[] color;
-    /**Acceleration 1 timestep in the past*/
-    public Vector3D accelOld;
-    /**Acceleration 2 timesteps in the past*/
-    public Vector3D accel2Old;
-    /**Acceleration 3 timesteps in the past*/
-    public Vector3D accel3Old;
-    /**Velocity 1 timestep in the past*/
-    public Vector3D velOld;
-    /**Velocity 2 timesteps in the past*/
-    public Vector3D vel2Old;
-    /**Velocity 3 timesteps in the past*/
-    public Vector3D vel3Old;
-    public Boolean doRemove = false;
+    public Vector3D getVelocity()
+    {
+        return new Vector3D(store.vx[index], store.vy[index], store.vz[index]);
+    }
 
-    /*Simultaneous simulation variables*/
-    public Vector3D locNew;
-    public Vector3D velNew;
+    /**An RGB color for visual identification*/
+    public int[] getColor()
+    {
+        int rgb = store.color[index];
+        return new int[]{BodyStore.red(rgb), BodyStore.green(rgb), BodyStore.blue(rgb)};
+    }
 
-    /**Creates a body with all required information to run the simulation.
-     * @param id Name of the Body
-     * @param m Mass of the Body
-     * @param r Radius of the Body
-     * @param loc Initial location of the Body
-     * @param vel Initial velocity of the Body
-     * @param col An RGB color to identify the Body*/
-    public Body(String id, double m, double r, Vector3D loc, Vector3D vel, int[] col)
+    /**Whether the body has been absorbed in a collision this step*/
+    public boolean isRemoved()
     {
-        ident=id;
-        mass=m;
-        size=r;
-        density=m/((4D/3D)*Math.PI*Math.pow(r, 3));
-        location = loc;
-        velocity = vel;
-        color = col;
+        return store.removed[index];
     }
 
     /**Computes current acceleration of the body due to the gravitational influence of other bodies in their current positions.
-     * @return A Vector corresponding to acceleration along the x and y axis*/
+     * @return A Vector corresponding to acceleration along the x, y and z axis*/
     public Vector3D acceleration()
     {
-        Vector3D totalAcceleration = new Vector3D(0, 0, 0);
-        for(Body b : SystemSimulator.bodies)
-        {
-            //System.out.println(b.doRemove);
-            if (!ident.equals(b.ident) && !doRemove && !b.doRemove)
-            {
-                totalAcceleration=totalAcceleration.add(twoBodyAcceleration(b));
-            }
-        }
-        //System.out.println("ta "+totalAcceleration);
-        return totalAcceleration;
+        store.acceleration(index);
+        return new Vector3D(store.ax[index], store.ay[index], store.az[index]);
     }
 
-    /**Used by acceleration(), finds gravity due to one other body.
+    /**Finds gravity due to one other body.
      * @param b2 The other Body
-     * @return Acceleration towards that Body along the x and y axis*/
+     * @return Acceleration towards that Body along the x, y and z axis*/
     public Vector3D twoBodyAcceleration(Body b2)
     {
-        Vector3D displacement = location.sub(b2.location);
+        Vector3D displacement = getLocation().sub(b2.getLocation());
         double distance = displacement.getMag();
-        //System.out.println(distance);
-        double undirectedAccel = -SystemSimulator.G*(b2.mass/Math.pow(distance,2));
-        //System.out.println(undirectedAccel);
-        return displacement.scalarMult(undirectedAccel).scalarMult(1/distance);
+        double undirectedAccel = -store.G*(b2.getMass()/(distance*distance));
+        return displacement.scalarMult(undirectedAccel/distance);
     }
 
+    /**Merges this body with every other body it overlaps, absorbing them.
+     * Momentum is conserved, the radius is recomputed from the density-weighted volume and the color is blended by mass.*/
     public void collisionChk()
     {
-        for(Body body : SystemSimulator.bodies)
+        BodyStore s = store;
+        int i = index;
+        for (int j = 0; j < s.count; j++)
         {
-            if(!body.ident.equals(ident) && !body.doRemove && !doRemove)
+            if (j != i && !s.removed[j] && !s.removed[i])
             {
-                Vector3D positionVector = body.location.sub(location);
-                //System.out.println(positionVector.getMag());
-                //System.out.println("s "+size+body.size);
-                if (positionVector.getMag() < size + body.size)
+                double dx = s.x[j] - s.x[i];
+                double dy = s.y[j] - s.y[i];
+                double dz = s.z[j] - s.z[i];
+                double reach = s.size[i] + s.size[j];
+                if (dx*dx + dy*dy + dz*dz < reach*reach)
                 {
-                    //System.out.println(ident+" "+velocity.toString());
-                    //System.out.println("m1 "+velocity.scalarMult(mass));
-                    //System.out.println("m2 "+body.velocity.scalarMult(body.mass));
-                    Vector3D momentum = velocity.scalarMult(mass).add(body.velocity.scalarMult(body.mass));
-                    mass+=body.mass;
-                    double massFrac = body.mass/mass;
-                    //body.mass=0;
-                    double vol = mass / (body.density*massFrac+density*(1-massFrac));
-                    //double oVol = body.mass / body.density;
-                    size = Math.cbrt((3D / 4D) * vol / Math.PI);
-                    double relativeSize = size/SystemSimulator.maxSize;
-                    //System.out.println(relativeSize);
-                    if (relativeSize<=1)
-                    {
-                        color = new int[]{(int)(relativeSize*255), 0, (int) (color[2] * (1 - massFrac) + body.color[2] * (massFrac))};
-                    }
-                    else
-                    {
-                        //System.out.println("g "+(int)((255D/SystemSimulator.initNumBodies)*(int)(relativeSize)));
-                        color = new int[]{(int)(255*(relativeSize/Math.ceil(relativeSize))), (int)((255D/SystemSimulator.initNumBodies)*(int)(relativeSize)), (int) (color[2] * (1 - massFrac) + body.color[2] * (massFrac))};
-                    }
-                    location=new Vector3D(location.x*(1-massFrac)+body.location.x*massFrac, location.y*(1-massFrac)+body.location.y*(massFrac), location.z*(1-massFrac)+body.location.z*(massFrac));
-                    //System.out.println("m "+momentum);
-                    //System.out.println(1/mass);
-                    //System.out.println("v "+momentum.scalarMult(1/mass));
-                    setAllVel(momentum.scalarMult(1 / mass));
-                    body.doRemove=true;
-                    setAllAccel();
-                    if(velocity.getMag()>15000)
-                    {
-                        System.out.println("WARN: "+ident);
-                        System.out.println(momentum);
-                    }
-                    //System.out.println(ident+" "+mass);
-                    //body.size = Math.cbrt((3D / 4D) * oVol / Math.PI);
-                    //velocity=new Vector(0,0);
-                    //SystemSimulator.bodies.remove(body);
+                    merge(j);
                 }
             }
         }
     }
 
-    public void setAllVel(Vector3D newVel)
-    {
-        velocity=newVel;
-        velOld=newVel;
-        vel2Old=newVel;
-        vel3Old=newVel;
-    }
-
-    public void setAllAccel()
-    {
-        //System.out.println(acceleration());
-        accelOld=acceleration();
-        accel2Old=accelOld;
-        accel3Old=accel2Old;
-    }
-
-    /**Draws the body to the GUI*/
-    public void draw(Graphics2D g2)
+    /**Merges the body in slot j into this one and marks slot j for removal.
+     * The body with the lower id survives, whichever slot the detector reached first: the merged body stays in this
+     * slot, but takes the id, ident and density of slot j if that id is lower, and the sums are formed in id order.
+     * Slot order is changed by compaction and by moving bodies between processes, so this keeps the identity and
+     * rounding of every merge the same however the bodies happen to be laid out.
+     * @param j The slot of the other Body*/
+    void merge(int j)
     {
-        g2.setColor(new Color(color[0], color[1], color[2]));
-        double zSize = 5*Math.log10(10+location.z/SystemSimulator.spaceCompression);
-        if(location.z<0)
+        StepMetrics metrics = store.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+        BodyStore s = store;
+        int i = index;
+        int a = s.id[i] < s.id[j] ? i : j;
+        int b = a == i ? j : i;
+        if (s.mergeLog != null)
+        {
+            s.mergeLog.merged(s.id[a], s.id[b], s.mass[a], s.mass[b]);
+        }
+        double momentumX = s.vx[a]*s.mass[a] + s.vx[b]*s.mass[b];
+        double momentumY = s.vy[a]*s.mass[a] + s.vy[b]*s.mass[b];
+        double momentumZ = s.vz[a]*s.mass[a] + s.vz[b]*s.mass[b];
+        double mass = s.mass[a] + s.mass[b];
+        double massFrac = s.mass[b]/mass;
+        double vol = mass / (s.density[b]*massFrac+s.density[a]*(1-massFrac));
+        s.size[i] = Math.cbrt((3D / 4D) * vol / Math.PI);
+        double relativeSize = s.size[i]/s.maxSize;
+        int blue = (int) (BodyStore.blue(s.color[a]) * (1 - massFrac) + BodyStore.blue(s.color[b]) * (massFrac));
+        if (relativeSize<=1)
+        {
+            s.color[i] = BodyStore.packColor((int)(relativeSize*255), 0, blue);
+        }
+        else
         {
-            zSize = 10-5*Math.log10(10-location.z/SystemSimulator.spaceCompression);
+            s.color[i] = BodyStore.packColor((int)(255*(relativeSize/Math.ceil(relativeSize))), (int)((255D/s.initNumBodies)*(int)(relativeSize)), blue);
         }
-        if(zSize<1)
+        s.x[i] = s.x[a]*(1-massFrac)+s.x[b]*massFrac;
+        s.y[i] = s.y[a]*(1-massFrac)+s.y[b]*massFrac;
+        s.z[i] = s.z[a]*(1-massFrac)+s.z[b]*massFrac;
+        s.mass[i] = mass;
+        if (a != i)
         {
-            zSize = 1;
+            s.id[i] = s.id[a];
+            s.ident[i] = s.ident[a];
+            s.density[i] = s.density[a];
+        }
+        s.setAllVel(i, momentumX/mass, momentumY/mass, momentumZ/mass);
+        s.removed[j] = true;
+        //The new acceleration comes from the next force pass, with no extra sum over every body here
+        s.invalidateAccel(i);
+        double speedSq = s.vx[i]*s.vx[i] + s.vy[i]*s.vy[i] + s.vz[i]*s.vz[i];
+        if (speedSq > 15000D*15000D)
+        {
+            System.out.println("WARN: "+s.ident[i]);
+            System.out.println(new Vector3D(momentumX, momentumY, momentumZ));
+        }
+        if (metrics != null)
+        {
+            metrics.merged(System.nanoTime() - start);
         }
-        //System.out.println(zSize);
-        g2.fill(new Ellipse2D.Double((location.x)/SystemSimulator.spaceCompression-zSize, (location.y)/SystemSimulator.spaceCompression-zSize, (zSize*2), (zSize*2)));
     }
 }
-
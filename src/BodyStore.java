@@ -0,0 +1,570 @@
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays storage for every Body in a simulation.
+ * All per-body state, including the Adams-Bashford history, is held in parallel primitive arrays indexed by slot,
+ * so the force loop and the integrators can update it in place without allocating.
+ * Body objects are lightweight views onto a slot, used by the GUI and the collision code.
+ */
+public class BodyStore
+{
+    /**The gravitational constant the bodies attract each other with*/
+    public double G = 6.673*Math.pow(10,-11);
+    /**Radius of the largest body when the system was populated; merged bodies are colored relative to it*/
+    public double maxSize;
+    /**Number of bodies the system was populated with*/
+    public int initNumBodies;
+    /**Receives the time spent merging bodies; null when metrics are off*/
+    public StepMetrics metrics;
+    /**Receives a record of every merge; null when not logging*/
+    public MergeLog mergeLog;
+    /**Number of occupied slots; slots 0 to count-1 are valid*/
+    public int count;
+    /**Permanent number of the body in each slot, unique within the store and never reused until clear()*/
+    public int[] id;
+    /**Id given to the next body added*/
+    private int nextId;
+    /**Name of the body in each slot*/
+    public String[] ident;
+    /**Mass in kilograms*/
+    public double[] mass;
+    /**Radius in meters*/
+    public double[] size;
+    /**Density in kg/m^3, computed when the body is added*/
+    public double[] density;
+    /**Position of each body, origin at top left*/
+    public double[] x, y, z;
+    /**Velocity of each body*/
+    public double[] vx, vy, vz;
+    /**Acceleration computed by the current force pass*/
+    public double[] ax, ay, az;
+    /**Gravitational potential at each body due to every other body, in J/kg, computed alongside the acceleration
+     * by the current force pass; half the sum of mass times potential is the potential energy of the system*/
+    public double[] potential;
+    /**Jerk (rate of change of acceleration) from the latest force pass, when computeJerk is set*/
+    public double[] jx, jy, jz;
+    /**Whether acceleration() also computes the jerk; set by the simulator for integrators that need it*/
+    public boolean computeJerk;
+    /**Acceleration 1 timestep in the past*/
+    public double[] ax1, ay1, az1;
+    /**Acceleration 2 timesteps in the past*/
+    public double[] ax2, ay2, az2;
+    /**Acceleration 3 timesteps in the past*/
+    public double[] ax3, ay3, az3;
+    /**Velocity 1 timestep in the past*/
+    public double[] vx1, vy1, vz1;
+    /**Velocity 2 timesteps in the past*/
+    public double[] vx2, vy2, vz2;
+    /**Velocity 3 timesteps in the past*/
+    public double[] vx3, vy3, vz3;
+    /**An RGB color for visual identification, packed as 0xRRGGBB*/
+    public int[] color;
+    /**Block time-stepping level: the body steps by the base step divided by 2^level*/
+    public int[] level;
+    /**Number of valid entries in the acceleration and velocity history for block time-stepping, up to 3; 0 before the first force evaluation*/
+    public int[] history;
+    /**Set when a body has been absorbed in a collision; the slot is reclaimed by compact()*/
+    public boolean[] removed;
+    /**Set when a merge has changed a body's mass, so its acceleration history must be rebuilt from the next force pass*/
+    public boolean[] accelPending;
+    /**Number of bodies with accelPending set*/
+    private int pendingCount;
+    /**The view object for each slot, reused so that iterating Bodies allocates nothing*/
+    private Body[] views;
+
+    /**Creates an empty store.
+     * @param capacity Initial number of slots; the store grows as needed*/
+    public BodyStore(int capacity)
+    {
+        allocate(Math.max(capacity, 1));
+    }
+
+    private void allocate(int capacity)
+    {
+        id = new int[capacity];
+        ident = new String[capacity];
+        mass = new double[capacity];
+        size = new double[capacity];
+        density = new double[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        vx = new double[capacity];
+        vy = new double[capacity];
+        vz = new double[capacity];
+        ax = new double[capacity];
+        ay = new double[capacity];
+        az = new double[capacity];
+        potential = new double[capacity];
+        jx = new double[capacity];
+        jy = new double[capacity];
+        jz = new double[capacity];
+        ax1 = new double[capacity];
+        ay1 = new double[capacity];
+        az1 = new double[capacity];
+        ax2 = new double[capacity];
+        ay2 = new double[capacity];
+        az2 = new double[capacity];
+        ax3 = new double[capacity];
+        ay3 = new double[capacity];
+        az3 = new double[capacity];
+        vx1 = new double[capacity];
+        vy1 = new double[capacity];
+        vz1 = new double[capacity];
+        vx2 = new double[capacity];
+        vy2 = new double[capacity];
+        vz2 = new double[capacity];
+        vx3 = new double[capacity];
+        vy3 = new double[capacity];
+        vz3 = new double[capacity];
+        color = new int[capacity];
+        level = new int[capacity];
+        history = new int[capacity];
+        removed = new boolean[capacity];
+        accelPending = new boolean[capacity];
+        views = new Body[capacity];
+    }
+
+    private void grow(int capacity)
+    {
+        id = Arrays.copyOf(id, capacity);
+        ident = Arrays.copyOf(ident, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        size = Arrays.copyOf(size, capacity);
+        density = Arrays.copyOf(density, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        vz = Arrays.copyOf(vz, capacity);
+        ax = Arrays.copyOf(ax, capacity);
+        ay = Arrays.copyOf(ay, capacity);
+        az = Arrays.copyOf(az, capacity);
+        potential = Arrays.copyOf(potential, capacity);
+        jx = Arrays.copyOf(jx, capacity);
+        jy = Arrays.copyOf(jy, capacity);
+        jz = Arrays.copyOf(jz, capacity);
+        ax1 = Arrays.copyOf(ax1, capacity);
+        ay1 = Arrays.copyOf(ay1, capacity);
+        az1 = Arrays.copyOf(az1, capacity);
+        ax2 = Arrays.copyOf(ax2, capacity);
+        ay2 = Arrays.copyOf(ay2, capacity);
+        az2 = Arrays.copyOf(az2, capacity);
+        ax3 = Arrays.copyOf(ax3, capacity);
+        ay3 = Arrays.copyOf(ay3, capacity);
+        az3 = Arrays.copyOf(az3, capacity);
+        vx1 = Arrays.copyOf(vx1, capacity);
+        vy1 = Arrays.copyOf(vy1, capacity);
+        vz1 = Arrays.copyOf(vz1, capacity);
+        vx2 = Arrays.copyOf(vx2, capacity);
+        vy2 = Arrays.copyOf(vy2, capacity);
+        vz2 = Arrays.copyOf(vz2, capacity);
+        vx3 = Arrays.copyOf(vx3, capacity);
+        vy3 = Arrays.copyOf(vy3, capacity);
+        vz3 = Arrays.copyOf(vz3, capacity);
+        color = Arrays.copyOf(color, capacity);
+        level = Arrays.copyOf(level, capacity);
+        history = Arrays.copyOf(history, capacity);
+        removed = Arrays.copyOf(removed, capacity);
+        accelPending = Arrays.copyOf(accelPending, capacity);
+        views = Arrays.copyOf(views, capacity);
+    }
+
+    /**Grows the store so it can hold at least the given number of bodies without reallocating.*/
+    public void ensureCapacity(int capacity)
+    {
+        if (capacity > mass.length)
+        {
+            grow(capacity);
+        }
+    }
+
+    /**The per-body double columns that make up the saved state of a body, in a fixed order:
+     * mass, size, density, position, velocity, then the acceleration and velocity history.
+     * The arrays are the store's own; writing to them changes the bodies.*/
+    double[][] stateColumns()
+    {
+        return new double[][]{mass, size, density, x, y, z, vx, vy, vz,
+                ax1, ay1, az1, ax2, ay2, az2, ax3, ay3, az3,
+                vx1, vy1, vz1, vx2, vy2, vz2, vx3, vy3, vz3};
+    }
+
+    /**Returns a separate store holding the same bodies, with the same ids and saved state, to work on without
+     * disturbing this one. Accelerations are not copied, and the merge log and metrics are not shared.*/
+    public BodyStore copy()
+    {
+        BodyStore c = new BodyStore(count);
+        c.G = G;
+        c.maxSize = maxSize;
+        c.initNumBodies = initNumBodies;
+        double[][] from = stateColumns(), to = c.stateColumns();
+        for (int k = 0; k < from.length; k++)
+        {
+            System.arraycopy(from[k], 0, to[k], 0, count);
+        }
+        System.arraycopy(id, 0, c.id, 0, count);
+        System.arraycopy(ident, 0, c.ident, 0, count);
+        System.arraycopy(color, 0, c.color, 0, count);
+        System.arraycopy(level, 0, c.level, 0, count);
+        System.arraycopy(history, 0, c.history, 0, count);
+        System.arraycopy(removed, 0, c.removed, 0, count);
+        System.arraycopy(accelPending, 0, c.accelPending, 0, count);
+        c.loaded(count, nextId);
+        return c;
+    }
+
+    /**Finishes a bulk load that filled slots 0 to n-1 directly.
+     * @param n Number of bodies loaded
+     * @param idLimit The id to give the next body added*/
+    void loaded(int n, int idLimit)
+    {
+        Arrays.fill(views, 0, count, null);
+        count = n;
+        nextId = idLimit;
+        pendingCount = 0;
+        for (int i = 0; i < n; i++)
+        {
+            views[i] = new Body(this, i);
+            if (accelPending[i])
+            {
+                pendingCount++;
+            }
+        }
+    }
+
+    /**Adds a body to the end of the store.
+     * @param id Name of the Body
+     * @param m Mass of the Body
+     * @param r Radius of the Body
+     * @param loc Initial location of the Body
+     * @param vel Initial velocity of the Body
+     * @param col An RGB color to identify the Body
+     * @return The slot the Body was placed in*/
+    public int add(String id, double m, double r, Vector3D loc, Vector3D vel, int[] col)
+    {
+        return add(id, m, r, loc.x, loc.y, loc.z, vel.x, vel.y, vel.z, packColor(col[0], col[1], col[2]));
+    }
+
+    /**Adds a body to the end of the store without building vectors for it, as ScenarioLoader does for each body of a file.
+     * @param rgb The color packed as by packColor()
+     * @return The slot the Body was placed in*/
+    public int add(String id, double m, double r, double px, double py, double pz, double pvx, double pvy, double pvz, int rgb)
+    {
+        if (count == mass.length)
+        {
+            grow(count*2);
+        }
+        int i = count++;
+        this.id[i] = nextId++;
+        ident[i] = id;
+        mass[i] = m;
+        size[i] = r;
+        density[i] = m/((4D/3D)*Math.PI*r*r*r);
+        x[i] = px;
+        y[i] = py;
+        z[i] = pz;
+        vx[i] = pvx;
+        vy[i] = pvy;
+        vz[i] = pvz;
+        color[i] = rgb;
+        level[i] = 0;
+        history[i] = 0;
+        removed[i] = false;
+        accelPending[i] = false;
+        views[i] = new Body(this, i);
+        return i;
+    }
+
+    /**Appends a body that keeps an id given out elsewhere, e.g. by another process of the same run.
+     * The caller fills in the rest of its state, as Checkpoint does for a bulk load.
+     * @return The slot the body was placed in*/
+    int append(int bodyId, String name)
+    {
+        if (count == mass.length)
+        {
+            grow(count*2);
+        }
+        int i = count++;
+        id[i] = bodyId;
+        ident[i] = name;
+        removed[i] = false;
+        accelPending[i] = false;
+        views[i] = new Body(this, i);
+        nextId = Math.max(nextId, bodyId+1);
+        return i;
+    }
+
+    /**Gives out the next id without adding a body, so the bodies added after it keep the ids they would otherwise have,
+     * as when ScenarioLoader passes over a body outside its slab.*/
+    void skipId()
+    {
+        nextId++;
+    }
+
+    /**Returns the view for a slot. The same object is returned until the slot moves in compact().
+     * @param i A slot below count*/
+    public Body get(int i)
+    {
+        return views[i];
+    }
+
+    /**One more than the largest id given out so far; ids can index arrays of this length*/
+    public int idLimit()
+    {
+        return nextId;
+    }
+
+    /**Number of bodies not marked as removed*/
+    public int liveCount()
+    {
+        int live = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (!removed[i])
+            {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    /**Removes all bodies.*/
+    public void clear()
+    {
+        Arrays.fill(views, 0, count, null);
+        Arrays.fill(ident, 0, count, null);
+        count = 0;
+        nextId = 0;
+        pendingCount = 0;
+    }
+
+    /**Reclaims the slots of removed bodies by moving the last live body into each one.
+     * Bodies after a removed one change slot, but ids stay with their bodies. The cost is proportional to the number removed
+     * once the scan reaches them, with no shifting of the bodies in between.
+     * @return The number of bodies removed*/
+    public int compact()
+    {
+        int before = count;
+        int end = count;
+        for (int i = 0; i < end; i++)
+        {
+            if (removed[i])
+            {
+                //Drop removed bodies from the end, then fill the hole with the last live one
+                while (end > i+1 && removed[end-1])
+                {
+                    end--;
+                }
+                if (end > i+1)
+                {
+                    move(end-1, i);
+                }
+                end--;
+            }
+        }
+        Arrays.fill(views, end, count, null);
+        Arrays.fill(ident, end, count, null);
+        count = end;
+        return before - end;
+    }
+
+    private void move(int src, int dst)
+    {
+        id[dst] = id[src];
+        ident[dst] = ident[src];
+        mass[dst] = mass[src];
+        size[dst] = size[src];
+        density[dst] = density[src];
+        x[dst] = x[src];
+        y[dst] = y[src];
+        z[dst] = z[src];
+        vx[dst] = vx[src];
+        vy[dst] = vy[src];
+        vz[dst] = vz[src];
+        ax[dst] = ax[src];
+        ay[dst] = ay[src];
+        az[dst] = az[src];
+        potential[dst] = potential[src];
+        jx[dst] = jx[src];
+        jy[dst] = jy[src];
+        jz[dst] = jz[src];
+        ax1[dst] = ax1[src];
+        ay1[dst] = ay1[src];
+        az1[dst] = az1[src];
+        ax2[dst] = ax2[src];
+        ay2[dst] = ay2[src];
+        az2[dst] = az2[src];
+        ax3[dst] = ax3[src];
+        ay3[dst] = ay3[src];
+        az3[dst] = az3[src];
+        vx1[dst] = vx1[src];
+        vy1[dst] = vy1[src];
+        vz1[dst] = vz1[src];
+        vx2[dst] = vx2[src];
+        vy2[dst] = vy2[src];
+        vz2[dst] = vz2[src];
+        vx3[dst] = vx3[src];
+        vy3[dst] = vy3[src];
+        vz3[dst] = vz3[src];
+        color[dst] = color[src];
+        level[dst] = level[src];
+        history[dst] = history[src];
+        removed[dst] = false;
+        accelPending[dst] = accelPending[src];
+        views[dst] = views[src];
+        views[dst].index = dst;
+    }
+
+    /**Computes the current acceleration of one body due to every other body in its current position,
+     * storing it in ax, ay and az, and the potential there in potential. With computeJerk set, also computes the jerk.
+     * @param i The slot of the body*/
+    public void acceleration(int i)
+    {
+        if (computeJerk)
+        {
+            accelerationAndJerk(i);
+            return;
+        }
+        double sumX = 0, sumY = 0, sumZ = 0, sumP = 0;
+        if (!removed[i])
+        {
+            double xi = x[i], yi = y[i], zi = z[i];
+            for (int j = 0; j < count; j++)
+            {
+                if (j != i && !removed[j])
+                {
+                    double dx = xi - x[j];
+                    double dy = yi - y[j];
+                    double dz = zi - z[j];
+                    double distSq = dx*dx + dy*dy + dz*dz;
+                    double dist = Math.sqrt(distSq);
+                    double scale = -G*mass[j]/(distSq*dist);
+                    sumX += dx*scale;
+                    sumY += dy*scale;
+                    sumZ += dz*scale;
+                    sumP += distSq*scale;
+                }
+            }
+        }
+        ax[i] = sumX;
+        ay[i] = sumY;
+        az[i] = sumZ;
+        potential[i] = sumP;
+    }
+
+    /**As acceleration(), also summing the jerk, the time derivative of each term, into jx, jy and jz.
+     * @param i The slot of the body*/
+    public void accelerationAndJerk(int i)
+    {
+        double sumX = 0, sumY = 0, sumZ = 0, sumP = 0, sumJX = 0, sumJY = 0, sumJZ = 0;
+        if (!removed[i])
+        {
+            double xi = x[i], yi = y[i], zi = z[i];
+            double vxi = vx[i], vyi = vy[i], vzi = vz[i];
+            for (int j = 0; j < count; j++)
+            {
+                if (j != i && !removed[j])
+                {
+                    double dx = xi - x[j];
+                    double dy = yi - y[j];
+                    double dz = zi - z[j];
+                    double dvx = vxi - vx[j];
+                    double dvy = vyi - vy[j];
+                    double dvz = vzi - vz[j];
+                    double distSq = dx*dx + dy*dy + dz*dz;
+                    double dist = Math.sqrt(distSq);
+                    double scale = -G*mass[j]/(distSq*dist);
+                    double rv = 3*(dx*dvx + dy*dvy + dz*dvz)/distSq;
+                    sumX += dx*scale;
+                    sumY += dy*scale;
+                    sumZ += dz*scale;
+                    sumP += distSq*scale;
+                    sumJX += (dvx - rv*dx)*scale;
+                    sumJY += (dvy - rv*dy)*scale;
+                    sumJZ += (dvz - rv*dz)*scale;
+                }
+            }
+        }
+        ax[i] = sumX;
+        ay[i] = sumY;
+        az[i] = sumZ;
+        potential[i] = sumP;
+        jx[i] = sumJX;
+        jy[i] = sumJY;
+        jz[i] = sumJZ;
+    }
+
+    /**Sets the current velocity of a body and overwrites its velocity history with it.*/
+    public void setAllVel(int i, double newX, double newY, double newZ)
+    {
+        vx[i] = vx1[i] = vx2[i] = vx3[i] = newX;
+        vy[i] = vy1[i] = vy2[i] = vy3[i] = newY;
+        vz[i] = vz1[i] = vz2[i] = vz3[i] = newZ;
+    }
+
+    /**Marks a body's acceleration history as invalid after a merge. Rather than summing over every body at once,
+     * the history is rebuilt from the acceleration the next force pass computes; see refreshPendingAccelerations().*/
+    public void invalidateAccel(int i)
+    {
+        if (!accelPending[i])
+        {
+            accelPending[i] = true;
+            pendingCount++;
+        }
+    }
+
+    /**Whether any body is waiting for its acceleration history to be rebuilt*/
+    public boolean hasPendingAccelerations()
+    {
+        return pendingCount > 0;
+    }
+
+    /**Overwrites the acceleration history of every body marked by invalidateAccel() with the acceleration just computed
+     * into ax, ay and az, and clears the marks. Called after the force pass and before integration.*/
+    public void refreshPendingAccelerations()
+    {
+        if (pendingCount == 0)
+        {
+            return;
+        }
+        for (int i = 0; i < count; i++)
+        {
+            if (accelPending[i])
+            {
+                accelPending[i] = false;
+                ax1[i] = ax2[i] = ax3[i] = ax[i];
+                ay1[i] = ay2[i] = ay3[i] = ay[i];
+                az1[i] = az2[i] = az3[i] = az[i];
+            }
+        }
+        pendingCount = 0;
+    }
+
+    /**Clears the marks set by invalidateAccel() without touching the history, for steppers that rebuild it themselves.*/
+    void clearPendingAccelerations()
+    {
+        Arrays.fill(accelPending, 0, count, false);
+        pendingCount = 0;
+    }
+
+    public static int packColor(int r, int g, int b)
+    {
+        return (r & 0xFF) << 16 | (g & 0xFF) << 8 | (b & 0xFF);
+    }
+
+    public static int red(int rgb)
+    {
+        return (rgb >> 16) & 0xFF;
+    }
+
+    public static int green(int rgb)
+    {
+        return (rgb >> 8) & 0xFF;
+    }
+
+    public static int blue(int rgb)
+    {
+        return rgb & 0xFF;
+    }
+}
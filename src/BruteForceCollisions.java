@@ -0,0 +1,13 @@
+/**
+ * Checks every body against every other body: O(N^2), but with no setup cost, so it suits small N.
+ */
+public class BruteForceCollisions implements CollisionDetector
+{
+    public void resolveCollisions(BodyStore bodies)
+    {
+        for (int i = 0; i < bodies.count; i++)
+        {
+            bodies.get(i).collisionChk();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves and restores the complete state of a simulation, so that a run can stop and resume
+ * or branch into several experiments without redoing the steps that led there.
+ * The Adams-Bashford history is included, so a restored run continues with the 3rd order method
+ * instead of starting over with the Euler and 2nd order steps; other integrators keep their state in the same columns.
+ * The integrator itself is not saved, so a run must be restored with the one it was saved with.
+ * <pre>
+ * int magic "ORBC", int version, long stepCount, int count, int idLimit, int initNumBodies,
+ * double G, double timeCompression, double spaceCompression, double maxSize,
+ * int[count] id, int[count] color, int[count] level, int[count] history, byte[count] flags (1 removed, 2 acceleration pending),
+ * 27 x double[count] (see BodyStore.stateColumns()),
+ * count x {int length, UTF-8 ident}
+ * </pre>
+ * All values are little-endian and the file is written and read column by column through a fixed-size buffer,
+ * idents longer than the buffer included. Only the current version is read.
+ */
+public class Checkpoint
+{
+    static final int MAGIC = 0x4F524243;
+    static final int VERSION = 1;
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    private Checkpoint(FileChannel channel)
+    {
+        this.channel = channel;
+    }
+
+    /**Writes the state of the simulation. Must be called from the thread running updateSystem(), between steps.
+     * @param sim The simulation to save*/
+    static void save(SystemSimulator sim, Path path) throws IOException
+    {
+        BodyStore bodies = sim.bodies;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            Checkpoint out = new Checkpoint(channel);
+            int n = bodies.count;
+            ByteBuffer b = out.buffer;
+            b.putInt(MAGIC);
+            b.putInt(VERSION);
+            b.putLong(sim.getStepCount());
+            b.putInt(n);
+            b.putInt(bodies.idLimit());
+            b.putInt(bodies.initNumBodies);
+            b.putDouble(bodies.G);
+            b.putDouble(sim.timeCompression);
+            b.putDouble(sim.spaceCompression);
+            b.putDouble(bodies.maxSize);
+            out.writeInts(bodies.id, n);
+            out.writeInts(bodies.color, n);
+            out.writeInts(bodies.level, n);
+            out.writeInts(bodies.history, n);
+            for (int i = 0; i < n; i++)
+            {
+                out.room(1);
+                b.put((byte) ((bodies.removed[i] ? 1 : 0) | (bodies.accelPending[i] ? 2 : 0)));
+            }
+            for (double[] column : bodies.stateColumns())
+            {
+                out.writeDoubles(column, n);
+            }
+            for (int i = 0; i < n; i++)
+            {
+                byte[] ident = bodies.ident[i].getBytes(StandardCharsets.UTF_8);
+                out.room(4);
+                b.putInt(ident.length);
+                out.writeBytes(ident);
+            }
+            out.flush();
+        }
+    }
+
+    /**Replaces the simulation's bodies with the saved ones and restores its parameters.
+     * @return The saved step count*/
+    static int restore(SystemSimulator sim, Path path) throws IOException
+    {
+        BodyStore bodies = sim.bodies;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            Checkpoint in = new Checkpoint(channel);
+            ByteBuffer b = in.buffer;
+            b.limit(0);
+            in.fill(8);
+            if (b.getInt() != MAGIC)
+            {
+                throw new IOException(path+" is not a checkpoint");
+            }
+            int version = b.getInt();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported checkpoint version "+version);
+            }
+            in.fill(8+4+4+4+8*4);
+            int stepCount = (int) b.getLong();
+            int n = b.getInt();
+            int idLimit = b.getInt();
+            bodies.initNumBodies = b.getInt();
+            bodies.G = b.getDouble();
+            sim.timeCompression = b.getDouble();
+            sim.spaceCompression = b.getDouble();
+            bodies.maxSize = b.getDouble();
+
+            bodies.clear();
+            bodies.ensureCapacity(n);
+            in.readInts(bodies.id, n);
+            in.readInts(bodies.color, n);
+            in.readInts(bodies.level, n);
+            in.readInts(bodies.history, n);
+            for (int i = 0; i < n; i++)
+            {
+                in.fill(1);
+                int flags = b.get();
+                bodies.removed[i] = (flags & 1) != 0;
+                bodies.accelPending[i] = (flags & 2) != 0;
+            }
+            for (double[] column : bodies.stateColumns())
+            {
+                in.readDoubles(column, n);
+            }
+            for (int i = 0; i < n; i++)
+            {
+                in.fill(4);
+                int length = b.getInt();
+                if (length < 0)
+                {
+                    throw new IOException(path+": bad ident length "+length);
+                }
+                byte[] ident = new byte[length];
+                in.readBytes(ident);
+                bodies.ident[i] = new String(ident, StandardCharsets.UTF_8);
+            }
+            bodies.loaded(n, idLimit);
+            return stepCount;
+        }
+    }
+
+    /**Flushes the buffer if it has fewer than the given number of bytes free.*/
+    private void room(int bytes) throws IOException
+    {
+        if (buffer.remaining() < bytes)
+        {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void writeDoubles(double[] values, int n) throws IOException
+    {
+        int done = 0;
+        while (done < n)
+        {
+            room(8);
+            int k = Math.min(n - done, buffer.remaining()/8);
+            buffer.asDoubleBuffer().put(values, done, k);
+            buffer.position(buffer.position() + 8*k);
+            done += k;
+        }
+    }
+
+    private void writeInts(int[] values, int n) throws IOException
+    {
+        int done = 0;
+        while (done < n)
+        {
+            room(4);
+            int k = Math.min(n - done, buffer.remaining()/4);
+            buffer.asIntBuffer().put(values, done, k);
+            buffer.position(buffer.position() + 4*k);
+            done += k;
+        }
+    }
+
+    /**Writes bytes through the buffer a buffer-full at a time, so their number is not limited by its size.*/
+    private void writeBytes(byte[] values) throws IOException
+    {
+        int done = 0;
+        while (done < values.length)
+        {
+            room(1);
+            int k = Math.min(values.length - done, buffer.remaining());
+            buffer.put(values, done, k);
+            done += k;
+        }
+    }
+
+    /**Reads from the file until at least the given number of bytes are buffered.*/
+    private void fill(int bytes) throws IOException
+    {
+        if (buffer.remaining() >= bytes)
+        {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < bytes)
+        {
+            if (channel.read(buffer) < 0)
+            {
+                throw new IOException("Checkpoint is truncated");
+            }
+        }
+        buffer.flip();
+    }
+
+    private void readDoubles(double[] values, int n) throws IOException
+    {
+        int done = 0;
+        while (done < n)
+        {
+            fill(8);
+            int k = Math.min(n - done, buffer.remaining()/8);
+            buffer.asDoubleBuffer().get(values, done, k);
+            buffer.position(buffer.position() + 8*k);
+            done += k;
+        }
+    }
+
+    /**Fills the array from the file a buffer-full at a time, so its length is not limited by the buffer size.*/
+    private void readBytes(byte[] values) throws IOException
+    {
+        int done = 0;
+        while (done < values.length)
+        {
+            fill(1);
+            int k = Math.min(values.length - done, buffer.remaining());
+            buffer.get(values, done, k);
+            done += k;
+        }
+    }
+
+    private void readInts(int[] values, int n) throws IOException
+    {
+        int done = 0;
+        while (done < n)
+        {
+            fill(4);
+            int k = Math.min(n - done, buffer.remaining()/4);
+            buffer.asIntBuffer().get(values, done, k);
+            buffer.position(buffer.position() + 4*k);
+            done += k;
+        }
+    }
+}
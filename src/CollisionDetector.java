@@ -0,0 +1,17 @@
+/**
+ * A method of finding overlapping bodies and merging them.
+ * Implementations that test only the positions at the end of the step must give the same merges as checking every body
+ * against every other in slot order, as BruteForceCollisions does.
+ */
+public interface CollisionDetector
+{
+    /**Called before any body moves in a step, for detectors that follow the path of each body through the step.
+     * @param bodies The store about to be stepped*/
+    default void beginStep(BodyStore bodies)
+    {
+    }
+
+    /**Merges every overlapping pair of live bodies in the store, marking the absorbed bodies as removed.
+     * @param bodies The store to check*/
+    void resolveCollisions(BodyStore bodies);
+}
@@ -0,0 +1,141 @@
+import java.util.Arrays;
+
+/**
+ * Broad-phase collision detection with a spatial hash. Bodies are binned into cubic cells twice the largest radius wide,
+ * rebuilt each step, so each body only runs the exact sphere-overlap test against bodies in neighbouring cells.
+ * Merges happen in exactly the same order as BruteForceCollisions: each body absorbs the overlapping bodies in slot order,
+ * and a body that grows or moves in a merge is re-binned and searched again.
+ */
+public class CollisionGrid implements CollisionDetector
+{
+    /**Head of each bucket's list of entries, or -1*/
+    private int[] bucketHead = new int[0];
+    private int mask;
+    /**Body slot held by each entry*/
+    private int[] entryBody = new int[0];
+    /**Next entry in the same bucket, or -1*/
+    private int[] entryNext = new int[0];
+    private int entryCount;
+    private double cellSize;
+    /**Largest radius of any live body, including growth from merges during this pass*/
+    private double largest;
+
+    public void resolveCollisions(BodyStore bodies)
+    {
+        build(bodies);
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (bodies.removed[i])
+            {
+                continue;
+            }
+            int after = -1;
+            while (true)
+            {
+                int j = nextOverlap(bodies, i, after);
+                if (j < 0)
+                {
+                    break;
+                }
+                bodies.get(i).merge(j);
+                after = j;
+                largest = Math.max(largest, bodies.size[i]);
+                //The survivor has moved; bin it again so later bodies can find it where it now is
+                insert(bodies, i);
+            }
+        }
+    }
+
+    private void build(BodyStore bodies)
+    {
+        largest = 0;
+        int live = 0;
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                largest = Math.max(largest, bodies.size[i]);
+                live++;
+            }
+        }
+        cellSize = largest > 0 ? 2*largest : 1;
+        int buckets = Integer.highestOneBit(Math.max(live, 8)*2);
+        if (bucketHead.length != buckets)
+        {
+            bucketHead = new int[buckets];
+        }
+        Arrays.fill(bucketHead, -1);
+        mask = buckets-1;
+        entryCount = 0;
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                insert(bodies, i);
+            }
+        }
+    }
+
+    private void insert(BodyStore bodies, int i)
+    {
+        if (entryCount == entryBody.length)
+        {
+            int capacity = Math.max(16, entryCount*2);
+            entryBody = Arrays.copyOf(entryBody, capacity);
+            entryNext = Arrays.copyOf(entryNext, capacity);
+        }
+        int b = bucket(cell(bodies.x[i]), cell(bodies.y[i]), cell(bodies.z[i]));
+        entryBody[entryCount] = i;
+        entryNext[entryCount] = bucketHead[b];
+        bucketHead[b] = entryCount++;
+    }
+
+    /**Finds the lowest slot above after that overlaps body i in its current state.
+     * @return The slot, or -1 if there is none*/
+    private int nextOverlap(BodyStore bodies, int i, int after)
+    {
+        double xi = bodies.x[i], yi = bodies.y[i], zi = bodies.z[i], si = bodies.size[i];
+        double reach = si + largest;
+        long x0 = cell(xi-reach), x1 = cell(xi+reach);
+        long y0 = cell(yi-reach), y1 = cell(yi+reach);
+        long z0 = cell(zi-reach), z1 = cell(zi+reach);
+        int best = -1;
+        for (long cx = x0; cx <= x1; cx++)
+        {
+            for (long cy = y0; cy <= y1; cy++)
+            {
+                for (long cz = z0; cz <= z1; cz++)
+                {
+                    for (int e = bucketHead[bucket(cx, cy, cz)]; e >= 0; e = entryNext[e])
+                    {
+                        int j = entryBody[e];
+                        if (j <= after || j == i || (best >= 0 && j >= best) || bodies.removed[j])
+                        {
+                            continue;
+                        }
+                        double dx = bodies.x[j] - xi;
+                        double dy = bodies.y[j] - yi;
+                        double dz = bodies.z[j] - zi;
+                        double touch = si + bodies.size[j];
+                        if (dx*dx + dy*dy + dz*dz < touch*touch)
+                        {
+                            best = j;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private long cell(double coordinate)
+    {
+        return (long) Math.floor(coordinate/cellSize);
+    }
+
+    private int bucket(long cx, long cy, long cz)
+    {
+        long h = cx*73856093L ^ cy*19349663L ^ cz*83492791L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Tracks how well a run conserves total energy, linear momentum and angular momentum (about the origin).
+ * The potential energy comes from the potential the force pass leaves in BodyStore.potential, so a sample
+ * costs one pass over the bodies rather than another sum over every pair. The engine's own approximations
+ * (tree cells, softening) are therefore part of what is measured.
+ * Each quantity's drift is its change since the first sample, relative to a scale for it: |E0| for energy,
+ * and the sum of the magnitudes of the bodies' own momenta or angular momenta for the other two.
+ * Merges are inelastic and drop the spin of the merged pair, so energy and angular momentum drift
+ * at each merge as well as through integration error.
+ * Samples are appended to a CSV file and flushed as they are taken:
+ * <pre>
+ * step,bodies,kinetic,potential,energy,energyDrift,px,py,pz,momentumDrift,lx,ly,lz,angularDrift
+ * </pre>
+ */
+public class ConservationMonitor
+{
+    /**Take a sample every this many steps*/
+    private final int every;
+    /**Destination of the samples; null to keep only the latest values*/
+    private final PrintWriter out;
+    /**Relative drift above which an alert is printed; 0 or less for no alerts*/
+    public double limit;
+    /**Whether passing the limit should also stop the run; see isStopped()*/
+    public boolean stopOnDrift;
+
+    private boolean haveBaseline;
+    private double energy0, px0, py0, pz0, lx0, ly0, lz0;
+    private double momentumScale, angularScale;
+    private volatile long lastStep = -1;
+    private volatile double kinetic, potential, energyDrift, momentumDrift, angularDrift;
+    private boolean alerting;
+    private volatile boolean stopped;
+
+    /**@param path CSV file to write the samples to, or null for none
+     * @param every Take a sample every this many steps*/
+    public ConservationMonitor(String path, int every) throws IOException
+    {
+        this.every = Math.max(1, every);
+        if (path != null)
+        {
+            out = new PrintWriter(new BufferedWriter(new FileWriter(path)));
+            out.println("step,bodies,kinetic,potential,energy,energyDrift,px,py,pz,momentumDrift,lx,ly,lz,angularDrift");
+        }
+        else
+        {
+            out = null;
+        }
+    }
+
+    /**Takes a sample if step falls on the sampling interval. Called by the simulation once the force pass has filled
+     * BodyStore.potential for the positions and velocities the store holds.*/
+    public void maybeSample(BodyStore bodies, long step)
+    {
+        if (step % every == 0)
+        {
+            sample(bodies, step);
+        }
+    }
+
+    /**Measures the totals for the current state and checks their drift against the limit.*/
+    public void sample(BodyStore bodies, long step)
+    {
+        double ke = 0, pe = 0, px = 0, py = 0, pz = 0, lx = 0, ly = 0, lz = 0, pSum = 0, lSum = 0;
+        int live = 0;
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (bodies.removed[i])
+            {
+                continue;
+            }
+            double m = bodies.mass[i];
+            double x = bodies.x[i], y = bodies.y[i], z = bodies.z[i];
+            double vx = bodies.vx[i], vy = bodies.vy[i], vz = bodies.vz[i];
+            double vSq = vx*vx + vy*vy + vz*vz;
+            ke += 0.5*m*vSq;
+            pe += 0.5*m*bodies.potential[i];
+            px += m*vx;
+            py += m*vy;
+            pz += m*vz;
+            double cx = m*(y*vz - z*vy), cy = m*(z*vx - x*vz), cz = m*(x*vy - y*vx);
+            lx += cx;
+            ly += cy;
+            lz += cz;
+            pSum += m*Math.sqrt(vSq);
+            lSum += Math.sqrt(cx*cx + cy*cy + cz*cz);
+            live++;
+        }
+        double e = ke + pe;
+        if (!haveBaseline)
+        {
+            energy0 = e;
+            px0 = px;
+            py0 = py;
+            pz0 = pz;
+            lx0 = lx;
+            ly0 = ly;
+            lz0 = lz;
+            momentumScale = pSum;
+            angularScale = lSum;
+            haveBaseline = true;
+        }
+        kinetic = ke;
+        potential = pe;
+        energyDrift = relative(Math.abs(e - energy0), Math.abs(energy0));
+        momentumDrift = relative(length(px - px0, py - py0, pz - pz0), momentumScale);
+        angularDrift = relative(length(lx - lx0, ly - ly0, lz - lz0), angularScale);
+        lastStep = step;
+        if (out != null)
+        {
+            out.println(step+","+live+","+ke+","+pe+","+e+","+energyDrift+","+px+","+py+","+pz+","+momentumDrift
+                    +","+lx+","+ly+","+lz+","+angularDrift);
+            out.flush();
+        }
+        check(step, live);
+    }
+
+    /**Prints an alert when the largest drift first passes the limit, and again each time it returns and passes it again.*/
+    private void check(long step, int live)
+    {
+        if (limit <= 0)
+        {
+            return;
+        }
+        double worst = Math.max(energyDrift, Math.max(momentumDrift, angularDrift));
+        if (worst > limit && !alerting)
+        {
+            String quantity = worst == energyDrift ? "energy" : worst == momentumDrift ? "momentum" : "angular momentum";
+            System.out.println("ALERT: "+quantity+" drift "+String.format("%.3g", worst)+" exceeds "+limit+" at step "+step+" ("+live+" bodies)");
+            if (stopOnDrift)
+            {
+                stopped = true;
+            }
+        }
+        alerting = worst > limit;
+    }
+
+    private static double relative(double change, double scale)
+    {
+        return scale > 0 ? change/scale : change;
+    }
+
+    private static double length(double x, double y, double z)
+    {
+        return Math.sqrt(x*x + y*y + z*z);
+    }
+
+    /**Whether a drift has passed the limit with stopOnDrift set; the run should stop after the current step.*/
+    public boolean isStopped()
+    {
+        return stopped;
+    }
+
+    /**Step of the latest sample, or -1 before the first*/
+    public long getLastStep()
+    {
+        return lastStep;
+    }
+
+    public double getKineticEnergy()
+    {
+        return kinetic;
+    }
+
+    public double getPotentialEnergy()
+    {
+        return potential;
+    }
+
+    public double getEnergyDrift()
+    {
+        return energyDrift;
+    }
+
+    public double getMomentumDrift()
+    {
+        return momentumDrift;
+    }
+
+    public double getAngularMomentumDrift()
+    {
+        return angularDrift;
+    }
+
+    /**Flushes and closes the sample file, if any.*/
+    public void close()
+    {
+        if (out != null)
+        {
+            out.close();
+        }
+    }
+}
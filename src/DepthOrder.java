@@ -0,0 +1,142 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the live bodies of a store sorted back to front (ascending z) from one update to the next.
+ * Depth order barely changes between frames, so each update starts from the previous order, followed by id
+ * through compaction, and repairs it with an insertion sort that costs little more than one pass.
+ * If the order has changed a lot, e.g. after a reset, it falls back to a full sort.
+ */
+public class DepthOrder
+{
+    /**Slots of the live bodies, back to front; valid up to getCount()*/
+    private int[] slots = new int[0];
+    /**Depth of each entry of slots, as an order-preserving int*/
+    private int[] keys = new int[0];
+    private int count;
+    /**Ids in the order of the last update*/
+    private int[] ids = new int[0];
+    private int[] slotOfId = new int[0];
+    private long[] fullSort = new long[0];
+
+    /**Number of bodies ordered by the last update*/
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**Slot of the k-th body from the back*/
+    public int slot(int k)
+    {
+        return slots[k];
+    }
+
+    /**Re-sorts the live bodies of a store. Must be called from the thread that updates the store.*/
+    public void update(BodyStore bodies)
+    {
+        int n = bodies.count;
+        if (slots.length < n)
+        {
+            int capacity = bodies.mass.length;
+            slots = new int[capacity];
+            keys = new int[capacity];
+            ids = Arrays.copyOf(ids, capacity);
+        }
+        if (slotOfId.length < bodies.idLimit())
+        {
+            slotOfId = new int[bodies.idLimit()*2];
+        }
+        Arrays.fill(slotOfId, 0, bodies.idLimit(), -1);
+        for (int i = 0; i < n; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                slotOfId[bodies.id[i]] = i;
+            }
+        }
+
+        //Previous order first, dropping bodies that have gone, then any bodies new since the last update
+        int live = 0;
+        for (int k = 0; k < count; k++)
+        {
+            int id = ids[k];
+            if (id < bodies.idLimit() && slotOfId[id] >= 0)
+            {
+                slots[live++] = slotOfId[id];
+                slotOfId[id] = -1;
+            }
+        }
+        for (int i = 0; i < n; i++)
+        {
+            if (!bodies.removed[i] && slotOfId[bodies.id[i]] >= 0)
+            {
+                slots[live++] = i;
+            }
+        }
+        count = live;
+        for (int k = 0; k < live; k++)
+        {
+            keys[k] = depthKey(bodies.z[slots[k]]);
+        }
+
+        if (!insertionSort(live, 4L*live + 64))
+        {
+            sortFully(live);
+        }
+        for (int k = 0; k < live; k++)
+        {
+            ids[k] = bodies.id[slots[k]];
+        }
+    }
+
+    /**Sorts the entries by key, giving up once more than limit moves have been made.
+     * @return Whether the entries are sorted*/
+    private boolean insertionSort(int n, long limit)
+    {
+        long moves = 0;
+        for (int k = 1; k < n; k++)
+        {
+            int key = keys[k];
+            int slot = slots[k];
+            int j = k - 1;
+            while (j >= 0 && (keys[j] > key || keys[j] == key && slots[j] > slot))
+            {
+                keys[j+1] = keys[j];
+                slots[j+1] = slots[j];
+                j--;
+            }
+            keys[j+1] = key;
+            slots[j+1] = slot;
+            moves += k - 1 - j;
+            if (moves > limit)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void sortFully(int n)
+    {
+        if (fullSort.length < n)
+        {
+            fullSort = new long[slots.length];
+        }
+        for (int k = 0; k < n; k++)
+        {
+            fullSort[k] = ((long) keys[k] << 32) | slots[k];
+        }
+        Arrays.sort(fullSort, 0, n);
+        for (int k = 0; k < n; k++)
+        {
+            slots[k] = (int) fullSort[k];
+            keys[k] = (int) (fullSort[k] >> 32);
+        }
+    }
+
+    /**z as an int that sorts in the same order as the float value; ties are broken by slot.*/
+    static int depthKey(double z)
+    {
+        int bits = Float.floatToIntBits((float) z);
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+}
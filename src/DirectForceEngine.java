@@ -0,0 +1,51 @@
+/**
+ * Exact O(N^2) direct summation: every body feels every other live body.
+ * Computes the jerk as well when the store asks for it, in the same sum.
+ */
+public class DirectForceEngine implements ForceEngine
+{
+    private BodyStore target;
+    private long interactions;
+    private final WorkerPool.RangeTask accelerationTask = new WorkerPool.RangeTask() {
+        @Override
+        public void run(int from, int to, int worker) {
+            for (int i = from; i < to; i++)
+            {
+                target.acceleration(i);
+            }
+        }
+    };
+
+    public void computeAccelerations(BodyStore bodies)
+    {
+        for (int i = 0; i < bodies.count; i++)
+        {
+            bodies.acceleration(i);
+        }
+        countInteractions(bodies);
+    }
+
+    public void computeAccelerations(BodyStore bodies, WorkerPool workers)
+    {
+        target = bodies;
+        workers.forEach(bodies.count, accelerationTask);
+        target = null;
+        countInteractions(bodies);
+    }
+
+    private void countInteractions(BodyStore bodies)
+    {
+        long live = bodies.liveCount();
+        interactions = live*(live-1);
+    }
+
+    public boolean computesJerk()
+    {
+        return true;
+    }
+
+    public long getInteractionCount()
+    {
+        return interactions;
+    }
+}
@@ -0,0 +1,724 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Splits one run across several processes, each simulating the bodies in its own slab of x with an ordinary
+ * SystemSimulator. The processes stay in step because each step's updateSystem() calls the same three exchanges
+ * on every process, through the engine and detector returned by wrap():
+ * <ul>
+ * <li>Migration, at the start of the step: bodies that have left the slab move, with their full state and history, to the
+ * process that owns their position. Every few steps the slab boundaries are moved so each process holds as many bodies.</li>
+ * <li>Gravity: each process builds an octree over its bodies and sends every other process the point masses that
+ * stand in for it inside that process's bounding box (cells far enough away, bodies near it; see
+ * OctreeForceEngine.essentialMasses()). Local forces come from the local engine and the remote point masses are added on.</li>
+ * <li>Collisions: after the local detector has run, bodies near another process's bodies are sent to it as ghosts.
+ * Where a body overlaps a ghost with a higher id, it claims the ghost; the owner sends each claimed body to the
+ * claimant with the lowest claiming id, and the local detector runs again to merge it. Which body survives a merge
+ * is decided by id in Body.merge(), not by the claim or the slot the body arrives in, so the survivor's id, ident and
+ * density are those a single process would give it.</li>
+ * </ul>
+ * Every process populates the same initial system from the seed and keeps its own slab, so ids agree everywhere.
+ * A scenario file is instead streamed twice: once for the x positions, to choose the slabs, and once to load only the
+ * bodies of this process's slab, each with the id it has in the file; see ScenarioLoader.keepFromX.
+ * Merges across a boundary can still differ from a single process in timing and order. A body that claims a ghost can
+ * itself be claimed, on the same step, by a lower id on a third process. It is then sent there while the ghost arrives
+ * where it was, and their merge waits for the next step. Chains of three or more overlapping bodies spanning processes
+ * can merge in a different order, which changes the result by rounding.
+ * Block time-stepping is not supported, since it bypasses the force engine.
+ */
+public class DomainDecomposition
+{
+    private final DomainLink link;
+    /**Upper x boundary of each rank's slab but the last*/
+    private double[] cuts;
+    private final OctreeForceEngine tree;
+    /**Steps between rebalancing the slabs; 0 or less never rebalances*/
+    public int rebalanceEvery = 50;
+    private long steps;
+    /**Point masses standing in for the bodies of the other processes, for the current force pass*/
+    private final PointMasses remote = new PointMasses();
+    private final PointMasses export = new PointMasses();
+    private long remoteInteractions;
+    /**Spatial hash of the local bodies for matching ghosts to the bodies they touch, built as CollisionGrid builds its own:
+     * the head of each bucket's list of entries, the body slot of each entry, and the next entry in the same bucket*/
+    private int[] bucketHead = new int[0];
+    private int[] entryBody = new int[0];
+    private int[] entryNext = new int[0];
+    private int mask;
+    private double cellSize;
+    /**Largest radius of a local body, and the number of live bodies, when the hash was built*/
+    private double largestHere;
+    private int hashed;
+    private BodyStore target;
+    private final WorkerPool.RangeTask remoteTask = new WorkerPool.RangeTask() {
+        @Override
+        public void run(int from, int to, int worker) {
+            addRemote(target, from, to);
+        }
+    };
+
+    /**@param link Connections to the other processes
+     * @param theta Opening angle for the summaries of distant bodies; 0 sends every body and reproduces direct summation*/
+    public DomainDecomposition(DomainLink link, double theta)
+    {
+        this.link = link;
+        tree = new OctreeForceEngine(theta);
+    }
+
+    /**Chooses the initial slabs from the full initial population, which every process holds, and drops the bodies
+     * that belong to other processes.*/
+    public void keepOwn(BodyStore bodies)
+    {
+        double[] xs = new double[bodies.count];
+        for (int i = 0; i < bodies.count; i++)
+        {
+            xs[i] = bodies.x[i];
+        }
+        chooseSlabs(xs);
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (owner(bodies.x[i]) != link.rank)
+            {
+                bodies.removed[i] = true;
+            }
+        }
+        bodies.compact();
+    }
+
+    /**Chooses the initial slabs from the x positions of the whole initial population, which every process must pass.
+     * @param xs The x positions; sorted in place*/
+    public void chooseSlabs(double[] xs)
+    {
+        cuts = quantiles(xs);
+    }
+
+    /**Lowest x in this process's slab, once the slabs are chosen*/
+    public double getSlabStart()
+    {
+        return link.rank > 0 ? cuts[link.rank-1] : Double.NEGATIVE_INFINITY;
+    }
+
+    /**x at which the next process's slab begins, once the slabs are chosen*/
+    public double getSlabEnd()
+    {
+        return link.rank < cuts.length ? cuts[link.rank] : Double.POSITIVE_INFINITY;
+    }
+
+    /**Slab boundaries that split the given x values into equal shares, one per rank.*/
+    private double[] quantiles(double[] xs)
+    {
+        Arrays.sort(xs);
+        double[] result = new double[link.size-1];
+        for (int k = 1; k < link.size; k++)
+        {
+            result[k-1] = xs.length > 0 ? xs[(int) ((long) xs.length*k/link.size)] : 0;
+        }
+        return result;
+    }
+
+    /**Rank whose slab holds the given x*/
+    private int owner(double x)
+    {
+        int p = 0;
+        while (p < cuts.length && x >= cuts[p])
+        {
+            p++;
+        }
+        return p;
+    }
+
+    /**Rank of this process*/
+    public int getRank()
+    {
+        return link.rank;
+    }
+
+    /**Returns a force engine that adds the pull of the other processes' bodies to what the local engine computes.*/
+    public ForceEngine wrap(final ForceEngine local)
+    {
+        return new ForceEngine() {
+            @Override
+            public void computeAccelerations(BodyStore bodies) {
+                exchangeSummaries(bodies);
+                local.computeAccelerations(bodies);
+                addRemote(bodies, 0, bodies.count);
+            }
+
+            @Override
+            public void computeAccelerations(BodyStore bodies, WorkerPool workers) {
+                exchangeSummaries(bodies);
+                local.computeAccelerations(bodies, workers);
+                target = bodies;
+                workers.forEach(bodies.count, remoteTask);
+                target = null;
+            }
+
+            @Override
+            public long getInteractionCount() {
+                return local.getInteractionCount() + remoteInteractions;
+            }
+        };
+    }
+
+    /**Returns a collision detector that migrates bodies at the start of each step and resolves collisions across
+     * process boundaries after the local detector has run.*/
+    public CollisionDetector wrap(final CollisionDetector local)
+    {
+        return new CollisionDetector() {
+            @Override
+            public void beginStep(BodyStore bodies) {
+                try
+                {
+                    if (rebalanceEvery > 0 && steps > 0 && steps % rebalanceEvery == 0)
+                    {
+                        rebalance(bodies);
+                    }
+                    migrate(bodies);
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+                steps++;
+                local.beginStep(bodies);
+            }
+
+            @Override
+            public void resolveCollisions(BodyStore bodies) {
+                local.resolveCollisions(bodies);
+                try
+                {
+                    if (claimAcrossBoundaries(bodies))
+                    {
+                        local.resolveCollisions(bodies);
+                    }
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**Moves the slab boundaries to the quantiles of every process's current x positions.*/
+    private void rebalance(BodyStore bodies) throws IOException
+    {
+        double[] mine = new double[bodies.liveCount()];
+        int k = 0;
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                mine[k++] = bodies.x[i];
+            }
+        }
+        double[][] all = link.allGather(mine);
+        int total = 0;
+        for (double[] xs : all)
+        {
+            total += xs.length;
+        }
+        double[] xs = new double[total];
+        int at = 0;
+        for (double[] part : all)
+        {
+            System.arraycopy(part, 0, xs, at, part.length);
+            at += part.length;
+        }
+        cuts = quantiles(xs);
+    }
+
+    /**Sends every body outside this slab to the process that owns its position, and adopts the bodies sent here.*/
+    private void migrate(BodyStore bodies) throws IOException
+    {
+        ByteArrayOutputStream[] messages = link.newMessages();
+        DataOutputStream[] out = streams(messages);
+        int[] counts = new int[link.size];
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                int p = owner(bodies.x[i]);
+                if (p != link.rank)
+                {
+                    counts[p]++;
+                }
+            }
+        }
+        for (int p = 0; p < link.size; p++)
+        {
+            out[p].writeInt(counts[p]);
+        }
+        double[][] columns = bodies.stateColumns();
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                int p = owner(bodies.x[i]);
+                if (p != link.rank)
+                {
+                    writeBody(out[p], bodies, columns, i);
+                    bodies.removed[i] = true;
+                }
+            }
+        }
+        bodies.compact();
+        receiveBodies(bodies, link.exchange(messages));
+    }
+
+    /**Bounding box of the live bodies as {minX, minY, minZ, maxX, maxY, maxZ, largest radius}; empty if min exceeds max.*/
+    private static double[] bounds(BodyStore bodies)
+    {
+        double[] box = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, 0};
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                box[0] = Math.min(box[0], bodies.x[i]);
+                box[1] = Math.min(box[1], bodies.y[i]);
+                box[2] = Math.min(box[2], bodies.z[i]);
+                box[3] = Math.max(box[3], bodies.x[i]);
+                box[4] = Math.max(box[4], bodies.y[i]);
+                box[5] = Math.max(box[5], bodies.z[i]);
+                box[6] = Math.max(box[6], bodies.size[i]);
+            }
+        }
+        return box;
+    }
+
+    /**Sends each process the point masses that stand in for this one inside its bounding box, and collects theirs.*/
+    private void exchangeSummaries(BodyStore bodies)
+    {
+        try
+        {
+            double[][] boxes = link.allGather(bounds(bodies));
+            tree.build(bodies);
+            ByteArrayOutputStream[] messages = link.newMessages();
+            DataOutputStream[] out = streams(messages);
+            for (int p = 0; p < link.size; p++)
+            {
+                double[] box = boxes[p];
+                export.clear();
+                if (p != link.rank && box[0] <= box[3])
+                {
+                    tree.essentialMasses(bodies, box[0], box[1], box[2], box[3], box[4], box[5], export);
+                }
+                out[p].writeInt(export.count);
+                for (int k = 0; k < export.count; k++)
+                {
+                    out[p].writeDouble(export.x[k]);
+                    out[p].writeDouble(export.y[k]);
+                    out[p].writeDouble(export.z[k]);
+                    out[p].writeDouble(export.mass[k]);
+                }
+            }
+            DataInputStream[] in = link.exchange(messages);
+            remote.clear();
+            for (int p = 0; p < link.size; p++)
+            {
+                if (p == link.rank)
+                {
+                    continue;
+                }
+                int n = in[p].readInt();
+                for (int k = 0; k < n; k++)
+                {
+                    remote.add(in[p].readDouble(), in[p].readDouble(), in[p].readDouble(), in[p].readDouble());
+                }
+            }
+            remoteInteractions = (long) bodies.liveCount()*remote.count;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**Adds the acceleration and potential due to the remote point masses to the bodies in slots from to to.*/
+    private void addRemote(BodyStore bodies, int from, int to)
+    {
+        double G = bodies.G;
+        double[] rx = remote.x, ry = remote.y, rz = remote.z, rm = remote.mass;
+        int n = remote.count;
+        for (int i = from; i < to; i++)
+        {
+            if (bodies.removed[i])
+            {
+                continue;
+            }
+            double xi = bodies.x[i], yi = bodies.y[i], zi = bodies.z[i];
+            double sumX = 0, sumY = 0, sumZ = 0, sumP = 0;
+            for (int k = 0; k < n; k++)
+            {
+                double dx = rx[k] - xi;
+                double dy = ry[k] - yi;
+                double dz = rz[k] - zi;
+                double distSq = dx*dx + dy*dy + dz*dz;
+                if (distSq == 0)
+                {
+                    continue;
+                }
+                double invDist = 1/Math.sqrt(distSq);
+                double gm = G*rm[k]*invDist;
+                double scale = gm*invDist*invDist;
+                sumX += dx*scale;
+                sumY += dy*scale;
+                sumZ += dz*scale;
+                sumP -= gm;
+            }
+            bodies.ax[i] += sumX;
+            bodies.ay[i] += sumY;
+            bodies.az[i] += sumZ;
+            bodies.potential[i] += sumP;
+        }
+    }
+
+    /**Sends ghosts of the bodies near each other process, claims the ghosts that overlap a body here with a lower id,
+     * and moves each claimed body to its claimant.
+     * @return Whether any bodies arrived, so that the local detector must run again*/
+    private boolean claimAcrossBoundaries(BodyStore bodies) throws IOException
+    {
+        double[][] boxes = link.allGather(bounds(bodies));
+        double largest = 0;
+        for (double[] box : boxes)
+        {
+            largest = Math.max(largest, box[6]);
+        }
+
+        //Ghosts: every body that could touch a body in the other process's box
+        ByteArrayOutputStream[] messages = link.newMessages();
+        DataOutputStream[] out = streams(messages);
+        for (int p = 0; p < link.size; p++)
+        {
+            double[] box = boxes[p];
+            if (p == link.rank || box[0] > box[3])
+            {
+                out[p].writeInt(0);
+                continue;
+            }
+            int n = 0;
+            for (int i = 0; i < bodies.count; i++)
+            {
+                if (!bodies.removed[i] && near(bodies, i, box, bodies.size[i] + largest))
+                {
+                    n++;
+                }
+            }
+            out[p].writeInt(n);
+            for (int i = 0; i < bodies.count; i++)
+            {
+                if (!bodies.removed[i] && near(bodies, i, box, bodies.size[i] + largest))
+                {
+                    out[p].writeInt(bodies.id[i]);
+                    out[p].writeDouble(bodies.x[i]);
+                    out[p].writeDouble(bodies.y[i]);
+                    out[p].writeDouble(bodies.z[i]);
+                    out[p].writeDouble(bodies.size[i]);
+                }
+            }
+        }
+        DataInputStream[] in = link.exchange(messages);
+
+        //Claims: the lowest id here that overlaps each ghost with a higher id
+        buildHash(bodies);
+        messages = link.newMessages();
+        out = streams(messages);
+        for (int p = 0; p < link.size; p++)
+        {
+            if (p == link.rank)
+            {
+                out[p].writeInt(0);
+                continue;
+            }
+            int n = in[p].readInt();
+            int[] claimed = new int[n], claimant = new int[n];
+            int claims = 0;
+            for (int k = 0; k < n; k++)
+            {
+                int ghost = in[p].readInt();
+                double gx = in[p].readDouble(), gy = in[p].readDouble(), gz = in[p].readDouble(), gs = in[p].readDouble();
+                int best = lowestOverlap(bodies, ghost, gx, gy, gz, gs);
+                if (best >= 0)
+                {
+                    claimed[claims] = ghost;
+                    claimant[claims++] = best;
+                }
+            }
+            out[p].writeInt(claims);
+            for (int k = 0; k < claims; k++)
+            {
+                out[p].writeInt(claimed[k]);
+                out[p].writeInt(claimant[k]);
+            }
+        }
+        in = link.exchange(messages);
+
+        //Transfers: each claimed body goes to the process with the lowest claiming id
+        int[] winnerRank = new int[bodies.idLimit()];
+        int[] winnerId = new int[bodies.idLimit()];
+        Arrays.fill(winnerRank, -1);
+        boolean any = false;
+        for (int p = 0; p < link.size; p++)
+        {
+            if (p == link.rank)
+            {
+                continue;
+            }
+            int n = in[p].readInt();
+            for (int k = 0; k < n; k++)
+            {
+                int id = in[p].readInt(), by = in[p].readInt();
+                if (winnerRank[id] < 0 || by < winnerId[id])
+                {
+                    winnerRank[id] = p;
+                    winnerId[id] = by;
+                }
+                any = true;
+            }
+        }
+        messages = link.newMessages();
+        out = streams(messages);
+        int[] counts = new int[link.size];
+        if (any)
+        {
+            for (int i = 0; i < bodies.count; i++)
+            {
+                if (!bodies.removed[i] && winnerRank[bodies.id[i]] >= 0)
+                {
+                    counts[winnerRank[bodies.id[i]]]++;
+                }
+            }
+        }
+        for (int p = 0; p < link.size; p++)
+        {
+            out[p].writeInt(counts[p]);
+        }
+        if (any)
+        {
+            double[][] columns = bodies.stateColumns();
+            for (int i = 0; i < bodies.count; i++)
+            {
+                if (!bodies.removed[i] && winnerRank[bodies.id[i]] >= 0)
+                {
+                    writeBody(out[winnerRank[bodies.id[i]]], bodies, columns, i);
+                    bodies.removed[i] = true;
+                }
+            }
+        }
+        return receiveBodies(bodies, link.exchange(messages)) > 0;
+    }
+
+    /**Bins the live bodies into cubic cells twice the largest local radius wide.*/
+    private void buildHash(BodyStore bodies)
+    {
+        largestHere = 0;
+        int live = 0;
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                largestHere = Math.max(largestHere, bodies.size[i]);
+                live++;
+            }
+        }
+        hashed = live;
+        cellSize = largestHere > 0 ? 2*largestHere : 1;
+        int buckets = Integer.highestOneBit(Math.max(live, 8)*2);
+        if (bucketHead.length != buckets)
+        {
+            bucketHead = new int[buckets];
+        }
+        Arrays.fill(bucketHead, -1);
+        mask = buckets-1;
+        if (entryBody.length < live)
+        {
+            entryBody = new int[bodies.mass.length];
+            entryNext = new int[bodies.mass.length];
+        }
+        int entries = 0;
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                int b = bucket(cell(bodies.x[i]), cell(bodies.y[i]), cell(bodies.z[i]));
+                entryBody[entries] = i;
+                entryNext[entries] = bucketHead[b];
+                bucketHead[b] = entries++;
+            }
+        }
+    }
+
+    /**Finds the lowest id below the ghost's among the local bodies that overlap it, searching the cells within reach.
+     * A ghost so much larger than the local bodies that it reaches more cells than there are bodies is checked against
+     * every body instead.
+     * @return The id, or -1 if there is none*/
+    private int lowestOverlap(BodyStore bodies, int ghost, double gx, double gy, double gz, double gs)
+    {
+        double reach = gs + largestHere;
+        long x0 = cell(gx-reach), x1 = cell(gx+reach);
+        long y0 = cell(gy-reach), y1 = cell(gy+reach);
+        long z0 = cell(gz-reach), z1 = cell(gz+reach);
+        int best = -1;
+        if ((double) (x1-x0+1)*(y1-y0+1)*(z1-z0+1) > hashed)
+        {
+            for (int i = 0; i < bodies.count; i++)
+            {
+                if (!bodies.removed[i] && overlapsBelow(bodies, i, ghost, best, gx, gy, gz, gs))
+                {
+                    best = bodies.id[i];
+                }
+            }
+            return best;
+        }
+        for (long cx = x0; cx <= x1; cx++)
+        {
+            for (long cy = y0; cy <= y1; cy++)
+            {
+                for (long cz = z0; cz <= z1; cz++)
+                {
+                    for (int e = bucketHead[bucket(cx, cy, cz)]; e >= 0; e = entryNext[e])
+                    {
+                        int i = entryBody[e];
+                        if (overlapsBelow(bodies, i, ghost, best, gx, gy, gz, gs))
+                        {
+                            best = bodies.id[i];
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**Whether body i overlaps the ghost and has an id below both the ghost's and the best found so far (if any).*/
+    private static boolean overlapsBelow(BodyStore bodies, int i, int ghost, int best, double gx, double gy, double gz, double gs)
+    {
+        if (bodies.id[i] >= ghost || (best >= 0 && bodies.id[i] >= best))
+        {
+            return false;
+        }
+        double dx = bodies.x[i] - gx, dy = bodies.y[i] - gy, dz = bodies.z[i] - gz;
+        double touch = bodies.size[i] + gs;
+        return dx*dx + dy*dy + dz*dz < touch*touch;
+    }
+
+    private long cell(double coordinate)
+    {
+        return (long) Math.floor(coordinate/cellSize);
+    }
+
+    private int bucket(long cx, long cy, long cz)
+    {
+        long h = cx*73856093L ^ cy*19349663L ^ cz*83492791L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**Whether body i is within reach of the box.*/
+    private static boolean near(BodyStore bodies, int i, double[] box, double reach)
+    {
+        return bodies.x[i] >= box[0] - reach && bodies.x[i] <= box[3] + reach
+                && bodies.y[i] >= box[1] - reach && bodies.y[i] <= box[4] + reach
+                && bodies.z[i] >= box[2] - reach && bodies.z[i] <= box[5] + reach;
+    }
+
+    /**Sends every body to rank 0, which adopts them all, e.g. to summarise the end of a run. Must be called by every process.*/
+    public void gather(BodyStore bodies) throws IOException
+    {
+        ByteArrayOutputStream[] messages = link.newMessages();
+        DataOutputStream[] out = streams(messages);
+        for (int p = 0; p < link.size; p++)
+        {
+            out[p].writeInt(p == 0 && link.rank != 0 ? bodies.liveCount() : 0);
+        }
+        if (link.rank != 0)
+        {
+            double[][] columns = bodies.stateColumns();
+            for (int i = 0; i < bodies.count; i++)
+            {
+                if (!bodies.removed[i])
+                {
+                    writeBody(out[0], bodies, columns, i);
+                    bodies.removed[i] = true;
+                }
+            }
+            bodies.compact();
+        }
+        receiveBodies(bodies, link.exchange(messages));
+    }
+
+    /**Adopts the bodies in each message, each preceded by a count.
+     * @return The number of bodies adopted*/
+    private int receiveBodies(BodyStore bodies, DataInputStream[] in) throws IOException
+    {
+        int received = 0;
+        for (int p = 0; p < link.size; p++)
+        {
+            if (p == link.rank)
+            {
+                continue;
+            }
+            int n = in[p].readInt();
+            for (int k = 0; k < n; k++)
+            {
+                readBody(in[p], bodies);
+            }
+            received += n;
+        }
+        return received;
+    }
+
+    /**Writes the complete state of a body, as Checkpoint saves it.*/
+    private static void writeBody(DataOutputStream out, BodyStore bodies, double[][] columns, int i) throws IOException
+    {
+        out.writeInt(bodies.id[i]);
+        out.writeUTF(bodies.ident[i]);
+        out.writeInt(bodies.color[i]);
+        out.writeInt(bodies.level[i]);
+        out.writeInt(bodies.history[i]);
+        out.writeBoolean(bodies.accelPending[i]);
+        for (double[] column : columns)
+        {
+            out.writeDouble(column[i]);
+        }
+    }
+
+    private static void readBody(DataInputStream in, BodyStore bodies) throws IOException
+    {
+        int id = in.readInt();
+        int i = bodies.append(id, in.readUTF());
+        bodies.color[i] = in.readInt();
+        bodies.level[i] = in.readInt();
+        bodies.history[i] = in.readInt();
+        if (in.readBoolean())
+        {
+            bodies.invalidateAccel(i);
+        }
+        //Columns are fetched after append(), which may have grown the arrays
+        for (double[] column : bodies.stateColumns())
+        {
+            column[i] = in.readDouble();
+        }
+    }
+
+    private static DataOutputStream[] streams(ByteArrayOutputStream[] messages)
+    {
+        DataOutputStream[] out = new DataOutputStream[messages.length];
+        for (int p = 0; p < messages.length; p++)
+        {
+            out[p] = new DataOutputStream(messages[p]);
+        }
+        return out;
+    }
+
+    /**Closes the connections to the other processes.*/
+    public void close() throws IOException
+    {
+        link.close();
+    }
+}
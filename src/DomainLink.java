@@ -0,0 +1,482 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * TCP connections between every pair of processes of a decomposed run, for all-to-all message exchange.
+ * Every process listens on its own address; each connects to the processes of lower rank and accepts the rest.
+ * Messages to each peer are written by a separate thread while this one reads, so large exchanges cannot deadlock
+ * on full socket buffers.
+ * Peers on the same host pass messages through memory-mapped files instead, in /dev/shm where it exists. Each side of
+ * a connection writes its messages into two files of its own, used in turn, and sends only the length over the socket,
+ * which also orders the writes before the reads. The receiver reads the message where it lies. A sender can only get
+ * two exchanges ahead once the receiver has finished reading the older file, so messages are never overwritten while
+ * still in use. Whether a peer shares the host is found when connecting: the connecting side creates its files, and
+ * the accepting side looks for them.
+ */
+public class DomainLink
+{
+    /**Seconds to keep retrying a connection to a peer that has not started listening yet*/
+    private static final int CONNECT_SECONDS = 60;
+    /**Bytes first mapped for each shared file; a file grows to fit a larger message*/
+    private static final int SHARED_BYTES = 1 << 20;
+
+    public final int rank;
+    public final int size;
+    private final Socket[] sockets;
+    private final DataInputStream[] in;
+    private final DataOutputStream[] out;
+    private final ExecutorService senders;
+    /**Files this process writes its messages to each peer on the same host into, two per peer used in turn;
+     * null for peers reached over TCP alone*/
+    private final SharedFile[][] sharedOut;
+    /**Files each peer on the same host writes its messages to this process into*/
+    private final SharedFile[][] sharedIn;
+    /**Number of exchanges so far, which picks the shared file of each exchange*/
+    private long exchanges;
+
+    /**Connects to every peer, waiting for those that have not started yet; peers on the same host share memory.
+     * @param rank This process's position in peers
+     * @param peers host:port of every process, in rank order*/
+    public DomainLink(int rank, String[] peers) throws IOException
+    {
+        this(rank, peers, true);
+    }
+
+    /**Connects to every peer, waiting for those that have not started yet.
+     * @param rank This process's position in peers
+     * @param peers host:port of every process, in rank order
+     * @param shareMemory Whether to pass messages to peers on the same host through memory-mapped files*/
+    public DomainLink(int rank, String[] peers, boolean shareMemory) throws IOException
+    {
+        this.rank = rank;
+        size = peers.length;
+        sockets = new Socket[size];
+        in = new DataInputStream[size];
+        out = new DataOutputStream[size];
+        sharedOut = new SharedFile[size][];
+        sharedIn = new SharedFile[size][];
+        Random keys = new Random();
+        try (ServerSocket server = new ServerSocket())
+        {
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(port(peers[rank])));
+            for (int p = 0; p < rank; p++)
+            {
+                Socket s = connect(peers[p]);
+                open(p, s);
+                //Offer shared memory by creating this side's files under a key only the two processes know
+                long key = keys.nextLong();
+                if (shareMemory)
+                {
+                    sharedOut[p] = SharedFile.create(key, rank, p);
+                }
+                out[p].writeInt(rank);
+                out[p].writeBoolean(shareMemory);
+                out[p].writeLong(key);
+                out[p].flush();
+                if (shareMemory)
+                {
+                    if (in[p].readBoolean())
+                    {
+                        sharedIn[p] = SharedFile.attach(key, p, rank);
+                    }
+                    else
+                    {
+                        SharedFile.close(sharedOut[p]);
+                        sharedOut[p] = null;
+                    }
+                }
+            }
+            for (int k = rank+1; k < size; k++)
+            {
+                Socket s = server.accept();
+                DataInputStream hello = new DataInputStream(s.getInputStream());
+                int p = hello.readInt();
+                boolean offered = hello.readBoolean();
+                long key = hello.readLong();
+                open(p, s);
+                if (offered)
+                {
+                    //The files are only there to be found if the peer runs on this host
+                    boolean accept = shareMemory && SharedFile.exists(key, p, rank);
+                    if (accept)
+                    {
+                        sharedOut[p] = SharedFile.create(key, rank, p);
+                        sharedIn[p] = SharedFile.attach(key, p, rank);
+                    }
+                    out[p].writeBoolean(accept);
+                    out[p].flush();
+                }
+            }
+        }
+        senders = Executors.newFixedThreadPool(Math.max(1, size-1), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DomainSender");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private void open(int p, Socket s) throws IOException
+    {
+        s.setTcpNoDelay(true);
+        sockets[p] = s;
+        in[p] = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+        out[p] = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16));
+    }
+
+    private static Socket connect(String peer) throws IOException
+    {
+        String host = peer.substring(0, peer.lastIndexOf(':'));
+        long deadline = System.nanoTime() + CONNECT_SECONDS*1000000000L;
+        while (true)
+        {
+            try
+            {
+                return new Socket(host, port(peer));
+            }
+            catch (ConnectException e)
+            {
+                if (System.nanoTime() > deadline)
+                {
+                    throw e;
+                }
+                try
+                {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException interrupted)
+                {
+                    throw new IOException("Interrupted while connecting to "+peer);
+                }
+            }
+        }
+    }
+
+    private static int port(String peer)
+    {
+        return Integer.parseInt(peer.substring(peer.lastIndexOf(':')+1));
+    }
+
+    /**Number of peers reached through shared memory rather than TCP*/
+    public int getSharedPeers()
+    {
+        int n = 0;
+        for (SharedFile[] files : sharedOut)
+        {
+            if (files != null)
+            {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**Creates one empty message per peer; the entry for this rank is ignored by exchange().*/
+    public ByteArrayOutputStream[] newMessages()
+    {
+        ByteArrayOutputStream[] messages = new ByteArrayOutputStream[size];
+        for (int p = 0; p < size; p++)
+        {
+            messages[p] = new ByteArrayOutputStream();
+        }
+        return messages;
+    }
+
+    /**Sends each peer its message and receives one from each. Every process must call this the same number of times.
+     * @param outgoing One message per rank
+     * @return The message from each peer, with an empty one for this rank. A message from a peer sharing memory is read
+     * from the shared file, so it must be read before the next call to exchange().*/
+    public DataInputStream[] exchange(final ByteArrayOutputStream[] outgoing) throws IOException
+    {
+        final int turn = (int) (exchanges++ & 1);
+        Future<?>[] sends = new Future<?>[size];
+        for (int p = 0; p < size; p++)
+        {
+            if (p == rank)
+            {
+                continue;
+            }
+            final DataOutputStream o = out[p];
+            final ByteArrayOutputStream message = outgoing[p];
+            final SharedFile shared = sharedOut[p] != null ? sharedOut[p][turn] : null;
+            sends[p] = senders.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    o.writeInt(message.size());
+                    if (shared != null)
+                    {
+                        final ByteBuffer target = shared.reserve(message.size());
+                        message.writeTo(new OutputStream() {
+                            @Override
+                            public void write(int b) {
+                                target.put((byte) b);
+                            }
+
+                            @Override
+                            public void write(byte[] b, int off, int len) {
+                                target.put(b, off, len);
+                            }
+                        });
+                    }
+                    else
+                    {
+                        message.writeTo(o);
+                    }
+                    o.flush();
+                    return null;
+                }
+            });
+        }
+        DataInputStream[] incoming = new DataInputStream[size];
+        for (int p = 0; p < size; p++)
+        {
+            if (p != rank && sharedIn[p] != null)
+            {
+                //The length arrives after the message has been written to the file
+                incoming[p] = new DataInputStream(new BufferInputStream(sharedIn[p][turn].read(in[p].readInt())));
+                continue;
+            }
+            byte[] data = new byte[0];
+            if (p != rank)
+            {
+                data = new byte[in[p].readInt()];
+                in[p].readFully(data);
+            }
+            incoming[p] = new DataInputStream(new ByteArrayInputStream(data));
+        }
+        for (int p = 0; p < size; p++)
+        {
+            if (sends[p] == null)
+            {
+                continue;
+            }
+            try
+            {
+                sends[p].get();
+            }
+            catch (ExecutionException e)
+            {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+            catch (InterruptedException e)
+            {
+                throw new IOException("Interrupted while sending to rank "+p);
+            }
+        }
+        return incoming;
+    }
+
+    /**Gives every process the values of every other.
+     * @return values[p] from each rank p, including this one*/
+    public double[][] allGather(double[] values) throws IOException
+    {
+        ByteArrayOutputStream[] messages = newMessages();
+        for (int p = 0; p < size; p++)
+        {
+            DataOutputStream o = new DataOutputStream(messages[p]);
+            o.writeInt(values.length);
+            for (double v : values)
+            {
+                o.writeDouble(v);
+            }
+        }
+        DataInputStream[] incoming = exchange(messages);
+        double[][] all = new double[size][];
+        for (int p = 0; p < size; p++)
+        {
+            if (p == rank)
+            {
+                all[p] = values.clone();
+                continue;
+            }
+            all[p] = new double[incoming[p].readInt()];
+            for (int k = 0; k < all[p].length; k++)
+            {
+                all[p][k] = incoming[p].readDouble();
+            }
+        }
+        return all;
+    }
+
+    /**Closes every connection and removes the shared files this process wrote.*/
+    public void close() throws IOException
+    {
+        senders.shutdown();
+        for (Socket s : sockets)
+        {
+            if (s != null)
+            {
+                s.close();
+            }
+        }
+        for (int p = 0; p < size; p++)
+        {
+            SharedFile.close(sharedOut[p]);
+            SharedFile.close(sharedIn[p]);
+        }
+    }
+
+    /**
+     * A file mapped into memory by the two processes of a connection on the same host; one writes it and the other reads it.
+     * The writer grows the file when a message does not fit, and the reader maps it again when told of a longer message.
+     */
+    private static class SharedFile
+    {
+        /**Where shared files are created: /dev/shm, which is never on a network file system, or else the temporary directory*/
+        static final Path DIR = Files.isDirectory(Paths.get("/dev/shm")) && Files.isWritable(Paths.get("/dev/shm"))
+                ? Paths.get("/dev/shm") : Paths.get(System.getProperty("java.io.tmpdir"));
+
+        final Path path;
+        final FileChannel channel;
+        final boolean writer;
+        MappedByteBuffer buffer;
+
+        private SharedFile(Path path, boolean writer) throws IOException
+        {
+            this.path = path;
+            this.writer = writer;
+            if (writer)
+            {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                path.toFile().deleteOnExit();
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SHARED_BYTES);
+            }
+            else
+            {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            }
+        }
+
+        /**Path of one of the files the process of rank from writes its messages to rank to into.*/
+        static Path path(long key, int from, int to, int turn)
+        {
+            return DIR.resolve("orbsim-"+Long.toHexString(key)+"-"+from+"-"+to+"-"+turn);
+        }
+
+        /**Creates the two files a process writes its messages to a peer into.*/
+        static SharedFile[] create(long key, int from, int to) throws IOException
+        {
+            return new SharedFile[] {new SharedFile(path(key, from, to, 0), true), new SharedFile(path(key, from, to, 1), true)};
+        }
+
+        /**Opens the two files a peer writes its messages to this process into.*/
+        static SharedFile[] attach(long key, int from, int to) throws IOException
+        {
+            return new SharedFile[] {new SharedFile(path(key, from, to, 0), false), new SharedFile(path(key, from, to, 1), false)};
+        }
+
+        static boolean exists(long key, int from, int to)
+        {
+            return Files.exists(path(key, from, to, 0)) && Files.exists(path(key, from, to, 1));
+        }
+
+        /**Closes the files, deleting them if this process wrote them.*/
+        static void close(SharedFile[] files) throws IOException
+        {
+            if (files == null)
+            {
+                return;
+            }
+            for (SharedFile f : files)
+            {
+                f.channel.close();
+                f.buffer = null;
+                if (f.writer)
+                {
+                    Files.deleteIfExists(f.path);
+                }
+            }
+        }
+
+        /**Returns the buffer, emptied and with room for a message of the given length.*/
+        ByteBuffer reserve(int bytes) throws IOException
+        {
+            if (buffer.capacity() < bytes)
+            {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(Integer.MAX_VALUE, Math.max(bytes, 2L*buffer.capacity())));
+            }
+            buffer.clear();
+            return buffer;
+        }
+
+        /**Returns a view of the first bytes of the file, which hold the message just written.*/
+        ByteBuffer read(int bytes) throws IOException
+        {
+            if (buffer == null || buffer.capacity() < bytes)
+            {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.position(0);
+            view.limit(bytes);
+            return view;
+        }
+    }
+
+    /**Reads the remaining bytes of a buffer.*/
+    private static class BufferInputStream extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (!buffer.hasRemaining())
+            {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+}
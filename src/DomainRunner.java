@@ -0,0 +1,243 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs one simulation split across several processes; see DomainDecomposition.
+ * With --spawn P it starts P processes on this machine, connected over loopback, and waits for them.
+ * On a cluster, start one process per host with --rank and the same --peers list on each.
+ * Rank 0 prints the summary of the whole run at the end and writes --out.
+ * Usage: java DomainRunner --spawn P [--port BASE] [options]
+ *        java DomainRunner --rank R --peers host:port,host:port,... [options]
+ * Options: [--steps N | --days D | --years Y] [--seed S] [--threads T] [--engine direct|tiled|symmetric|octree]
+ *          [--theta T] [--softening M] [--collisions grid|swept|brute] [--integrator ab3|leapfrog|yoshida] [--rebalance N] [--scenario FILE] [--out final.csv]
+ *          [--transport auto|tcp]
+ * Processes on the same host pass messages through shared memory-mapped files unless --transport tcp is given;
+ * see DomainLink.
+ * --theta is also the opening angle for the summaries exchanged between processes; 0 exchanges every body,
+ * which makes the run match a single-process direct summation up to rounding.
+ * hermite is not offered: the summaries exchanged between processes carry no velocities, so no jerk can be summed from them.
+ */
+public class DomainRunner
+{
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        System.setProperty("java.awt.headless", "true");
+        int spawn = 0;
+        int basePort = 47100;
+        int rank = -1;
+        String peers = null;
+        long steps = 365*2;
+        double days = -1;
+        int seed = 1;
+        int threads = 1;
+        String engine = "direct";
+        double theta = 0.5;
+        double softening = 0;
+        String collisions = "grid";
+        String integrator = "ab3";
+        int rebalance = 50;
+        String out = null;
+        String scenario = null;
+        String transport = "auto";
+        List<String> passOn = new ArrayList<String>();
+        for (int a = 0; a < args.length; a++)
+        {
+            String arg = args[a];
+            if (arg.equals("--spawn"))
+            {
+                spawn = Integer.parseInt(args[++a]);
+                continue;
+            }
+            else if (arg.equals("--port"))
+            {
+                basePort = Integer.parseInt(args[++a]);
+                continue;
+            }
+            else if (arg.equals("--rank"))
+            {
+                rank = Integer.parseInt(args[++a]);
+                continue;
+            }
+            else if (arg.equals("--peers"))
+            {
+                peers = args[++a];
+                continue;
+            }
+            else if (arg.equals("--steps"))
+            {
+                steps = Long.parseLong(args[a+1]);
+            }
+            else if (arg.equals("--days"))
+            {
+                days = Double.parseDouble(args[a+1]);
+            }
+            else if (arg.equals("--years"))
+            {
+                days = Double.parseDouble(args[a+1])*365;
+            }
+            else if (arg.equals("--seed"))
+            {
+                seed = Integer.parseInt(args[a+1]);
+            }
+            else if (arg.equals("--threads"))
+            {
+                threads = Integer.parseInt(args[a+1]);
+            }
+            else if (arg.equals("--engine"))
+            {
+                engine = args[a+1];
+            }
+            else if (arg.equals("--theta"))
+            {
+                theta = Double.parseDouble(args[a+1]);
+            }
+            else if (arg.equals("--softening"))
+            {
+                softening = Double.parseDouble(args[a+1]);
+            }
+            else if (arg.equals("--collisions"))
+            {
+                collisions = args[a+1];
+            }
+            else if (arg.equals("--integrator"))
+            {
+                integrator = args[a+1];
+            }
+            else if (arg.equals("--rebalance"))
+            {
+                rebalance = Integer.parseInt(args[a+1]);
+            }
+            else if (arg.equals("--scenario"))
+            {
+                scenario = args[a+1];
+            }
+            else if (arg.equals("--out"))
+            {
+                out = args[a+1];
+            }
+            else if (arg.equals("--transport"))
+            {
+                transport = args[a+1];
+                if (!transport.equals("auto") && !transport.equals("tcp"))
+                {
+                    throw new IllegalArgumentException("Unknown transport: "+transport);
+                }
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unknown option: "+arg);
+            }
+            //Options of the run itself are handed on to spawned processes
+            passOn.add(arg);
+            passOn.add(args[++a]);
+        }
+
+        if (spawn > 0)
+        {
+            spawn(spawn, basePort, passOn);
+            return;
+        }
+        if (rank < 0 || peers == null)
+        {
+            throw new IllegalArgumentException("Either --spawn or both --rank and --peers are required");
+        }
+
+        DomainLink link = new DomainLink(rank, peers.split(","), transport.equals("auto"));
+        DomainDecomposition domain = new DomainDecomposition(link, theta);
+        domain.rebalanceEvery = rebalance;
+        SystemSimulator sim;
+        int total;
+        if (scenario != null)
+        {
+            //Every process reads the x positions to agree on the slabs, then loads only the bodies of its own
+            ScenarioLoader loader = new ScenarioLoader(Paths.get(scenario));
+            domain.chooseSlabs(loader.readX());
+            loader.keepFromX = domain.getSlabStart();
+            loader.keepBelowX = domain.getSlabEnd();
+            sim = new SystemSimulator(loader);
+            total = loader.getCount();
+        }
+        else
+        {
+            //The random system is small and of fixed size, so every process populates all of it and keeps its own slab
+            sim = new SystemSimulator(seed);
+            total = sim.bodies.count;
+            domain.keepOwn(sim.bodies);
+        }
+        sim.logYears = false;
+        sim.snapshots.setInterval(-1);
+        sim.forceEngine = domain.wrap(HeadlessRunner.createEngine(engine, theta, softening));
+        sim.collisionDetector = domain.wrap(HeadlessRunner.createCollisions(collisions));
+        sim.integrator = HeadlessRunner.createIntegrator(integrator);
+        sim.setThreads(threads);
+        if (days >= 0)
+        {
+            steps = (long) Math.ceil(days*86400/sim.timeCompression);
+        }
+        steps = HeadlessRunner.wholeSteps(sim, steps);
+        System.out.println("Rank "+rank+": "+sim.bodies.count+" of "+total+" bodies, "+link.getSharedPeers()+" of "+(link.size-1)+" peers through shared memory");
+
+        long start = System.nanoTime();
+        for (long step = 1; step <= steps; step++)
+        {
+            sim.updateSystem();
+        }
+        double seconds = (System.nanoTime() - start)/1e9;
+        System.out.println("Rank "+rank+": "+sim.bodies.count+" bodies at the end");
+        sim.setThreads(1);
+        domain.gather(sim.bodies);
+        domain.close();
+        if (rank == 0)
+        {
+            //Rank 0 now holds every body, so the finishing force pass needs no other process
+            sim.forceEngine = HeadlessRunner.createEngine(engine, theta, softening);
+            BodyStore finished = sim.finishedBodies();
+            HeadlessRunner.printSummary(sim, finished, steps, seconds);
+            if (out != null)
+            {
+                HeadlessRunner.writeState(finished, out);
+                System.out.println("Final state written to "+out);
+            }
+        }
+    }
+
+    /**Starts one process per rank on this machine with the same class path and waits for them all.*/
+    private static void spawn(int processes, int basePort, List<String> options) throws IOException, InterruptedException
+    {
+        StringBuilder peers = new StringBuilder();
+        for (int r = 0; r < processes; r++)
+        {
+            if (r > 0)
+            {
+                peers.append(',');
+            }
+            peers.append("localhost:").append(basePort + r);
+        }
+        String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+        Process[] children = new Process[processes];
+        for (int r = 0; r < processes; r++)
+        {
+            List<String> command = new ArrayList<String>(Arrays.asList(java, "-cp", System.getProperty("java.class.path"),
+                    "DomainRunner", "--rank", Integer.toString(r), "--peers", peers.toString()));
+            command.addAll(options);
+            children[r] = new ProcessBuilder(command).inheritIO().start();
+        }
+        int failed = 0;
+        for (int r = 0; r < processes; r++)
+        {
+            if (children[r].waitFor() != 0)
+            {
+                failed++;
+            }
+        }
+        if (failed > 0)
+        {
+            System.out.println(failed+" of "+processes+" processes failed");
+            System.exit(1);
+        }
+    }
+}
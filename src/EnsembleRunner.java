@@ -0,0 +1,354 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Runs the simulation from many seeds at once, one independent SystemSimulator per seed, spread over every core,
+ * and summarises how each run ended. Each run is computed serially on one thread, so its result is the same
+ * as a HeadlessRunner run with the same seed regardless of how many runs share the machine.
+ * Usage: java EnsembleRunner [--seeds N] [--first-seed S] [--steps N | --days D | --years Y] [--threads T]
+ *                            [--engine direct|tiled|symmetric|octree] [--theta T] [--softening M] [--collisions grid|swept|brute]
+ *                            [--integrator ab3|leapfrog|yoshida|hermite] [--block-levels L] [--eta E] [--samples K] [--out summary.csv]
+ * hermite needs the direct or tiled engine, the only ones that compute the jerk.
+ */
+public class EnsembleRunner
+{
+    /**How one run ended.*/
+    public static class Result
+    {
+        public final int seed;
+        /**Number of steps simulated*/
+        public long steps;
+        public int initialCount;
+        public int finalCount;
+        public double largestMass;
+        public String largestIdent = "";
+        public double seconds;
+        /**Steps at which bodies merged, in order*/
+        public long[] mergeSteps = new long[16];
+        /**Number of bodies left after each step in mergeSteps*/
+        public int[] mergeCounts = new int[16];
+        public int mergeEvents;
+
+        Result(int seed)
+        {
+            this.seed = seed;
+        }
+
+        /**Number of bodies left after the given step*/
+        public int countAt(long step)
+        {
+            int count = initialCount;
+            for (int k = 0; k < mergeEvents && mergeSteps[k] <= step; k++)
+            {
+                count = mergeCounts[k];
+            }
+            return count;
+        }
+
+        void merged(long step, int count)
+        {
+            if (mergeEvents == mergeSteps.length)
+            {
+                mergeSteps = Arrays.copyOf(mergeSteps, mergeEvents*2);
+                mergeCounts = Arrays.copyOf(mergeCounts, mergeEvents*2);
+            }
+            mergeSteps[mergeEvents] = step;
+            mergeCounts[mergeEvents] = count;
+            mergeEvents++;
+        }
+    }
+
+    private final int firstSeed;
+    private final int runs;
+    private long steps = 365*2;
+    private double days = -1;
+    private String engine = "direct";
+    private double theta = 0.5;
+    private double softening = 0;
+    private String collisions = "grid";
+    private String integrator = "ab3";
+    private int blockLevels = -1;
+    private double eta = 0.01;
+
+    /**@param firstSeed Seed of the first run
+     * @param runs Number of runs, with consecutive seeds; at least 1*/
+    public EnsembleRunner(int firstSeed, int runs)
+    {
+        if (runs < 1)
+        {
+            throw new IllegalArgumentException("At least one run is needed: "+runs);
+        }
+        this.firstSeed = firstSeed;
+        this.runs = runs;
+    }
+
+    /**Runs every seed, several at a time.
+     * @param threads Number of runs computed at once
+     * @return One result per seed, in seed order*/
+    public Result[] run(int threads)
+    {
+        final Result[] results = new Result[runs];
+        WorkerPool pool = new WorkerPool(Math.min(threads, runs), 1);
+        try
+        {
+            pool.forEach(runs, new WorkerPool.RangeTask() {
+                @Override
+                public void run(int from, int to, int worker) {
+                    for (int k = from; k < to; k++)
+                    {
+                        results[k] = runOne(firstSeed + k);
+                    }
+                }
+            });
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    /**Simulates one seed to the end and summarises it.*/
+    public Result runOne(int seed)
+    {
+        long start = System.nanoTime();
+        Result r = new Result(seed);
+        SystemSimulator sim = new SystemSimulator(seed);
+        sim.logYears = false;
+        sim.forceEngine = HeadlessRunner.createEngine(engine, theta, softening);
+        sim.collisionDetector = HeadlessRunner.createCollisions(collisions);
+        sim.integrator = HeadlessRunner.createIntegrator(integrator);
+        //Nobody draws an ensemble run
+        sim.snapshots.setInterval(-1);
+        if (blockLevels >= 0)
+        {
+            sim.setBlockStepper(new BlockTimeStepper(blockLevels, eta));
+        }
+        long n = HeadlessRunner.wholeSteps(sim, days >= 0 ? (long) Math.ceil(days*86400/sim.timeCompression) : steps);
+        BodyStore b = sim.bodies;
+        r.steps = n;
+        r.initialCount = b.count;
+        for (long step = 1; step <= n; step++)
+        {
+            int before = b.count;
+            sim.updateSystem();
+            if (b.count < before)
+            {
+                r.merged(sim.getStepCount(), b.count);
+            }
+        }
+        r.finalCount = b.count;
+        for (int i = 0; i < b.count; i++)
+        {
+            if (b.mass[i] > r.largestMass)
+            {
+                r.largestMass = b.mass[i];
+                r.largestIdent = b.ident[i];
+            }
+        }
+        r.seconds = (System.nanoTime() - start)/1e9;
+        return r;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        System.setProperty("java.awt.headless", "true");
+        int seeds = Runtime.getRuntime().availableProcessors();
+        int firstSeed = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int samples = 8;
+        String out = null;
+        long steps = 365*2;
+        double days = -1;
+        String engine = "direct";
+        double theta = 0.5;
+        double softening = 0;
+        String collisions = "grid";
+        String integrator = "ab3";
+        int blockLevels = -1;
+        double eta = 0.01;
+        for (int a = 0; a < args.length; a++)
+        {
+            String arg = args[a];
+            if (arg.equals("--seeds"))
+            {
+                seeds = Integer.parseInt(args[++a]);
+                if (seeds < 1)
+                {
+                    throw new IllegalArgumentException("--seeds must be at least 1: "+seeds);
+                }
+            }
+            else if (arg.equals("--first-seed"))
+            {
+                firstSeed = Integer.parseInt(args[++a]);
+            }
+            else if (arg.equals("--steps"))
+            {
+                steps = Long.parseLong(args[++a]);
+            }
+            else if (arg.equals("--days"))
+            {
+                days = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--years"))
+            {
+                days = Double.parseDouble(args[++a])*365;
+            }
+            else if (arg.equals("--threads"))
+            {
+                threads = Integer.parseInt(args[++a]);
+            }
+            else if (arg.equals("--engine"))
+            {
+                engine = args[++a];
+            }
+            else if (arg.equals("--theta"))
+            {
+                theta = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--softening"))
+            {
+                softening = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--collisions"))
+            {
+                collisions = args[++a];
+            }
+            else if (arg.equals("--integrator"))
+            {
+                integrator = args[++a];
+            }
+            else if (arg.equals("--block-levels"))
+            {
+                blockLevels = Integer.parseInt(args[++a]);
+            }
+            else if (arg.equals("--eta"))
+            {
+                eta = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--samples"))
+            {
+                samples = Integer.parseInt(args[++a]);
+            }
+            else if (arg.equals("--out"))
+            {
+                out = args[++a];
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unknown option: "+arg);
+            }
+        }
+
+        EnsembleRunner ensemble = new EnsembleRunner(firstSeed, seeds);
+        ensemble.steps = steps;
+        ensemble.days = days;
+        ensemble.engine = engine;
+        ensemble.theta = theta;
+        ensemble.softening = softening;
+        ensemble.collisions = collisions;
+        ensemble.integrator = integrator;
+        ensemble.blockLevels = blockLevels;
+        ensemble.eta = eta;
+        //Check the options before starting any run
+        HeadlessRunner.createEngine(engine, theta, softening);
+        HeadlessRunner.createCollisions(collisions);
+        HeadlessRunner.createIntegrator(integrator);
+        System.out.println("Runs: "+seeds+" (seeds "+firstSeed+" to "+(firstSeed+seeds-1)+")  engine: "+engine+"  parallel runs: "+Math.min(threads, seeds));
+
+        long start = System.nanoTime();
+        Result[] results = ensemble.run(threads);
+        double seconds = (System.nanoTime() - start)/1e9;
+        printSummary(results, samples, seconds);
+        if (out != null)
+        {
+            writeSummary(results, out);
+            System.out.println("Summary written to "+out);
+        }
+    }
+
+    /**Prints one line per run, a table of bodies remaining over time and the spread of the final states.*/
+    static void printSummary(Result[] results, int samples, double seconds)
+    {
+        long steps = results[0].steps;
+        double runSeconds = 0;
+        for (Result r : results)
+        {
+            runSeconds += r.seconds;
+            System.out.println("Seed "+r.seed+": "+r.finalCount+" of "+r.initialCount+" bodies left after "+r.mergeEvents+" merging steps"
+                    +"  largest: "+r.largestIdent+" ("+r.largestMass+" kg)  "+String.format("%.2f", r.seconds)+" s");
+        }
+
+        StringBuilder header = new StringBuilder("Bodies left at step:");
+        for (int k = 1; k <= samples; k++)
+        {
+            header.append(String.format("%8d", steps*k/samples));
+        }
+        System.out.println(header);
+        for (Result r : results)
+        {
+            StringBuilder line = new StringBuilder(String.format("  seed %-13d", r.seed));
+            for (int k = 1; k <= samples; k++)
+            {
+                line.append(String.format("%8d", r.countAt(steps*k/samples)));
+            }
+            System.out.println(line);
+        }
+
+        double[] counts = new double[results.length];
+        double[] masses = new double[results.length];
+        for (int k = 0; k < results.length; k++)
+        {
+            counts[k] = results[k].finalCount;
+            masses[k] = results[k].largestMass;
+        }
+        System.out.println("Final count:  "+spread(counts));
+        System.out.println("Largest mass: "+spread(masses));
+        System.out.println("Wall time: "+String.format("%.2f", seconds)+" s for "+String.format("%.2f", runSeconds)
+                +" s of runs ("+String.format("%.1f", runSeconds/seconds)+"x)");
+    }
+
+    /**Mean, standard deviation, minimum and maximum of some values, as text.*/
+    private static String spread(double[] values)
+    {
+        double sum = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (double v : values)
+        {
+            sum += v;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        double mean = sum/values.length;
+        double squares = 0;
+        for (double v : values)
+        {
+            squares += (v - mean)*(v - mean);
+        }
+        double sd = Math.sqrt(squares/values.length);
+        return "mean "+String.format("%.4g", mean)+"  sd "+String.format("%.4g", sd)+"  min "+String.format("%.4g", min)+"  max "+String.format("%.4g", max);
+    }
+
+    /**Writes one CSV line per run; the timeline lists step:bodiesLeft for every step on which bodies merged.*/
+    static void writeSummary(Result[] results, String path) throws IOException
+    {
+        try (PrintWriter w = new PrintWriter(new FileWriter(path)))
+        {
+            w.println("seed,initial,final,largestIdent,largestMass,seconds,timeline");
+            for (Result r : results)
+            {
+                StringBuilder timeline = new StringBuilder();
+                for (int k = 0; k < r.mergeEvents; k++)
+                {
+                    if (k > 0)
+                    {
+                        timeline.append(' ');
+                    }
+                    timeline.append(r.mergeSteps[k]).append(':').append(r.mergeCounts[k]);
+                }
+                w.println(r.seed+","+r.initialCount+","+r.finalCount+","+r.largestIdent+","+r.largestMass+","+r.seconds+","+timeline);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * A method of computing the gravitational acceleration of every body in a BodyStore.
+ * The integrators only consume the ax, ay and az arrays, so any engine can stand in for the direct sum.
+ */
+public interface ForceEngine
+{
+    /**Computes the acceleration of every live body in the store from the current positions,
+     * storing it in the store's ax, ay and az arrays, and the potential at each body, found in the same sum, in potential.
+     * @param bodies The store to update*/
+    void computeAccelerations(BodyStore bodies);
+
+    /**Computes the same accelerations as computeAccelerations(bodies), spreading the work over a pool of threads.
+     * Each body's sum must be formed in the same order whatever the number of threads, so the results are bit-identical.
+     * Engines that cannot run in parallel may keep this default, which runs on the calling thread.
+     * @param bodies The store to update
+     * @param workers The pool to run on*/
+    default void computeAccelerations(BodyStore bodies, WorkerPool workers)
+    {
+        computeAccelerations(bodies);
+    }
+
+    /**Whether the engine also computes the jerk into the store's jx, jy and jz when BodyStore.computeJerk is set,
+     * as HermiteIntegrator needs. Engines that only compute accelerations keep this default.*/
+    default boolean computesJerk()
+    {
+        return false;
+    }
+
+    /**Number of interactions (body with body, or body with tree cell) evaluated by the last call to computeAccelerations.*/
+    long getInteractionCount();
+}
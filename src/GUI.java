@@ -3,6 +3,8 @@
  */
 import javax.swing.*;
 import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * Created by Luke on 9/17/2014.
@@ -11,12 +13,17 @@ public class GUI extends JFrame
 {
     public GUI() {
 
-        initUI();
+        this(new SystemAnimator());
     }
 
-    private void initUI() {
+    public GUI(SystemAnimator animator) {
 
-        add(new SystemAnimator());
+        initUI(animator);
+    }
+
+    private void initUI(SystemAnimator animator) {
+
+        add(animator);
 
         setResizable(false);
         pack();
@@ -26,12 +33,15 @@ public class GUI extends JFrame
         setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
     }
 
-    public static void main(String[] args) {
+    /**Starts a simulation, or with --replay FILE [--speed S] replays a recording instead.*/
+    public static void main(String[] args) throws IOException {
 
+        final TrajectoryReader replay = args.length >= 2 && args[0].equals("--replay") ? new TrajectoryReader(Paths.get(args[1])) : null;
+        final double speed = args.length >= 4 && args[2].equals("--speed") ? Double.parseDouble(args[3]) : 1;
         EventQueue.invokeLater(new Runnable() {
             @Override
             public void run() {
-                JFrame ex = new GUI();
+                JFrame ex = replay != null ? new GUI(new SystemAnimator(replay, speed)) : new GUI();
                 ex.setVisible(true);
             }
         });
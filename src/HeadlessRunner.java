@@ -0,0 +1,451 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+
+/**
+ * Runs the simulation as fast as possible without the Swing animator, for servers and benchmarks.
+ * Swing and the AWT toolkit are never initialised. Progress is printed periodically, and a summary of the final state at the end.
+ * Usage: java HeadlessRunner [--steps N | --days D | --years Y] [--seed S] [--threads T]
+ *                            [--engine direct|tiled|symmetric|octree|auto] [--theta T] [--softening M] [--collisions grid|swept|brute|auto]
+ *                            [--auto-octree] [--auto-log FILE]
+ *                            [--integrator ab3|leapfrog|yoshida|hermite]
+ *                            [--report-seconds S] [--metrics LOG_SECONDS] [--record FILE] [--record-every N]
+ *                            [--restore FILE] [--checkpoint FILE] [--checkpoint-every N] [--out final.csv]
+ *                            [--block-levels L] [--eta E] [--merge-log FILE]
+ *                            [--conservation FILE] [--conservation-every N] [--max-drift D] [--stop-on-drift]
+ *                            [--scenario FILE] [--telemetry PORT] [--telemetry-fps F]
+ * With --scenario the bodies are loaded from a CSV or binary scenario file instead of the random system; see ScenarioLoader.
+ * With --restore the run continues from a checkpoint, and --steps counts the steps still to run.
+ * With --integrator the bodies are advanced by another method than the default Adams-Bashford start-up; see Integrator.
+ * hermite needs the direct or tiled engine, the only ones that compute the jerk. yoshida rounds the number of steps
+ * up to a multiple of 3. The summary and --out are of the state finished at the end of the last step; see Integrator.finish().
+ * With --block-levels each body steps by timeCompression/2^k for its own k up to L; see BlockTimeStepper.
+ * With --engine auto or --collisions auto the fastest engine or detector for the current number of bodies is chosen
+ * as the run goes on, and the choices are printed and, with --auto-log, written to a CSV file; see AutoTuner.
+ * auto only tries exact engines; --auto-octree also tries the octree at --theta.
+ * With --collisions swept bodies also merge if they pass through each other during a step; see SweptCollisions.
+ * With --telemetry the state is served to viewers on a loopback port, --telemetry-fps frames a second (default 30);
+ * see TelemetryServer.
+ * With --merge-log every merge is written to a CSV file; see MergeLog.
+ * With --conservation or --max-drift energy and momentum are sampled every N steps (default 10); see ConservationMonitor.
+ * A drift above --max-drift prints an alert, and with --stop-on-drift also ends the run.
+ */
+public class HeadlessRunner
+{
+    public static void main(String[] args) throws IOException
+    {
+        System.setProperty("java.awt.headless", "true");
+        long steps = 365*2;
+        double days = -1;
+        int seed = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String engine = "direct";
+        double theta = 0.5;
+        double softening = 0;
+        String collisions = "grid";
+        String integrator = "ab3";
+        boolean autoOctree = false;
+        String autoLog = null;
+        double reportSeconds = 5;
+        String out = null;
+        String scenario = null;
+        int telemetryPort = -1;
+        double telemetryFps = 30;
+        String mergeLog = null;
+        String conservation = null;
+        int conservationEvery = 10;
+        double maxDrift = -1;
+        boolean stopOnDrift = false;
+        double metricsSeconds = -1;
+        String record = null;
+        int recordEvery = 1;
+        String restore = null;
+        String checkpoint = null;
+        long checkpointEvery = 0;
+        int blockLevels = -1;
+        double eta = 0.01;
+        for (int a = 0; a < args.length; a++)
+        {
+            String arg = args[a];
+            if (arg.equals("--steps"))
+            {
+                steps = Long.parseLong(args[++a]);
+            }
+            else if (arg.equals("--days"))
+            {
+                days = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--years"))
+            {
+                days = Double.parseDouble(args[++a])*365;
+            }
+            else if (arg.equals("--seed"))
+            {
+                seed = Integer.parseInt(args[++a]);
+            }
+            else if (arg.equals("--threads"))
+            {
+                threads = Integer.parseInt(args[++a]);
+            }
+            else if (arg.equals("--engine"))
+            {
+                engine = args[++a];
+            }
+            else if (arg.equals("--theta"))
+            {
+                theta = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--softening"))
+            {
+                softening = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--collisions"))
+            {
+                collisions = args[++a];
+            }
+            else if (arg.equals("--integrator"))
+            {
+                integrator = args[++a];
+            }
+            else if (arg.equals("--auto-octree"))
+            {
+                autoOctree = true;
+            }
+            else if (arg.equals("--auto-log"))
+            {
+                autoLog = args[++a];
+            }
+            else if (arg.equals("--report-seconds"))
+            {
+                reportSeconds = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--metrics"))
+            {
+                metricsSeconds = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--record"))
+            {
+                record = args[++a];
+            }
+            else if (arg.equals("--record-every"))
+            {
+                recordEvery = Integer.parseInt(args[++a]);
+            }
+            else if (arg.equals("--restore"))
+            {
+                restore = args[++a];
+            }
+            else if (arg.equals("--checkpoint"))
+            {
+                checkpoint = args[++a];
+            }
+            else if (arg.equals("--checkpoint-every"))
+            {
+                checkpointEvery = Long.parseLong(args[++a]);
+            }
+            else if (arg.equals("--block-levels"))
+            {
+                blockLevels = Integer.parseInt(args[++a]);
+            }
+            else if (arg.equals("--eta"))
+            {
+                eta = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--merge-log"))
+            {
+                mergeLog = args[++a];
+            }
+            else if (arg.equals("--conservation"))
+            {
+                conservation = args[++a];
+            }
+            else if (arg.equals("--conservation-every"))
+            {
+                conservationEvery = Integer.parseInt(args[++a]);
+            }
+            else if (arg.equals("--max-drift"))
+            {
+                maxDrift = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--stop-on-drift"))
+            {
+                stopOnDrift = true;
+            }
+            else if (arg.equals("--telemetry"))
+            {
+                telemetryPort = Integer.parseInt(args[++a]);
+            }
+            else if (arg.equals("--telemetry-fps"))
+            {
+                telemetryFps = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--scenario"))
+            {
+                scenario = args[++a];
+            }
+            else if (arg.equals("--out"))
+            {
+                out = args[++a];
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unknown option: "+arg);
+            }
+        }
+
+        SystemSimulator sim;
+        if (scenario != null)
+        {
+            long loadStart = System.nanoTime();
+            sim = new SystemSimulator(Paths.get(scenario));
+            System.out.println("Loaded "+sim.bodies.count+" bodies from "+scenario+" in "+String.format("%.2f", (System.nanoTime() - loadStart)/1e9)+" s");
+        }
+        else
+        {
+            sim = new SystemSimulator(seed);
+        }
+        if (blockLevels >= 0)
+        {
+            //Chosen before restoring so that a checkpoint's own step levels and history are kept
+            sim.setBlockStepper(new BlockTimeStepper(blockLevels, eta));
+        }
+        if (restore != null)
+        {
+            sim.restoreCheckpoint(Paths.get(restore));
+            System.out.println("Restored "+restore+" at step "+sim.getStepCount());
+        }
+        if (days >= 0)
+        {
+            steps = (long) Math.ceil(days*86400/sim.timeCompression);
+        }
+        AutoTuner tuner = null;
+        if (engine.equals("auto") || collisions.equals("auto"))
+        {
+            if (softening > 0 && engine.equals("auto"))
+            {
+                throw new IllegalArgumentException("--engine auto only compares unsoftened engines");
+            }
+            tuner = new AutoTuner(sim, autoLog, autoOctree ? theta : 0);
+        }
+        sim.forceEngine = engine.equals("auto") ? tuner.forceEngine : createEngine(engine, theta, softening);
+        sim.collisionDetector = collisions.equals("auto") ? tuner.collisionDetector : createCollisions(collisions);
+        sim.integrator = createIntegrator(integrator);
+        long requested = steps;
+        steps = wholeSteps(sim, steps);
+        if (steps != requested)
+        {
+            System.out.println("Running "+steps+" steps instead of "+requested+", to end on a whole step of "+integrator);
+        }
+        sim.setThreads(threads);
+        if (metricsSeconds >= 0)
+        {
+            sim.enableMetrics(metricsSeconds);
+        }
+        if (record != null)
+        {
+            sim.recorder = new TrajectoryRecorder(Paths.get(record), recordEvery, sim);
+            sim.recorder.record(sim.bodies, sim.getStepCount());
+        }
+        if (mergeLog != null)
+        {
+            sim.bodies.mergeLog = new MergeLog(mergeLog);
+        }
+        if (telemetryPort >= 0)
+        {
+            sim.telemetry = new TelemetryServer(telemetryPort, telemetryFps, sim.spaceCompression/16);
+            System.out.println("Serving telemetry on port "+sim.telemetry.getPort());
+        }
+        if (conservation != null || maxDrift > 0)
+        {
+            sim.conservation = new ConservationMonitor(conservation, conservationEvery);
+            sim.conservation.limit = maxDrift;
+            sim.conservation.stopOnDrift = stopOnDrift;
+        }
+        System.out.println("Bodies: "+sim.bodies.count+"  steps: "+steps+"  engine: "+engine+"  threads: "+threads);
+
+        long start = System.nanoTime();
+        long lastReport = start;
+        long lastStep = 0;
+        long reportInterval = (long) (reportSeconds*1e9);
+        for (long step = 1; step <= steps; step++)
+        {
+            sim.updateSystem();
+            if (checkpoint != null && checkpointEvery > 0 && step % checkpointEvery == 0)
+            {
+                sim.saveCheckpoint(Paths.get(checkpoint));
+            }
+            long now = System.nanoTime();
+            if (now - lastReport >= reportInterval)
+            {
+                double rate = (step - lastStep)/((now - lastReport)/1e9);
+                System.out.println("Step "+step+"/"+steps+"  steps/sec: "+String.format("%.1f", rate)+"  bodies: "+sim.bodies.count);
+                lastReport = now;
+                lastStep = step;
+            }
+            if (sim.conservation != null && sim.conservation.isStopped())
+            {
+                System.out.println("Stopped at step "+step+": conservation drift above "+maxDrift);
+                steps = step;
+                break;
+            }
+        }
+        double seconds = (System.nanoTime() - start)/1e9;
+        sim.setThreads(1);
+        if (checkpoint != null)
+        {
+            sim.saveCheckpoint(Paths.get(checkpoint));
+            System.out.println("Checkpoint written to "+checkpoint);
+        }
+        if (sim.recorder != null)
+        {
+            System.out.println("Recorded "+sim.recorder.getFrameCount()+" frames to "+record);
+            sim.recorder.close();
+        }
+        if (sim.conservation != null)
+        {
+            System.out.println("Energy drift: "+String.format("%.3g", sim.conservation.getEnergyDrift())
+                    +"  momentum drift: "+String.format("%.3g", sim.conservation.getMomentumDrift())
+                    +"  angular momentum drift: "+String.format("%.3g", sim.conservation.getAngularMomentumDrift())
+                    +" (step "+sim.conservation.getLastStep()+")");
+            sim.conservation.close();
+            if (conservation != null)
+            {
+                System.out.println("Conservation samples written to "+conservation);
+            }
+        }
+        if (sim.telemetry != null)
+        {
+            System.out.println("Telemetry: "+sim.telemetry.getFramesSent()+" frames, "+sim.telemetry.getBytesSent()+" bytes sent, "
+                    +sim.telemetry.getFramesDropped()+" dropped for slow viewers");
+            sim.telemetry.close();
+        }
+        if (tuner != null)
+        {
+            System.out.println("Auto-tune: "+tuner.getTuneCount()+" rounds, ending with"
+                    +(engine.equals("auto") ? " engine "+tuner.getEngine() : "")
+                    +(collisions.equals("auto") ? " collisions "+tuner.getDetector() : "")
+                    +(autoLog != null ? "; logged to "+autoLog : ""));
+            tuner.close();
+        }
+        if (sim.bodies.mergeLog != null)
+        {
+            System.out.println("Logged "+sim.bodies.mergeLog.getMergeCount()+" merges to "+mergeLog);
+            sim.bodies.mergeLog.close();
+        }
+
+        BodyStore finished = sim.finishedBodies();
+        printSummary(sim, finished, steps, seconds);
+        if (out != null)
+        {
+            writeState(finished, out);
+            System.out.println("Final state written to "+out);
+        }
+    }
+
+    static ForceEngine createEngine(String name, double theta, double softening)
+    {
+        if (name.equals("direct"))
+        {
+            return new DirectForceEngine();
+        }
+        else if (name.equals("tiled"))
+        {
+            return TiledForceEngine.create();
+        }
+        else if (name.equals("symmetric"))
+        {
+            return new SymmetricForceEngine(softening);
+        }
+        else if (name.equals("octree"))
+        {
+            return new OctreeForceEngine(theta);
+        }
+        throw new IllegalArgumentException("Unknown force engine: "+name);
+    }
+
+    static CollisionDetector createCollisions(String name)
+    {
+        if (name.equals("grid"))
+        {
+            return new CollisionGrid();
+        }
+        else if (name.equals("swept"))
+        {
+            return new SweptCollisions();
+        }
+        else if (name.equals("brute"))
+        {
+            return new BruteForceCollisions();
+        }
+        throw new IllegalArgumentException("Unknown collision detector: "+name);
+    }
+
+    static Integrator createIntegrator(String name)
+    {
+        if (name.equals("ab3"))
+        {
+            return new AdamsBashforthIntegrator();
+        }
+        else if (name.equals("leapfrog"))
+        {
+            return new LeapfrogIntegrator();
+        }
+        else if (name.equals("yoshida"))
+        {
+            return new YoshidaIntegrator();
+        }
+        else if (name.equals("hermite"))
+        {
+            return new HermiteIntegrator();
+        }
+        throw new IllegalArgumentException("Unknown integrator: "+name);
+    }
+
+    /**Prints a summary of a finished run.
+     * @param b The bodies at the end, as returned by sim.finishedBodies()*/
+    static void printSummary(SystemSimulator sim, BodyStore b, long steps, double seconds)
+    {
+        double totalMass = 0, largest = 0, px = 0, py = 0, pz = 0;
+        String largestIdent = "";
+        for (int i = 0; i < b.count; i++)
+        {
+            totalMass += b.mass[i];
+            px += b.mass[i]*b.vx[i];
+            py += b.mass[i]*b.vy[i];
+            pz += b.mass[i]*b.vz[i];
+            if (b.mass[i] > largest)
+            {
+                largest = b.mass[i];
+                largestIdent = b.ident[i];
+            }
+        }
+        System.out.println("Steps: "+steps+"  simulated days: "+(sim.getStepCount()*sim.timeCompression/86400));
+        System.out.println("Wall time: "+String.format("%.2f", seconds)+" s  steps/sec: "+String.format("%.1f", steps/seconds));
+        System.out.println("Bodies remaining: "+b.count+" of "+b.initNumBodies);
+        System.out.println("Total mass: "+totalMass+" kg  largest: "+largestIdent+" ("+largest+" kg)");
+        System.out.println("Total momentum: "+new Vector3D(px, py, pz));
+    }
+
+    /**Rounds a number of steps up so that the run ends on a whole step of the simulator's integrator,
+     * counting from the steps already taken; see Integrator.stepMultiple().*/
+    static long wholeSteps(SystemSimulator sim, long steps)
+    {
+        long multiple = sim.integrator.stepMultiple();
+        long end = sim.getStepCount() + steps;
+        return (end + multiple - 1)/multiple*multiple - sim.getStepCount();
+    }
+
+    /**Writes one CSV line per remaining body.*/
+    static void writeState(BodyStore b, String path) throws IOException
+    {
+        try (PrintWriter w = new PrintWriter(new FileWriter(path)))
+        {
+            w.println("ident,mass,size,x,y,z,vx,vy,vz,color");
+            for (int i = 0; i < b.count; i++)
+            {
+                w.println(b.ident[i]+","+b.mass[i]+","+b.size[i]+","+b.x[i]+","+b.y[i]+","+b.z[i]+","+b.vx[i]+","+b.vy[i]+","+b.vz[i]+","+String.format("#%06x", b.color[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * The 4th order Hermite predictor-corrector used by collisional N-body codes, in its PEC form with one force evaluation per step.
+ * advance() predicts each body's position and velocity from its acceleration and jerk by Taylor series; the next force
+ * pass evaluates the acceleration and jerk at the predicted state, and forcesReady() corrects the step with them:
+ * <pre>
+ * v1 = v0 + (a0 + a1) dt/2 + (j0 - j1) dt^2/12
+ * x1 = x0 + (v0 + v1) dt/2 + (a0 - a1) dt^2/12
+ * </pre>
+ * The accelerations at the predicted state then start the next step. The state at the start of a step is kept in the
+ * history columns, so checkpoints carry it: a0 in ax1, j0 in ax2, v0 in vx1 and x0 in vx2, with their y and z counterparts.
+ * Needs an engine that computes the jerk; see ForceEngine.computesJerk(). Between steps the bodies are at their predicted
+ * state, corrected only in the copy returned by SystemSimulator.finishedBodies(), and a body merged during a step
+ * starts again from its merged state uncorrected.
+ */
+public class HermiteIntegrator implements Integrator
+{
+    public boolean needsJerk()
+    {
+        return true;
+    }
+
+    /**The bodies are at their predicted state between steps; finish() corrects it.*/
+    public boolean needsFinish()
+    {
+        return true;
+    }
+
+    public void forcesReady(BodyStore s, int step, double dt)
+    {
+        if (step > 0)
+        {
+            double half = 0.5*dt;
+            double c = dt*dt/12;
+            for (int i = 0; i < s.count; i++)
+            {
+                if (s.accelPending[i])
+                {
+                    continue;
+                }
+                double vx = s.vx1[i] + (s.ax1[i] + s.ax[i])*half + (s.ax2[i] - s.jx[i])*c;
+                double vy = s.vy1[i] + (s.ay1[i] + s.ay[i])*half + (s.ay2[i] - s.jy[i])*c;
+                double vz = s.vz1[i] + (s.az1[i] + s.az[i])*half + (s.az2[i] - s.jz[i])*c;
+                s.x[i] = s.vx2[i] + (s.vx1[i] + vx)*half + (s.ax1[i] - s.ax[i])*c;
+                s.y[i] = s.vy2[i] + (s.vy1[i] + vy)*half + (s.ay1[i] - s.ay[i])*c;
+                s.z[i] = s.vz2[i] + (s.vz1[i] + vz)*half + (s.az1[i] - s.az[i])*c;
+                s.vx[i] = vx;
+                s.vy[i] = vy;
+                s.vz[i] = vz;
+            }
+        }
+        s.clearPendingAccelerations();
+    }
+
+    public void advance(BodyStore s, int i, int step, double dt)
+    {
+        double half = 0.5*dt*dt;
+        double sixth = dt*dt*dt/6;
+        s.ax1[i] = s.ax[i];
+        s.ay1[i] = s.ay[i];
+        s.az1[i] = s.az[i];
+        s.ax2[i] = s.jx[i];
+        s.ay2[i] = s.jy[i];
+        s.az2[i] = s.jz[i];
+        s.vx1[i] = s.vx[i];
+        s.vy1[i] = s.vy[i];
+        s.vz1[i] = s.vz[i];
+        s.vx2[i] = s.x[i];
+        s.vy2[i] = s.y[i];
+        s.vz2[i] = s.z[i];
+        s.x[i] += s.vx[i]*dt + s.ax[i]*half + s.jx[i]*sixth;
+        s.y[i] += s.vy[i]*dt + s.ay[i]*half + s.jy[i]*sixth;
+        s.z[i] += s.vz[i]*dt + s.az[i]*half + s.jz[i]*sixth;
+        s.vx[i] += s.ax[i]*dt + s.jx[i]*half;
+        s.vy[i] += s.ay[i]*dt + s.jy[i]*half;
+        s.vz[i] += s.az[i]*dt + s.jz[i]*half;
+    }
+}
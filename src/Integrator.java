@@ -0,0 +1,55 @@
+/**
+ * A method of advancing every body by one step from the accelerations of a single force pass.
+ * Each step SystemSimulator.updateSystem() runs the force engine once, calls forcesReady(), samples conservation,
+ * then calls advance() for every body, so no method evaluates the forces more than once per step.
+ * The history columns of the store (ax1 to az3 and vx1 to vz3) belong to the integrator, and are saved in checkpoints
+ * and carried between processes with the rest of a body's state. Integrators do not share them, so one is best chosen
+ * before the run starts and kept.
+ */
+public interface Integrator
+{
+    /**Whether the force pass must also compute the jerk, the rate of change of acceleration, into the store's jx, jy and jz.
+     * Only engines whose computesJerk() is true can drive such an integrator.*/
+    default boolean needsJerk()
+    {
+        return false;
+    }
+
+    /**Called once per step on the simulating thread, after the force pass and before any body is advanced.
+     * Completes whatever of the previous step needs the new accelerations, and handles the bodies marked by
+     * BodyStore.invalidateAccel() after a merge, leaving the store's positions and velocities describing the same instant.
+     * @param step Number of steps taken so far
+     * @param dt Length of a step in seconds*/
+    void forcesReady(BodyStore bodies, int step, double dt);
+
+    /**Number of steps that make up one whole step of the method; the state is only a solution of the method after a
+     * multiple of it. SystemSimulator resolves collisions, samples conservation and publishes only after such a
+     * multiple, and runs should end on one.*/
+    default int stepMultiple()
+    {
+        return 1;
+    }
+
+    /**Whether between steps the positions and velocities describe different instants, so that finish() must be applied
+     * before the state is summarised or written out.*/
+    default boolean needsFinish()
+    {
+        return false;
+    }
+
+    /**Completes the last step without starting another, on a copy of the store whose accelerations (and jerk, when
+     * needsJerk()) have just been computed at its current positions, leaving the positions and velocities at one instant.
+     * The live store is left as it is, since the next step completes the last one itself.
+     * @param step Number of steps taken so far
+     * @param dt Length of a step in seconds*/
+    default void finish(BodyStore bodies, int step, double dt)
+    {
+        forcesReady(bodies, step, dt);
+    }
+
+    /**Advances one body by one step. Called for every slot, possibly on several threads at once,
+     * so it may touch only slot i of the store.
+     * @param step Number of steps taken so far
+     * @param dt Length of a step in seconds*/
+    void advance(BodyStore bodies, int i, int step, double dt);
+}
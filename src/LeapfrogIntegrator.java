@@ -0,0 +1,52 @@
+/**
+ * Kick-drift-kick leapfrog, a 2nd order symplectic method: energy errors stay bounded instead of growing over long orbits,
+ * so much larger steps remain stable than with the Adams-Bashford methods.
+ * A step is half a kick with the accelerations at the start, a drift with the new velocities, and half a kick with the
+ * accelerations at the end. The closing half kick of each step is the first thing done with the next step's force pass,
+ * in forcesReady(), so one force evaluation serves both; between steps the velocities are therefore half a kick ahead
+ * of the positions, and only between the force pass and advance() (where conservation is sampled), or in the copy
+ * returned by SystemSimulator.finishedBodies(), do they describe the same instant.
+ * No history is kept, so a merged body needs nothing rebuilt.
+ */
+public class LeapfrogIntegrator implements Integrator
+{
+    /**The velocities are half a kick ahead between steps; finish() gives them the closing half kick.*/
+    public boolean needsFinish()
+    {
+        return true;
+    }
+
+    public void forcesReady(BodyStore bodies, int step, double dt)
+    {
+        bodies.clearPendingAccelerations();
+        if (step == 0)
+        {
+            return;
+        }
+        double half = 0.5*substep(step-1, dt);
+        for (int i = 0; i < bodies.count; i++)
+        {
+            bodies.vx[i] += bodies.ax[i]*half;
+            bodies.vy[i] += bodies.ay[i]*half;
+            bodies.vz[i] += bodies.az[i]*half;
+        }
+    }
+
+    public void advance(BodyStore s, int i, int step, double dt)
+    {
+        double h = substep(step, dt);
+        double half = 0.5*h;
+        s.vx[i] += s.ax[i]*half;
+        s.vy[i] += s.ay[i]*half;
+        s.vz[i] += s.az[i]*half;
+        s.x[i] += s.vx[i]*h;
+        s.y[i] += s.vy[i]*h;
+        s.z[i] += s.vz[i]*h;
+    }
+
+    /**Length in seconds of the given step; every step is dt long unless a subclass composes steps of other lengths.*/
+    protected double substep(int step, double dt)
+    {
+        return dt;
+    }
+}
@@ -0,0 +1,114 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Writes one CSV line for every merge, so accretion can be studied after a run without re-running it.
+ * <pre>
+ * step,survivor,absorbed,survivorMass,absorbedMass,mergedMass
+ * </pre>
+ * step is the step the merge happened in, counted as SystemSimulator.getStepCount() reports it once that step is done.
+ * survivor and absorbed are permanent body ids, the survivor always the lower; the masses are in kg, from just before the merge.
+ * The step and ids of every merge are also kept in memory, for comparing runs; there are fewer merges than bodies.
+ */
+public class MergeLog
+{
+    /**Destination of the lines; null to keep the merges in memory only*/
+    private final PrintWriter out;
+    private long step;
+    private int merges;
+    private long[] steps = new long[64];
+    private int[] survivors = new int[64];
+    private int[] absorbed = new int[64];
+
+    /**Creates or overwrites a log.
+     * @param path The file to write, or null to keep the merges in memory only*/
+    public MergeLog(String path) throws IOException
+    {
+        if (path != null)
+        {
+            out = new PrintWriter(new BufferedWriter(new FileWriter(path), 1 << 16));
+            out.println("step,survivor,absorbed,survivorMass,absorbedMass,mergedMass");
+        }
+        else
+        {
+            out = null;
+        }
+    }
+
+    /**Sets the step that following merges are recorded against. Called by the simulation before resolving collisions.*/
+    public void beginStep(long step)
+    {
+        this.step = step;
+    }
+
+    /**Records a body absorbing another. Called by Body.merge() before either mass changes.*/
+    public void merged(int survivor, int absorbed, double survivorMass, double absorbedMass)
+    {
+        if (out != null)
+        {
+            out.print(step);
+            out.print(',');
+            out.print(survivor);
+            out.print(',');
+            out.print(absorbed);
+            out.print(',');
+            out.print(survivorMass);
+            out.print(',');
+            out.print(absorbedMass);
+            out.print(',');
+            out.println(survivorMass + absorbedMass);
+        }
+        if (merges == steps.length)
+        {
+            steps = Arrays.copyOf(steps, merges*2);
+            survivors = Arrays.copyOf(survivors, merges*2);
+            this.absorbed = Arrays.copyOf(this.absorbed, merges*2);
+        }
+        steps[merges] = step;
+        survivors[merges] = survivor;
+        this.absorbed[merges] = absorbed;
+        merges++;
+    }
+
+    /**Number of merges recorded so far*/
+    public long getMergeCount()
+    {
+        return merges;
+    }
+
+    /**Step of the k-th merge*/
+    public long getStep(int k)
+    {
+        return steps[k];
+    }
+
+    /**Id of the body that survived the k-th merge*/
+    public int getSurvivor(int k)
+    {
+        return survivors[k];
+    }
+
+    /**Id of the body absorbed in the k-th merge*/
+    public int getAbsorbed(int k)
+    {
+        return absorbed[k];
+    }
+
+    /**Flushes and closes the log.
+     * @throws IOException If any line could not be written*/
+    public void close() throws IOException
+    {
+        if (out == null)
+        {
+            return;
+        }
+        out.close();
+        if (out.checkError())
+        {
+            throw new IOException("Merge log could not be written");
+        }
+    }
+}
@@ -0,0 +1,467 @@
+import java.util.Arrays;
+
+/**
+ * Barnes-Hut gravity: bodies are sorted into an octree rebuilt once per step, and distant groups of bodies
+ * are replaced by a single point mass at their center of mass. Costs O(N log N) per step instead of O(N^2).
+ * The tree is held in flat arrays that are reused between steps, so rebuilding it allocates nothing once warmed up.
+ */
+public class OctreeForceEngine implements ForceEngine
+{
+    /**Cells are never split below this depth; coincident bodies share a leaf instead*/
+    private static final int MAX_DEPTH = 48;
+
+    /**Opening angle; a cell is treated as a point mass when its width divided by its distance is below this.
+     * 0 reproduces direct summation, 0.5 is a common compromise, larger values are faster and less accurate.*/
+    private double theta;
+    private double thetaSq;
+
+    private int nodeCount;
+    /**Geometric center and half-width of each cell*/
+    private double[] cx, cy, cz, half;
+    /**Total mass and center of mass of the bodies in each cell*/
+    private double[] nodeMass, comX, comY, comZ;
+    /**Index of the first of 8 consecutive children, or -1 for a leaf*/
+    private int[] firstChild;
+    /**Head of the list of bodies held by a leaf, or -1*/
+    private int[] firstBody;
+    private int[] depth;
+    /**Links the bodies sharing a leaf, indexed by body slot*/
+    private int[] nextBody = new int[0];
+    /**Traversal stack for the force walk*/
+    private final int[] stack = new int[8*(MAX_DEPTH+1)];
+    /**One traversal stack per worker thread for parallel walks*/
+    private int[][] workerStacks = new int[0][];
+    /**Interactions counted by each worker, spaced out to keep workers off each other's cache lines*/
+    private long[] workerInteractions = new long[0];
+    private long interactions;
+    private BodyStore target;
+    private final WorkerPool.RangeTask walkTask = new WorkerPool.RangeTask() {
+        @Override
+        public void run(int from, int to, int worker) {
+            long counted = 0;
+            for (int i = from; i < to; i++)
+            {
+                counted += acceleration(target, i, workerStacks[worker]);
+            }
+            workerInteractions[worker*8] += counted;
+        }
+    };
+
+    /**Creates an engine with the given opening angle.
+     * @param openingAngle The opening angle theta*/
+    public OctreeForceEngine(double openingAngle)
+    {
+        setTheta(openingAngle);
+        allocate(64);
+    }
+
+    public double getTheta()
+    {
+        return theta;
+    }
+
+    public void setTheta(double openingAngle)
+    {
+        theta = openingAngle;
+        thetaSq = openingAngle*openingAngle;
+    }
+
+    /**Number of cells in the most recently built tree*/
+    public int getNodeCount()
+    {
+        return nodeCount;
+    }
+
+    public void computeAccelerations(BodyStore bodies)
+    {
+        build(bodies);
+        long counted = 0;
+        for (int i = 0; i < bodies.count; i++)
+        {
+            counted += acceleration(bodies, i, stack);
+        }
+        interactions = counted;
+    }
+
+    /**Builds the tree on the calling thread, then walks it for each body in parallel.*/
+    public void computeAccelerations(BodyStore bodies, WorkerPool workers)
+    {
+        build(bodies);
+        if (workerStacks.length < workers.size())
+        {
+            workerStacks = new int[workers.size()][8*(MAX_DEPTH+1)];
+            workerInteractions = new long[workers.size()*8];
+        }
+        Arrays.fill(workerInteractions, 0);
+        target = bodies;
+        workers.forEach(bodies.count, walkTask);
+        target = null;
+        interactions = 0;
+        for (int k = 0; k < workerInteractions.length; k += 8)
+        {
+            interactions += workerInteractions[k];
+        }
+    }
+
+    public long getInteractionCount()
+    {
+        return interactions;
+    }
+
+    /**Rebuilds the tree over the current positions of the live bodies in the store.*/
+    public void build(BodyStore bodies)
+    {
+        nodeCount = 0;
+        if (nextBody.length < bodies.count)
+        {
+            nextBody = new int[bodies.mass.length];
+        }
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                minX = Math.min(minX, bodies.x[i]);
+                minY = Math.min(minY, bodies.y[i]);
+                minZ = Math.min(minZ, bodies.z[i]);
+                maxX = Math.max(maxX, bodies.x[i]);
+                maxY = Math.max(maxY, bodies.y[i]);
+                maxZ = Math.max(maxZ, bodies.z[i]);
+            }
+        }
+        if (minX > maxX)
+        {
+            return;
+        }
+        double width = Math.max(maxX-minX, Math.max(maxY-minY, maxZ-minZ));
+        //Pad slightly so bodies on the upper faces still fall strictly inside the root
+        double h = width*0.5*1.0001 + 1;
+        newNode((minX+maxX)/2, (minY+maxY)/2, (minZ+maxZ)/2, h, 0);
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                insert(bodies, i);
+            }
+        }
+        summarize(bodies);
+    }
+
+    private void insert(BodyStore bodies, int i)
+    {
+        int n = 0;
+        while (true)
+        {
+            if (firstChild[n] >= 0)
+            {
+                n = firstChild[n] + octant(n, bodies.x[i], bodies.y[i], bodies.z[i]);
+                continue;
+            }
+            if (firstBody[n] < 0 || depth[n] >= MAX_DEPTH)
+            {
+                nextBody[i] = firstBody[n];
+                firstBody[n] = i;
+                return;
+            }
+            //An occupied leaf above the depth limit holds exactly one body; push it down a level
+            int existing = firstBody[n];
+            firstBody[n] = -1;
+            split(n);
+            int c = firstChild[n] + octant(n, bodies.x[existing], bodies.y[existing], bodies.z[existing]);
+            nextBody[existing] = -1;
+            firstBody[c] = existing;
+            n = firstChild[n] + octant(n, bodies.x[i], bodies.y[i], bodies.z[i]);
+        }
+    }
+
+    private int octant(int n, double px, double py, double pz)
+    {
+        return (px >= cx[n] ? 1 : 0) | (py >= cy[n] ? 2 : 0) | (pz >= cz[n] ? 4 : 0);
+    }
+
+    private void split(int n)
+    {
+        double h = half[n]/2;
+        int first = nodeCount;
+        for (int oct = 0; oct < 8; oct++)
+        {
+            newNode(cx[n] + ((oct & 1) != 0 ? h : -h), cy[n] + ((oct & 2) != 0 ? h : -h), cz[n] + ((oct & 4) != 0 ? h : -h), h, depth[n]+1);
+        }
+        firstChild[n] = first;
+    }
+
+    private int newNode(double x, double y, double z, double h, int d)
+    {
+        if (nodeCount == cx.length)
+        {
+            grow(nodeCount*2);
+        }
+        int n = nodeCount++;
+        cx[n] = x;
+        cy[n] = y;
+        cz[n] = z;
+        half[n] = h;
+        depth[n] = d;
+        firstChild[n] = -1;
+        firstBody[n] = -1;
+        return n;
+    }
+
+    /**Fills in the mass and center of mass of every cell. Children are always created after their parent,
+     * so walking the cells backwards visits every child before its parent.*/
+    private void summarize(BodyStore bodies)
+    {
+        for (int n = nodeCount-1; n >= 0; n--)
+        {
+            double m = 0, mx = 0, my = 0, mz = 0;
+            if (firstChild[n] < 0)
+            {
+                for (int b = firstBody[n]; b >= 0; b = nextBody[b])
+                {
+                    m += bodies.mass[b];
+                    mx += bodies.mass[b]*bodies.x[b];
+                    my += bodies.mass[b]*bodies.y[b];
+                    mz += bodies.mass[b]*bodies.z[b];
+                }
+            }
+            else
+            {
+                for (int c = firstChild[n]; c < firstChild[n]+8; c++)
+                {
+                    m += nodeMass[c];
+                    mx += nodeMass[c]*comX[c];
+                    my += nodeMass[c]*comY[c];
+                    mz += nodeMass[c]*comZ[c];
+                }
+            }
+            nodeMass[n] = m;
+            if (m > 0)
+            {
+                comX[n] = mx/m;
+                comY[n] = my/m;
+                comZ[n] = mz/m;
+            }
+        }
+    }
+
+    /**Walks the tree for one body, storing its acceleration in the store's ax, ay and az and its potential in potential.
+     * The tree must have been built for the current positions.
+     * @param bodies The store the tree was built over
+     * @param i The slot of the body
+     * @param stack Scratch space for the walk, at least 8*(MAX_DEPTH+1) long
+     * @return The number of bodies and cells the body interacted with*/
+    int acceleration(BodyStore bodies, int i, int[] stack)
+    {
+        double sumX = 0, sumY = 0, sumZ = 0, sumP = 0;
+        int interactions = 0;
+        if (!bodies.removed[i] && nodeCount > 0)
+        {
+            double G = bodies.G;
+            double xi = bodies.x[i], yi = bodies.y[i], zi = bodies.z[i];
+            int sp = 0;
+            stack[sp++] = 0;
+            while (sp > 0)
+            {
+                int n = stack[--sp];
+                if (nodeMass[n] == 0)
+                {
+                    continue;
+                }
+                if (firstChild[n] < 0)
+                {
+                    for (int b = firstBody[n]; b >= 0; b = nextBody[b])
+                    {
+                        if (b != i)
+                        {
+                            double dx = xi - bodies.x[b];
+                            double dy = yi - bodies.y[b];
+                            double dz = zi - bodies.z[b];
+                            double distSq = dx*dx + dy*dy + dz*dz;
+                            double scale = -G*bodies.mass[b]/(distSq*Math.sqrt(distSq));
+                            sumX += dx*scale;
+                            sumY += dy*scale;
+                            sumZ += dz*scale;
+                            sumP += distSq*scale;
+                            interactions++;
+                        }
+                    }
+                    continue;
+                }
+                double dx = xi - comX[n];
+                double dy = yi - comY[n];
+                double dz = zi - comZ[n];
+                double distSq = dx*dx + dy*dy + dz*dz;
+                double width = 2*half[n];
+                boolean inside = Math.abs(xi-cx[n]) <= half[n] && Math.abs(yi-cy[n]) <= half[n] && Math.abs(zi-cz[n]) <= half[n];
+                if (!inside && width*width < thetaSq*distSq)
+                {
+                    double scale = -G*nodeMass[n]/(distSq*Math.sqrt(distSq));
+                    sumX += dx*scale;
+                    sumY += dy*scale;
+                    sumZ += dz*scale;
+                    sumP += distSq*scale;
+                    interactions++;
+                }
+                else
+                {
+                    for (int c = firstChild[n]; c < firstChild[n]+8; c++)
+                    {
+                        stack[sp++] = c;
+                    }
+                }
+            }
+        }
+        bodies.ax[i] = sumX;
+        bodies.ay[i] = sumY;
+        bodies.az[i] = sumZ;
+        bodies.potential[i] = sumP;
+        return interactions;
+    }
+
+    /**Lists the point masses that stand in for the whole tree as seen from anywhere inside a box, for a process that
+     * holds the bodies in that box but not these: a cell's center of mass wherever the cell would pass the opening test
+     * for every point of the box, and the bodies themselves elsewhere. With theta 0 every body is listed.
+     * The tree must have been built with build().
+     * @param out Receives the point masses
+     * @return The number of point masses added*/
+    public int essentialMasses(BodyStore bodies, double minX, double minY, double minZ, double maxX, double maxY, double maxZ, PointMasses out)
+    {
+        int before = out.count;
+        if (nodeCount == 0)
+        {
+            return 0;
+        }
+        int sp = 0;
+        stack[sp++] = 0;
+        while (sp > 0)
+        {
+            int n = stack[--sp];
+            if (nodeMass[n] == 0)
+            {
+                continue;
+            }
+            if (firstChild[n] < 0)
+            {
+                for (int b = firstBody[n]; b >= 0; b = nextBody[b])
+                {
+                    out.add(bodies.x[b], bodies.y[b], bodies.z[b], bodies.mass[b]);
+                }
+                continue;
+            }
+            //Distance from the center of mass to the nearest point of the box
+            double dx = Math.max(0, Math.max(minX - comX[n], comX[n] - maxX));
+            double dy = Math.max(0, Math.max(minY - comY[n], comY[n] - maxY));
+            double dz = Math.max(0, Math.max(minZ - comZ[n], comZ[n] - maxZ));
+            double distSq = dx*dx + dy*dy + dz*dz;
+            double width = 2*half[n];
+            boolean overlaps = cx[n] + half[n] >= minX && cx[n] - half[n] <= maxX && cy[n] + half[n] >= minY && cy[n] - half[n] <= maxY
+                    && cz[n] + half[n] >= minZ && cz[n] - half[n] <= maxZ;
+            if (!overlaps && width*width < thetaSq*distSq)
+            {
+                out.add(comX[n], comY[n], comZ[n], nodeMass[n]);
+            }
+            else
+            {
+                for (int c = firstChild[n]; c < firstChild[n]+8; c++)
+                {
+                    stack[sp++] = c;
+                }
+            }
+        }
+        return out.count - before;
+    }
+
+    /**Measures how far this engine's accelerations are from direct summation for the current positions.
+     * Leaves the direct-sum accelerations in the store's ax, ay and az.
+     * @return The RMS and the maximum of |a_tree - a_direct| / |a_direct| over the live bodies*/
+    public double[] errorAgainstDirect(BodyStore bodies)
+    {
+        computeAccelerations(bodies);
+        double[] treeX = Arrays.copyOf(bodies.ax, bodies.count);
+        double[] treeY = Arrays.copyOf(bodies.ay, bodies.count);
+        double[] treeZ = Arrays.copyOf(bodies.az, bodies.count);
+        new DirectForceEngine().computeAccelerations(bodies);
+        double sumSq = 0, max = 0;
+        int n = 0;
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (bodies.removed[i])
+            {
+                continue;
+            }
+            double ex = treeX[i]-bodies.ax[i], ey = treeY[i]-bodies.ay[i], ez = treeZ[i]-bodies.az[i];
+            double ref = bodies.ax[i]*bodies.ax[i] + bodies.ay[i]*bodies.ay[i] + bodies.az[i]*bodies.az[i];
+            if (ref == 0)
+            {
+                continue;
+            }
+            double rel = Math.sqrt((ex*ex + ey*ey + ez*ez)/ref);
+            sumSq += rel*rel;
+            max = Math.max(max, rel);
+            n++;
+        }
+        return new double[]{n > 0 ? Math.sqrt(sumSq/n) : 0, max};
+    }
+
+    private void allocate(int capacity)
+    {
+        cx = new double[capacity];
+        cy = new double[capacity];
+        cz = new double[capacity];
+        half = new double[capacity];
+        nodeMass = new double[capacity];
+        comX = new double[capacity];
+        comY = new double[capacity];
+        comZ = new double[capacity];
+        firstChild = new int[capacity];
+        firstBody = new int[capacity];
+        depth = new int[capacity];
+    }
+
+    private void grow(int capacity)
+    {
+        cx = Arrays.copyOf(cx, capacity);
+        cy = Arrays.copyOf(cy, capacity);
+        cz = Arrays.copyOf(cz, capacity);
+        half = Arrays.copyOf(half, capacity);
+        nodeMass = Arrays.copyOf(nodeMass, capacity);
+        comX = Arrays.copyOf(comX, capacity);
+        comY = Arrays.copyOf(comY, capacity);
+        comZ = Arrays.copyOf(comZ, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        firstBody = Arrays.copyOf(firstBody, capacity);
+        depth = Arrays.copyOf(depth, capacity);
+    }
+
+    /**Reports the error and cost of several opening angles on the default initial conditions, to help choose theta for a run.
+     * Run with: java OctreeForceEngine [theta ...]*/
+    public static void main(String[] args)
+    {
+        double[] thetas = {0.2, 0.3, 0.5, 0.7, 1.0};
+        if (args.length > 0)
+        {
+            thetas = new double[args.length];
+            for (int i = 0; i < args.length; i++)
+            {
+                thetas[i] = Double.parseDouble(args[i]);
+            }
+        }
+        BodyStore bodies = new SystemSimulator().bodies;
+        DirectForceEngine direct = new DirectForceEngine();
+        long start = System.nanoTime();
+        direct.computeAccelerations(bodies);
+        double directMs = (System.nanoTime()-start)/1e6;
+        System.out.println("Bodies: "+bodies.count+"  direct: "+directMs+" ms");
+        for (double t : thetas)
+        {
+            OctreeForceEngine tree = new OctreeForceEngine(t);
+            tree.computeAccelerations(bodies);
+            start = System.nanoTime();
+            tree.computeAccelerations(bodies);
+            double treeMs = (System.nanoTime()-start)/1e6;
+            double[] err = tree.errorAgainstDirect(bodies);
+            System.out.println("theta "+t+": "+treeMs+" ms, rms rel error "+err[0]+", max rel error "+err[1]);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+import java.util.Arrays;
+
+/**
+ * A growable list of point masses, used for the stand-ins for bodies held by other processes in a decomposed run.
+ */
+public class PointMasses
+{
+    public double[] x = new double[16], y = new double[16], z = new double[16], mass = new double[16];
+    public int count;
+
+    public void add(double px, double py, double pz, double m)
+    {
+        if (count == x.length)
+        {
+            int capacity = count*2;
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            z = Arrays.copyOf(z, capacity);
+            mass = Arrays.copyOf(mass, capacity);
+        }
+        x[count] = px;
+        y[count] = py;
+        z[count] = pz;
+        mass[count] = m;
+        count++;
+    }
+
+    public void clear()
+    {
+        count = 0;
+    }
+}
@@ -0,0 +1,247 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Draws frames straight into the pixel array of an image instead of through Java2D shapes.
+ * Bodies are drawn as solid discs covering the pixels whose centres they contain, sized by depth with radius(),
+ * with nearer bodies hiding farther ones. Bodies entirely outside the image are skipped, and bodies smaller than a pixel
+ * are drawn as a single point.
+ * The image is split into 64 pixel square tiles. Frames are ordered back to front, so the bodies are listed in every
+ * tile they touch in reverse, front first; each tile is then painted on its own while it is in cache, keeping a bitmask
+ * of the pixels already painted so that each pixel is written once, and it stops reading its list as soon as it is full.
+ * Painting allocates nothing once the renderer has seen a frame of the same size.
+ * The image is reused for every frame, so render() and getImage() must be called from one thread, normally the EDT.
+ */
+public class RasterRenderer
+{
+    /**Disc radii are tabulated for depths within this many pixels of the screen*/
+    private static final int TABLE_DEPTH = 8192;
+    /**Table entries per pixel of depth*/
+    private static final int TABLE_STEPS = 4;
+    /**Radius in pixels for each depth from -TABLE_DEPTH to TABLE_DEPTH, before clamping*/
+    private static final float[] RADIUS = new float[2*TABLE_DEPTH*TABLE_STEPS + 2];
+    /**Tiles are 2^TILE_SHIFT pixels square; one row of a tile fits in one long*/
+    private static final int TILE_SHIFT = 6;
+    private static final int TILE = 1 << TILE_SHIFT;
+
+    static
+    {
+        for (int k = 0; k < RADIUS.length; k++)
+        {
+            RADIUS[k] = (float) radius((double) k/TABLE_STEPS - TABLE_DEPTH);
+        }
+    }
+
+    private final BufferedImage image;
+    private final int[] pixels;
+    private final int width, height;
+    private final int tilesX, tilesY;
+    /**Color the image is cleared to before each frame*/
+    public int background = 0x000000;
+
+    /**Screen position, radius and color of each visible body, in the order they were binned*/
+    private float[] sx = new float[0], sy = new float[0], sr = new float[0];
+    private int[] rgb = new int[0];
+    /**Bodies touching each tile, front to back, as indexes into sx etc.*/
+    private final int[][] bins;
+    private final int[] binCount;
+    /**Pixels of the current tile already painted, one long per row*/
+    private final long[] painted = new long[TILE];
+
+    /**Creates a renderer with its own image.
+     * @param width Width of the image in pixels
+     * @param height Height of the image in pixels*/
+    public RasterRenderer(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        tilesX = (width + TILE - 1) >> TILE_SHIFT;
+        tilesY = (height + TILE - 1) >> TILE_SHIFT;
+        bins = new int[tilesX*tilesY][16];
+        binCount = new int[tilesX*tilesY];
+    }
+
+    /**The image the last frame was rendered into*/
+    public BufferedImage getImage()
+    {
+        return image;
+    }
+
+    /**Clears the image and paints every body of a frame.
+     * @param spaceCompression Meters per pixel*/
+    public void render(RenderFrame frame, double spaceCompression)
+    {
+        int n = frame.getCount();
+        if (sx.length < n)
+        {
+            sx = new float[n];
+            sy = new float[n];
+            sr = new float[n];
+            rgb = new int[n];
+        }
+        Arrays.fill(binCount, 0);
+        double scale = 1/spaceCompression;
+        int visible = 0;
+        for (int k = n-1; k >= 0; k--)
+        {
+            double cx = frame.getX(k)*scale;
+            double cy = frame.getY(k)*scale;
+            double r = depthRadius(frame.getZ(k)*scale);
+            if (r < 1)
+            {
+                r = 0;
+            }
+            if (cx + r < 0 || cy + r < 0 || cx - r >= width || cy - r >= height)
+            {
+                continue;
+            }
+            sx[visible] = (float) cx;
+            sy[visible] = (float) cy;
+            sr[visible] = (float) r;
+            rgb[visible] = frame.getColor(k);
+            int left = Math.max(0, (int) (cx - r)) >> TILE_SHIFT, right = Math.min(width - 1, (int) (cx + r)) >> TILE_SHIFT;
+            int top = Math.max(0, (int) (cy - r)) >> TILE_SHIFT, bottom = Math.min(height - 1, (int) (cy + r)) >> TILE_SHIFT;
+            for (int ty = top; ty <= bottom; ty++)
+            {
+                for (int tx = left; tx <= right; tx++)
+                {
+                    bin(ty*tilesX + tx, visible);
+                }
+            }
+            visible++;
+        }
+        for (int ty = 0; ty < tilesY; ty++)
+        {
+            for (int tx = 0; tx < tilesX; tx++)
+            {
+                paintTile(tx, ty);
+            }
+        }
+    }
+
+    private void bin(int tile, int body)
+    {
+        int[] list = bins[tile];
+        int count = binCount[tile];
+        if (count == list.length)
+        {
+            list = Arrays.copyOf(list, count*2);
+            bins[tile] = list;
+        }
+        list[count] = body;
+        binCount[tile] = count+1;
+    }
+
+    /**Paints the bodies binned to one tile, front to back, then fills what is left with the background.*/
+    private void paintTile(int tx, int ty)
+    {
+        int x0 = tx << TILE_SHIFT, y0 = ty << TILE_SHIFT;
+        int w = Math.min(TILE, width - x0), h = Math.min(TILE, height - y0);
+        long full = w == TILE ? -1L : (1L << w) - 1;
+        Arrays.fill(painted, 0, h, 0);
+        int free = w*h;
+        int[] list = bins[ty*tilesX + tx];
+        int count = binCount[ty*tilesX + tx];
+        for (int b = 0; b < count && free > 0; b++)
+        {
+            int body = list[b];
+            double cx = sx[body] - x0, cy = sy[body] - y0, r = sr[body];
+            int color = rgb[body];
+            if (r == 0)
+            {
+                int px = -ceil(-cx), py = -ceil(-cy);
+                if (px >= 0 && py >= 0 && px < w && py < h)
+                {
+                    free -= fillSpan(x0, y0, py, 1L << px, color);
+                }
+                continue;
+            }
+            int top = Math.max(0, ceil(cy - r - 0.5));
+            int bottom = Math.min(h - 1, ceil(cy + r - 0.5) - 1);
+            int outerLeft = Math.max(0, ceil(cx - r - 0.5));
+            int outerRight = Math.min(w - 1, ceil(cx + r - 0.5) - 1);
+            if (outerLeft > outerRight)
+            {
+                continue;
+            }
+            long bounds = (-1L << outerLeft) & (-1L >>> (63 - outerRight));
+            double rSq = r*r;
+            for (int py = top; py <= bottom; py++)
+            {
+                if ((bounds & ~painted[py]) == 0)
+                {
+                    //Row already painted across the whole disc
+                    continue;
+                }
+                double dy = py + 0.5 - cy;
+                double half = Math.sqrt(Math.max(0, rSq - dy*dy));
+                int left = Math.max(0, ceil(cx - half - 0.5));
+                int right = Math.min(w - 1, ceil(cx + half - 0.5) - 1);
+                if (left <= right)
+                {
+                    free -= fillSpan(x0, y0, py, (-1L << left) & (-1L >>> (63 - right)), color);
+                }
+            }
+        }
+        for (int py = 0; py < h && free > 0; py++)
+        {
+            free -= fillSpan(x0, y0, py, full, background);
+        }
+    }
+
+    /**Paints the pixels of one row of the current tile selected by mask that are not painted yet.
+     * @return The number of pixels painted*/
+    private int fillSpan(int x0, int y0, int py, long mask, int color)
+    {
+        long todo = mask & ~painted[py];
+        if (todo == 0)
+        {
+            return 0;
+        }
+        painted[py] |= todo;
+        int row = (y0 + py)*width + x0;
+        int count = Long.bitCount(todo);
+        while (todo != 0)
+        {
+            int first = Long.numberOfTrailingZeros(todo);
+            int end = first + Long.numberOfTrailingZeros(~(todo >>> first));
+            Arrays.fill(pixels, row + first, row + end, color);
+            todo &= end == 64 ? 0 : -1L << end;
+        }
+        return count;
+    }
+
+    /**Smallest int not below v; cheaper than Math.ceil, which is not an intrinsic on every processor.*/
+    private static int ceil(double v)
+    {
+        int i = (int) v;
+        return v > i ? i + 1 : i;
+    }
+
+    /**Disc radius in pixels for a body at the given depth in pixels, looked up rather than recomputed.
+     * Matches radius(), and keeps radii below 1 so the caller can draw them as points.*/
+    static double depthRadius(double depth)
+    {
+        double t = (depth + TABLE_DEPTH)*TABLE_STEPS;
+        if (t >= 0 && t < RADIUS.length - 1)
+        {
+            int k = (int) t;
+            double f = t - k;
+            return RADIUS[k] + (RADIUS[k+1] - RADIUS[k])*f;
+        }
+        return radius(depth);
+    }
+
+    /**Disc radius in pixels for a body at the given depth in pixels; may be below 1.*/
+    private static double radius(double depth)
+    {
+        if (depth < 0)
+        {
+            return 10-5*Math.log10(10-depth);
+        }
+        return 5*Math.log10(10+depth);
+    }
+}
@@ -0,0 +1,480 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks a faster configuration (force engine, integrator, collision detector, threads) against golden trajectories
+ * recorded from the reference path: direct summation, the Adams-Bashford integrator and grid collisions on one thread.
+ * Each scenario is a fixed initial state run for a fixed number of steps: a two-body Kepler orbit and the random
+ * systems of a few populateSystem() seeds. Every few steps the position of each body is kept, and every merge,
+ * in a gzipped file per scenario. A check runs the same scenarios with the configuration under test and reports the
+ * largest position error relative to the scenario's scale against its tolerance, whether the same bodies merged
+ * at the same steps, and the speedup over the reference run.
+ * Usage: java RegressionHarness record [--dir golden]
+ *        java RegressionHarness check [--dir golden] [--engine direct|tiled|symmetric|octree] [--theta T] [--softening M]
+ *                                     [--collisions grid|swept|brute] [--integrator ab3|leapfrog|yoshida|hermite]
+ *                                     [--threads T] [--block-levels L] [--eta E] [--tolerance-scale X] [--time-reference]
+ * check exits with status 1 if any scenario fails. The speedup is against the reference time stored when the golden
+ * files were recorded, so it is only meaningful on the same machine, unless --time-reference runs the reference again here.
+ * Approximate engines such as the octree, and integrators of other orders, differ from the reference by more than
+ * rounding; --tolerance-scale loosens every tolerance to judge them. For integrators the Kepler scenario also reports
+ * the error against the exact orbit, beside that of the reference, which is the better measure of their accuracy.
+ * hermite needs the direct or tiled engine, the only ones that compute the jerk.
+ */
+public class RegressionHarness
+{
+    static final int MAGIC = 0x4F524247;
+    static final int VERSION = 1;
+
+    /**A fixed initial state run for a fixed number of steps.*/
+    static class Scenario
+    {
+        final String name;
+        /**Seed for populateSystem(), or -1 for the Kepler orbit*/
+        final int seed;
+        final int steps;
+        /**Positions are kept every this many steps*/
+        final int every;
+        /**Length errors are measured against, in meters*/
+        final double scale;
+        /**Largest position error allowed, as a fraction of scale*/
+        final double tolerance;
+
+        Scenario(String name, int seed, int steps, int every, double scale, double tolerance)
+        {
+            this.name = name;
+            this.seed = seed;
+            this.steps = steps;
+            this.every = every;
+            this.scale = scale;
+            this.tolerance = tolerance;
+        }
+    }
+
+    static final double KEPLER_A = 1.496e11;
+    static final Scenario[] SCENARIOS = {
+            //Two orbits of a planet on an e = 0.5 orbit, one year apiece. Sampling steps are multiples of 3,
+            //where YoshidaIntegrator completes a step
+            new Scenario("kepler", -1, 1440, 60, KEPLER_A, 1e-9),
+            //The random system over 105 days, long enough for merges but short of where chaos amplifies rounding
+            new Scenario("seed1", 1, 210, 42, SystemAnimator.B_WIDTH*1e9, 1e-9),
+            new Scenario("seed2", 2, 210, 42, SystemAnimator.B_WIDTH*1e9, 1e-9),
+    };
+
+    /**The positions and merges of one run of a scenario.*/
+    static class Run
+    {
+        double seconds;
+        int samples;
+        long[] sampleSteps;
+        /**Ids of the bodies in each sample, ascending*/
+        int[][] ids;
+        /**x, y and z of each body in each sample, in the order of ids*/
+        double[][] positions;
+        int merges;
+        long[] mergeSteps;
+        int[] survivors;
+        int[] absorbed;
+    }
+
+    private String engine = "direct";
+    private double theta = 0.5;
+    private double softening = 0;
+    private String collisions = "grid";
+    private String integrator = "ab3";
+    private int threads = 1;
+    private int blockLevels = -1;
+    private double eta = 0.01;
+
+    /**Builds the initial state of a scenario, configured as this harness is.*/
+    SystemSimulator create(Scenario s)
+    {
+        SystemSimulator sim = new SystemSimulator(Math.max(s.seed, 1));
+        sim.logYears = false;
+        sim.snapshots.setInterval(-1);
+        if (s.seed < 0)
+        {
+            kepler(sim);
+        }
+        sim.forceEngine = HeadlessRunner.createEngine(engine, theta, softening);
+        sim.collisionDetector = HeadlessRunner.createCollisions(collisions);
+        sim.integrator = HeadlessRunner.createIntegrator(integrator);
+        if (blockLevels >= 0)
+        {
+            sim.setBlockStepper(new BlockTimeStepper(blockLevels, eta));
+        }
+        sim.setThreads(threads);
+        return sim;
+    }
+
+    /**Replaces the bodies with a Sun and an Earth-mass planet at perihelion of an orbit with eccentricity 0.5,
+     * about their barycenter at the middle of the field.*/
+    private static void kepler(SystemSimulator sim)
+    {
+        BodyStore b = sim.bodies;
+        b.clear();
+        double sun = 1.989e30, planet = 5.972e24, e = 0.5;
+        double total = sun + planet;
+        double perihelion = KEPLER_A*(1 - e);
+        double speed = Math.sqrt(b.G*total/KEPLER_A*(1 + e)/(1 - e));
+        double cx = SystemAnimator.B_WIDTH/2*sim.spaceCompression, cy = SystemAnimator.B_HEIGHT/2*sim.spaceCompression;
+        b.add("Sun", sun, 6.96e8, cx - perihelion*planet/total, cy, 0, 0, -speed*planet/total, 0, BodyStore.packColor(255, 255, 128));
+        b.add("Planet", planet, 6.371e6, cx + perihelion*sun/total, cy, 0, 0, speed*sun/total, 0, BodyStore.packColor(0, 255, 255));
+        b.maxSize = 6.96e8;
+        b.initNumBodies = b.count;
+    }
+
+    /**Runs a scenario, keeping its positions and merges.*/
+    Run run(Scenario s) throws IOException
+    {
+        SystemSimulator sim = create(s);
+        MergeLog merges = new MergeLog(null);
+        sim.bodies.mergeLog = merges;
+        Run r = new Run();
+        int n = s.steps/s.every;
+        r.sampleSteps = new long[n];
+        r.ids = new int[n][];
+        r.positions = new double[n][];
+        long start = System.nanoTime();
+        for (int step = 1; step <= s.steps; step++)
+        {
+            sim.updateSystem();
+            if (step % s.every == 0)
+            {
+                sample(sim, r);
+            }
+        }
+        r.seconds = (System.nanoTime() - start)/1e9;
+        sim.setThreads(1);
+        r.merges = (int) merges.getMergeCount();
+        r.mergeSteps = new long[r.merges];
+        r.survivors = new int[r.merges];
+        r.absorbed = new int[r.merges];
+        for (int k = 0; k < r.merges; k++)
+        {
+            r.mergeSteps[k] = merges.getStep(k);
+            r.survivors[k] = merges.getSurvivor(k);
+            r.absorbed[k] = merges.getAbsorbed(k);
+        }
+        return r;
+    }
+
+    private static void sample(SystemSimulator sim, Run r)
+    {
+        BodyStore b = sim.bodies;
+        long[] order = new long[b.count];
+        for (int i = 0; i < b.count; i++)
+        {
+            order[i] = ((long) b.id[i] << 32) | i;
+        }
+        Arrays.sort(order);
+        int[] ids = new int[b.count];
+        double[] p = new double[3*b.count];
+        for (int k = 0; k < b.count; k++)
+        {
+            int i = (int) order[k];
+            ids[k] = b.id[i];
+            p[3*k] = b.x[i];
+            p[3*k+1] = b.y[i];
+            p[3*k+2] = b.z[i];
+        }
+        r.sampleSteps[r.samples] = sim.getStepCount();
+        r.ids[r.samples] = ids;
+        r.positions[r.samples] = p;
+        r.samples++;
+    }
+
+    static void write(Path path, Run r) throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(path)))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeDouble(r.seconds);
+            out.writeInt(r.samples);
+            for (int k = 0; k < r.samples; k++)
+            {
+                out.writeLong(r.sampleSteps[k]);
+                out.writeInt(r.ids[k].length);
+                for (int j = 0; j < r.ids[k].length; j++)
+                {
+                    out.writeInt(r.ids[k][j]);
+                    out.writeDouble(r.positions[k][3*j]);
+                    out.writeDouble(r.positions[k][3*j+1]);
+                    out.writeDouble(r.positions[k][3*j+2]);
+                }
+            }
+            out.writeInt(r.merges);
+            for (int k = 0; k < r.merges; k++)
+            {
+                out.writeLong(r.mergeSteps[k]);
+                out.writeInt(r.survivors[k]);
+                out.writeInt(r.absorbed[k]);
+            }
+        }
+    }
+
+    static Run read(Path path) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path)))))
+        {
+            if (in.readInt() != MAGIC)
+            {
+                throw new IOException(path+" is not a golden trajectory");
+            }
+            int version = in.readInt();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported golden trajectory version "+version);
+            }
+            Run r = new Run();
+            r.seconds = in.readDouble();
+            r.samples = in.readInt();
+            r.sampleSteps = new long[r.samples];
+            r.ids = new int[r.samples][];
+            r.positions = new double[r.samples][];
+            for (int k = 0; k < r.samples; k++)
+            {
+                r.sampleSteps[k] = in.readLong();
+                int n = in.readInt();
+                r.ids[k] = new int[n];
+                r.positions[k] = new double[3*n];
+                for (int j = 0; j < n; j++)
+                {
+                    r.ids[k][j] = in.readInt();
+                    r.positions[k][3*j] = in.readDouble();
+                    r.positions[k][3*j+1] = in.readDouble();
+                    r.positions[k][3*j+2] = in.readDouble();
+                }
+            }
+            r.merges = in.readInt();
+            r.mergeSteps = new long[r.merges];
+            r.survivors = new int[r.merges];
+            r.absorbed = new int[r.merges];
+            for (int k = 0; k < r.merges; k++)
+            {
+                r.mergeSteps[k] = in.readLong();
+                r.survivors[k] = in.readInt();
+                r.absorbed[k] = in.readInt();
+            }
+            return r;
+        }
+    }
+
+    /**Largest distance between the same body in the two runs at the same sample, relative to scale.
+     * @return The error, or infinity if the runs do not hold the same bodies at some sample*/
+    static double positionError(Run golden, Run run, double scale)
+    {
+        if (golden.samples != run.samples)
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+        double worst = 0;
+        for (int k = 0; k < golden.samples; k++)
+        {
+            if (golden.sampleSteps[k] != run.sampleSteps[k] || !Arrays.equals(golden.ids[k], run.ids[k]))
+            {
+                return Double.POSITIVE_INFINITY;
+            }
+            double[] a = golden.positions[k], b = run.positions[k];
+            for (int j = 0; j < a.length; j += 3)
+            {
+                double dx = a[j] - b[j], dy = a[j+1] - b[j+1], dz = a[j+2] - b[j+2];
+                worst = Math.max(worst, Math.sqrt(dx*dx + dy*dy + dz*dz));
+            }
+        }
+        return worst/scale;
+    }
+
+    /**Largest distance of the planet from its exact Kepler orbit over the samples of the kepler scenario, relative to
+     * the semi-major axis. The orbit is the relative one, planet minus Sun, solved from Kepler's equation.*/
+    static double keplerError(Run r, double timeCompression, double G)
+    {
+        double sun = 1.989e30, planet = 5.972e24, e = 0.5;
+        double meanMotion = Math.sqrt(G*(sun + planet)/(KEPLER_A*KEPLER_A*KEPLER_A));
+        double worst = 0;
+        for (int k = 0; k < r.samples; k++)
+        {
+            double[] p = r.positions[k];
+            if (p.length != 6)
+            {
+                return Double.POSITIVE_INFINITY;
+            }
+            double meanAnomaly = meanMotion*r.sampleSteps[k]*timeCompression;
+            double anomaly = meanAnomaly;
+            for (int it = 0; it < 50; it++)
+            {
+                anomaly -= (anomaly - e*Math.sin(anomaly) - meanAnomaly)/(1 - e*Math.cos(anomaly));
+            }
+            double x = KEPLER_A*(Math.cos(anomaly) - e);
+            double y = KEPLER_A*Math.sqrt(1 - e*e)*Math.sin(anomaly);
+            double dx = p[3] - p[0] - x, dy = p[4] - p[1] - y, dz = p[5] - p[2];
+            worst = Math.max(worst, Math.sqrt(dx*dx + dy*dy + dz*dz));
+        }
+        return worst/KEPLER_A;
+    }
+
+    /**Describes the first difference between the merges of two runs, or returns null if the same pairs merged at the
+     * same steps. Merges within a step are compared as unordered pairs, since detectors may resolve them in another order.*/
+    static String mergeDifference(Run golden, Run run)
+    {
+        long[] a = mergeKeys(golden), b = mergeKeys(run);
+        for (int k = 0; k < Math.min(a.length, b.length); k++)
+        {
+            if (a[k] != b[k])
+            {
+                return "merge "+(k+1)+" differs ("+describe(a[k])+" expected, "+describe(b[k])+" found)";
+            }
+        }
+        if (a.length != b.length)
+        {
+            return a.length+" merges expected, "+b.length+" found";
+        }
+        return null;
+    }
+
+    /**Each merge as step, lower id and higher id packed into a sortable long*/
+    private static long[] mergeKeys(Run r)
+    {
+        long[] keys = new long[r.merges];
+        for (int k = 0; k < r.merges; k++)
+        {
+            long low = Math.min(r.survivors[k], r.absorbed[k]), high = Math.max(r.survivors[k], r.absorbed[k]);
+            keys[k] = r.mergeSteps[k] << 40 | low << 20 | high;
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    private static String describe(long key)
+    {
+        return "step "+(key >>> 40)+": "+((key >>> 20) & 0xFFFFF)+"+"+(key & 0xFFFFF);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length == 0 || !(args[0].equals("record") || args[0].equals("check")))
+        {
+            System.out.println("Usage: java RegressionHarness record|check [options]");
+            return;
+        }
+        boolean record = args[0].equals("record");
+        Path dir = Paths.get("golden");
+        double toleranceScale = 1;
+        boolean timeReference = false;
+        RegressionHarness harness = new RegressionHarness();
+        for (int a = 1; a < args.length; a++)
+        {
+            String arg = args[a];
+            if (arg.equals("--dir"))
+            {
+                dir = Paths.get(args[++a]);
+            }
+            else if (arg.equals("--engine"))
+            {
+                harness.engine = args[++a];
+            }
+            else if (arg.equals("--theta"))
+            {
+                harness.theta = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--softening"))
+            {
+                harness.softening = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--collisions"))
+            {
+                harness.collisions = args[++a];
+            }
+            else if (arg.equals("--integrator"))
+            {
+                harness.integrator = args[++a];
+            }
+            else if (arg.equals("--threads"))
+            {
+                harness.threads = Integer.parseInt(args[++a]);
+            }
+            else if (arg.equals("--block-levels"))
+            {
+                harness.blockLevels = Integer.parseInt(args[++a]);
+            }
+            else if (arg.equals("--eta"))
+            {
+                harness.eta = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--tolerance-scale"))
+            {
+                toleranceScale = Double.parseDouble(args[++a]);
+            }
+            else if (arg.equals("--time-reference"))
+            {
+                timeReference = true;
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unknown option: "+arg);
+            }
+        }
+
+        if (record)
+        {
+            //Golden trajectories always come from the reference path
+            RegressionHarness reference = new RegressionHarness();
+            Files.createDirectories(dir);
+            for (Scenario s : SCENARIOS)
+            {
+                Run r = reference.run(s);
+                write(dir.resolve(s.name+".golden"), r);
+                System.out.println(s.name+": "+r.samples+" samples, "+r.merges+" merges, "+String.format("%.2f", r.seconds)+" s");
+            }
+            System.out.println("Golden trajectories written to "+dir);
+            return;
+        }
+
+        int failures = 0;
+        double referenceSeconds = 0, seconds = 0;
+        for (Scenario s : SCENARIOS)
+        {
+            Run golden = read(dir.resolve(s.name+".golden"));
+            if (timeReference)
+            {
+                golden.seconds = new RegressionHarness().run(s).seconds;
+            }
+            Run r = harness.run(s);
+            double error = positionError(golden, r, s.scale);
+            double tolerance = s.tolerance*toleranceScale;
+            String merges = mergeDifference(golden, r);
+            boolean pass = error <= tolerance && merges == null;
+            if (!pass)
+            {
+                failures++;
+            }
+            referenceSeconds += golden.seconds;
+            seconds += r.seconds;
+            System.out.println(String.format("%-8s error %.3g (tolerance %.3g)  merges: %s  %.2f s vs %.2f s (%.2fx)  %s",
+                    s.name, error, tolerance, merges == null ? r.merges+" as expected" : merges,
+                    r.seconds, golden.seconds, golden.seconds/r.seconds, pass ? "PASS" : "FAIL"));
+            if (s.seed < 0)
+            {
+                SystemSimulator sim = harness.create(s);
+                sim.setThreads(1);
+                System.out.println(String.format("%-8s error from the exact orbit %.3g, reference %.3g", "",
+                        keplerError(r, sim.timeCompression, sim.bodies.G), keplerError(golden, sim.timeCompression, sim.bodies.G)));
+            }
+        }
+        System.out.println(String.format("%d of %d scenarios passed  overall speedup %.2fx", SCENARIOS.length - failures, SCENARIOS.length, referenceSeconds/seconds));
+        if (failures > 0)
+        {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * One frame of bodies to draw, ordered back to front (ascending z).
+ * Implemented by live Snapshots, by frames replayed from a recorded trajectory, and by SystemSimulator.draw()'s
+ * view of its own bodies.
+ */
+public interface RenderFrame
+{
+    /**Number of bodies in the frame*/
+    int getCount();
+
+    /**Simulation step the frame shows*/
+    long getStep();
+
+    /**Permanent id of the k-th body*/
+    int getId(int k);
+
+    /**Position of the k-th body in meters*/
+    double getX(int k);
+
+    double getY(int k);
+
+    double getZ(int k);
+
+    /**Radius of the k-th body in meters*/
+    double getRadius(int k);
+
+    /**Color of the k-th body packed as 0xRRGGBB*/
+    int getColor(int k);
+}
@@ -0,0 +1,574 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Loads initial conditions from a file straight into a BodyStore, in place of the random system populateSystem() builds.
+ * The file is read through memory-mapped windows of bounded size, so memory use does not depend on the file size,
+ * and the largest radius is found as the bodies stream in rather than by a pass over the store afterwards.
+ * Two formats are read, told apart by the binary magic number:
+ * <pre>
+ * CSV:    ident,mass,size,x,y,z,vx,vy,vz[,color]   one body per line, SI units, color as #rrggbb
+ *         (the format HeadlessRunner --out writes); a header line, blank lines and lines starting with # are skipped
+ * binary: int magic "ORBS", int version, long count,
+ *         count x {double mass, size, x, y, z, vx, vy, vz, int color, short identLength, byte[identLength] UTF-8 ident}
+ * </pre>
+ * Binary values are little-endian. A color of -1 in either format, or a missing CSV color, means the file gives none:
+ * such a body is drawn white, unless no body in the file has a color, in which case SystemSimulator.loadScenario()
+ * colors every body by its size as it does the random system.
+ * Parsing numbers is most of the cost of a CSV file, so a large one is split at line boundaries and its parts parsed
+ * on several threads, a batch of one part per thread at a time; each batch is added to the store, in file order,
+ * before the next is parsed. The binary format needs no parsing and loads several
+ * times faster.
+ * keepFromX and keepBelowX restrict load() to a slab of x, for the processes of a DomainDecomposition run: the whole file
+ * is still read, and every body keeps the id it would have had, but only the slab's bodies are added to the store.
+ * readX() reads just the x positions, so the slabs can be chosen before any body is loaded.
+ * Run with: java ScenarioLoader in.csv out.orbs to convert a CSV scenario to the binary format.
+ */
+public class ScenarioLoader
+{
+    static final int MAGIC = 0x5342524F;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    /**Bytes of a binary record before its ident*/
+    static final int RECORD_BYTES = 8*8 + 4 + 2;
+    /**Color given to a body the file has no color for*/
+    static final int UNCOLORED = 0xFFFFFF;
+    /**Bytes of the file mapped at a time*/
+    private static final long WINDOW_BYTES = 64L*1024*1024;
+    /**Smallest part of a CSV file worth a thread of its own*/
+    private static final long PART_BYTES = 4L*1024*1024;
+
+    /**Number of threads parsing a CSV file*/
+    public int threads = Runtime.getRuntime().availableProcessors();
+    /**Only bodies with keepFromX <= x < keepBelowX are added by load(); by default every body is*/
+    public double keepFromX = Double.NEGATIVE_INFINITY;
+    public double keepBelowX = Double.POSITIVE_INFINITY;
+
+    private final Path path;
+    private int count;
+    private int kept;
+    private double maxSize;
+    private boolean colored;
+    /**x of each body read so far by readX(); null while loading*/
+    private double[] xs;
+
+    /**@param path The scenario file to read*/
+    public ScenarioLoader(Path path)
+    {
+        this.path = path;
+    }
+
+    /**Number of bodies read by load()*/
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**Number of bodies load() added to the store, those in the slab*/
+    public int getKept()
+    {
+        return kept;
+    }
+
+    /**Largest radius among the bodies read by load(), those outside the slab included*/
+    public double getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**Whether any body read by load() had a color of its own*/
+    public boolean hasColors()
+    {
+        return colored;
+    }
+
+    /**Appends every body in the file with x in the slab to the store.
+     * @return The number of bodies read*/
+    public int load(BodyStore bodies) throws IOException
+    {
+        read(bodies);
+        return count;
+    }
+
+    /**Reads the x position of every body in the file, in file order, without loading any.
+     * Holds one double per body rather than a whole store, for choosing the slabs of a decomposed run.*/
+    public double[] readX() throws IOException
+    {
+        xs = new double[1024];
+        try
+        {
+            read(null);
+            return Arrays.copyOf(xs, count);
+        }
+        finally
+        {
+            xs = null;
+        }
+    }
+
+    /**Reads the file, adding to the store unless readX() is collecting positions instead.*/
+    private void read(BodyStore bodies) throws IOException
+    {
+        count = 0;
+        kept = 0;
+        maxSize = 0;
+        colored = false;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            Window w = new Window(channel);
+            if (w.fileSize >= HEADER_BYTES && w.map(0, HEADER_BYTES).getInt(0) == MAGIC)
+            {
+                loadBinary(bodies, w);
+            }
+            else
+            {
+                loadCsv(bodies, channel, w.fileSize);
+            }
+        }
+    }
+
+    /**Whether the store can be sized from the file up front: every body is kept and there is a store to size.*/
+    private boolean sizing(BodyStore bodies)
+    {
+        return bodies != null && keepFromX == Double.NEGATIVE_INFINITY && keepBelowX == Double.POSITIVE_INFINITY;
+    }
+
+    private void loadBinary(BodyStore bodies, Window w) throws IOException
+    {
+        ByteBuffer b = w.map(0, HEADER_BYTES);
+        int version = b.getInt(4);
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported scenario version "+version);
+        }
+        long n = b.getLong(8);
+        if (n < 0 || n > Integer.MAX_VALUE - 8)
+        {
+            throw new IOException(path+": bad body count "+n);
+        }
+        if (sizing(bodies))
+        {
+            bodies.ensureCapacity(bodies.count + (int) n);
+        }
+        byte[] name = new byte[256];
+        long offset = HEADER_BYTES;
+        for (long k = 0; k < n; k++)
+        {
+            if (w.fileSize - offset < RECORD_BYTES)
+            {
+                throw new IOException(path+" ends after "+k+" of "+n+" bodies");
+            }
+            b = w.map(offset, RECORD_BYTES + 0xFFFF);
+            int at = (int) (offset - w.start);
+            int identLength = b.getShort(at+68) & 0xFFFF;
+            if (w.fileSize - offset < RECORD_BYTES + identLength)
+            {
+                throw new IOException(path+" ends after "+k+" of "+n+" bodies");
+            }
+            if (name.length < identLength)
+            {
+                name = new byte[identLength];
+            }
+            b.position(at+RECORD_BYTES);
+            b.get(name, 0, identLength);
+            add(bodies, new String(name, 0, identLength, StandardCharsets.UTF_8), b.getDouble(at), b.getDouble(at+8),
+                    b.getDouble(at+16), b.getDouble(at+24), b.getDouble(at+32), b.getDouble(at+40), b.getDouble(at+48), b.getDouble(at+56),
+                    b.getInt(at+64));
+            offset += RECORD_BYTES + identLength;
+        }
+    }
+
+    private void loadCsv(BodyStore bodies, final FileChannel channel, long fileSize) throws IOException
+    {
+        //Split at the first line break after each PART_BYTES of the file
+        int n = (int) Math.max(1, fileSize/PART_BYTES);
+        long[] bounds = new long[n+1];
+        Window w = new Window(channel);
+        for (int k = 1; k < n; k++)
+        {
+            bounds[k] = Math.max(bounds[k-1], lineEnd(w, fileSize*k/n));
+        }
+        bounds[n] = fileSize;
+        //Parts are parsed a batch of one per thread at a time, and added before the next batch is parsed,
+        //so no more than a batch of parsed bodies is held however long the file is
+        int m = Math.max(1, Math.min(threads, n));
+        final CsvPart[] batch = new CsvPart[m];
+        for (int k = 0; k < m; k++)
+        {
+            batch[k] = new CsvPart();
+        }
+        WorkerPool pool = m > 1 ? new WorkerPool(m, 1) : null;
+        WorkerPool.RangeTask parse = new WorkerPool.RangeTask() {
+            @Override
+            public void run(int from, int to, int worker) {
+                for (int k = from; k < to; k++)
+                {
+                    try
+                    {
+                        batch[k].parse(channel);
+                    }
+                    catch (IOException e)
+                    {
+                        batch[k].error = e;
+                    }
+                }
+            }
+        };
+        try
+        {
+            for (int first = 0; first < n; first += m)
+            {
+                int parts = Math.min(m, n - first);
+                for (int k = 0; k < parts; k++)
+                {
+                    batch[k].reset(bounds[first+k], bounds[first+k+1]);
+                }
+                if (pool == null)
+                {
+                    parse.run(0, parts, 0);
+                }
+                else
+                {
+                    pool.forEach(parts, parse);
+                }
+                int parsed = 0;
+                for (int k = 0; k < parts; k++)
+                {
+                    if (batch[k].error != null)
+                    {
+                        throw batch[k].error;
+                    }
+                    parsed += batch[k].count;
+                }
+                if (first == 0 && parsed > 0 && sizing(bodies))
+                {
+                    //Size the store once, from the bytes per body of the first batch
+                    long estimate = (long) ((double) parsed*fileSize/bounds[parts]*1.05);
+                    bodies.ensureCapacity((int) Math.min(bodies.count + estimate, Integer.MAX_VALUE - 8));
+                }
+                for (int k = 0; k < parts; k++)
+                {
+                    CsvPart p = batch[k];
+                    double[] v = p.values;
+                    for (int i = 0; i < p.count; i++)
+                    {
+                        int at = i*8;
+                        add(bodies, p.ident[i], v[at], v[at+1], v[at+2], v[at+3], v[at+4], v[at+5], v[at+6], v[at+7], p.color[i]);
+                        p.ident[i] = null;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            if (pool != null)
+            {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**Offset just after the first line break at or after offset, or the end of the file.*/
+    private static long lineEnd(Window w, long offset) throws IOException
+    {
+        while (offset < w.fileSize)
+        {
+            ByteBuffer b = w.map(offset, 1);
+            for (int at = (int) (offset - w.start); at < b.limit(); at++)
+            {
+                if (b.get(at) == '\n')
+                {
+                    return w.start + at + 1;
+                }
+            }
+            offset = w.start + b.limit();
+        }
+        return w.fileSize;
+    }
+
+    private void add(BodyStore bodies, String ident, double mass, double size, double x, double y, double z,
+                     double vx, double vy, double vz, int color)
+    {
+        if (xs != null)
+        {
+            if (count == xs.length)
+            {
+                xs = Arrays.copyOf(xs, count*2);
+            }
+            xs[count++] = x;
+            return;
+        }
+        if (color < 0)
+        {
+            color = UNCOLORED;
+        }
+        else
+        {
+            colored = true;
+        }
+        maxSize = Math.max(maxSize, size);
+        count++;
+        if (x < keepFromX || x >= keepBelowX)
+        {
+            bodies.skipId();
+            return;
+        }
+        bodies.add(ident, mass, size, x, y, z, vx, vy, vz, color);
+        kept++;
+    }
+
+    /**A read-only window onto part of a file, remapped as reading moves past it. Positions in the buffer are relative to start.*/
+    private static class Window
+    {
+        final FileChannel channel;
+        final long fileSize;
+        MappedByteBuffer buffer;
+        /**File offset of the start of buffer*/
+        long start;
+
+        Window(FileChannel channel) throws IOException
+        {
+            this.channel = channel;
+            fileSize = channel.size();
+        }
+
+        /**Returns the buffer with at least bytes bytes (or the rest of the file) mapped from offset, remapping it if needed.*/
+        MappedByteBuffer map(long offset, int bytes) throws IOException
+        {
+            long end = Math.min(offset + bytes, fileSize);
+            if (buffer == null || offset < start || end > start + buffer.limit())
+            {
+                start = offset;
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_BYTES, fileSize - offset));
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return buffer;
+        }
+    }
+
+    /**The bodies on the lines between two offsets of a CSV file, parsed independently of the other parts.
+     * Reused for part after part, keeping its arrays.*/
+    private class CsvPart
+    {
+        long from, to;
+        int count;
+        String[] ident = new String[1024];
+        /**mass, size, x, y, z, vx, vy, vz of each body*/
+        double[] values = new double[1024*8];
+        int[] color = new int[1024];
+        IOException error;
+        private byte[] line = new byte[256];
+        private final int[] commas = new int[10];
+        /**Number of commas found in the current line, up to the length of commas*/
+        private int fields;
+
+        /**Empties the part and sets it to the lines between two other offsets.*/
+        void reset(long from, long to)
+        {
+            this.from = from;
+            this.to = to;
+            count = 0;
+            error = null;
+        }
+
+        void parse(FileChannel channel) throws IOException
+        {
+            Window w = new Window(channel);
+            long offset = from;
+            while (offset < to)
+            {
+                //Find the end of the line, remapping from its start if it runs past the window
+                ByteBuffer b = w.map(offset, 1);
+                int start = (int) (offset - w.start);
+                int end = start;
+                int limit = (int) Math.min(b.limit(), to - w.start);
+                while (end < limit && b.get(end) != '\n')
+                {
+                    end++;
+                }
+                if (end == limit && w.start + limit < to)
+                {
+                    if (offset == w.start)
+                    {
+                        throw new IOException(path+": line at byte "+offset+" is too long");
+                    }
+                    w.buffer = null;
+                    continue;
+                }
+                int length = end - start;
+                if (line.length < length)
+                {
+                    line = new byte[Math.max(length, line.length*2)];
+                }
+                b.position(start);
+                b.get(line, 0, length);
+                parseLine(length, offset);
+                offset = w.start + end + 1;
+            }
+        }
+
+        /**Adds the body described by the first length bytes of line, unless it is blank, a comment or the header.*/
+        private void parseLine(int length, long offset) throws IOException
+        {
+            while (length > 0 && (line[length-1] == '\r' || line[length-1] == ' '))
+            {
+                length--;
+            }
+            if (length == 0 || line[0] == '#' || startsWith("ident,", length))
+            {
+                return;
+            }
+            fields = 0;
+            for (int k = 0; k < length && fields < commas.length; k++)
+            {
+                if (line[k] == ',')
+                {
+                    commas[fields++] = k;
+                }
+            }
+            if (fields < 8)
+            {
+                throw new IOException(path+": line at byte "+offset+" has "+(fields+1)+" fields, expected at least 9");
+            }
+            if (count == ident.length)
+            {
+                ident = Arrays.copyOf(ident, count*2);
+                values = Arrays.copyOf(values, count*2*8);
+                color = Arrays.copyOf(color, count*2);
+            }
+            try
+            {
+                ident[count] = new String(line, 0, commas[0], StandardCharsets.UTF_8).trim();
+                for (int k = 0; k < 8; k++)
+                {
+                    values[count*8 + k] = Double.parseDouble(field(k, length));
+                }
+                color[count] = fields > 8 ? parseColor(field(8, length)) : -1;
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IOException(path+": line at byte "+offset+": "+e.getMessage());
+            }
+            count++;
+        }
+
+        /**The text of the field after the k-th comma, without surrounding spaces*/
+        private String field(int k, int length)
+        {
+            int from = commas[k]+1;
+            int to = k+1 < fields ? commas[k+1] : length;
+            while (from < to && line[from] == ' ')
+            {
+                from++;
+            }
+            while (to > from && line[to-1] == ' ')
+            {
+                to--;
+            }
+            return new String(line, from, to - from, StandardCharsets.ISO_8859_1);
+        }
+
+        private int parseColor(String text)
+        {
+            if (text.isEmpty())
+            {
+                return -1;
+            }
+            return text.charAt(0) == '#' ? Integer.parseInt(text.substring(1), 16) : Integer.parseInt(text);
+        }
+
+        private boolean startsWith(String prefix, int length)
+        {
+            if (length < prefix.length())
+            {
+                return false;
+            }
+            for (int k = 0; k < prefix.length(); k++)
+            {
+                if (line[k] != prefix.charAt(k))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**Writes the live bodies of a store in the binary scenario format.*/
+    public static void writeBinary(BodyStore bodies, Path path) throws IOException
+    {
+        writeBinary(bodies, path, true);
+    }
+
+    /**Writes the live bodies of a store in the binary scenario format.
+     * @param colored false to write -1, no color, for every body, as for a store loaded from a file without colors;
+     *                the store then holds UNCOLORED for them, which must not be written as a color the file gives*/
+    public static void writeBinary(BodyStore bodies, Path path, boolean colored) throws IOException
+    {
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer b = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            b.putInt(MAGIC);
+            b.putInt(VERSION);
+            b.putLong(bodies.liveCount());
+            for (int i = 0; i < bodies.count; i++)
+            {
+                if (bodies.removed[i])
+                {
+                    continue;
+                }
+                byte[] ident = bodies.ident[i].getBytes(StandardCharsets.UTF_8);
+                int length = Math.min(ident.length, 0xFFFF);
+                if (b.remaining() < RECORD_BYTES + length)
+                {
+                    drain(out, b);
+                }
+                b.putDouble(bodies.mass[i]);
+                b.putDouble(bodies.size[i]);
+                b.putDouble(bodies.x[i]);
+                b.putDouble(bodies.y[i]);
+                b.putDouble(bodies.z[i]);
+                b.putDouble(bodies.vx[i]);
+                b.putDouble(bodies.vy[i]);
+                b.putDouble(bodies.vz[i]);
+                b.putInt(colored ? bodies.color[i] : -1);
+                b.putShort((short) length);
+                b.put(ident, 0, length);
+            }
+            drain(out, b);
+        }
+    }
+
+    private static void drain(FileChannel out, ByteBuffer b) throws IOException
+    {
+        b.flip();
+        while (b.hasRemaining())
+        {
+            out.write(b);
+        }
+        b.clear();
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 2)
+        {
+            System.out.println("Usage: java ScenarioLoader in.csv out.orbs");
+            return;
+        }
+        long start = System.nanoTime();
+        BodyStore bodies = new BodyStore(1024);
+        ScenarioLoader loader = new ScenarioLoader(Paths.get(args[0]));
+        loader.load(bodies);
+        writeBinary(bodies, Paths.get(args[1]), loader.hasColors());
+        System.out.println("Converted "+loader.getCount()+" bodies in "+String.format("%.2f", (System.nanoTime() - start)/1e9)+" s");
+    }
+}
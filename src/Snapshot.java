@@ -0,0 +1,106 @@
+/**
+ * An immutable copy of what is needed to draw the system at one step: id, position, radius and color of every body.
+ * Bodies are stored back to front (ascending z), so a renderer can paint them in order without sorting.
+ * Snapshots are built on the simulation thread and handed to readers through a SnapshotPublisher.
+ */
+public final class Snapshot implements RenderFrame
+{
+    /**A snapshot of an empty system*/
+    public static final Snapshot EMPTY = new Snapshot(0, 0, new int[0], new float[0], new float[0], new float[0], new float[0], new int[0]);
+
+    /**Number of bodies*/
+    public final int count;
+    /**Simulation step the snapshot was taken after*/
+    public final long step;
+    /**Permanent id of each body*/
+    private final int[] id;
+    /**Position in meters, ordered by ascending z*/
+    private final float[] x, y, z;
+    /**Radius in meters*/
+    private final float[] radius;
+    /**Color packed as 0xRRGGBB*/
+    private final int[] color;
+
+    private Snapshot(int count, long step, int[] id, float[] x, float[] y, float[] z, float[] radius, int[] color)
+    {
+        this.count = count;
+        this.step = step;
+        this.id = id;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.radius = radius;
+        this.color = color;
+    }
+
+    /**Copies the live bodies of a store, sorting them by depth.
+     * @param bodies The store to copy
+     * @param step The current step count*/
+    public static Snapshot of(BodyStore bodies, long step)
+    {
+        return of(bodies, step, new DepthOrder());
+    }
+
+    /**Copies the live bodies of a store in depth order, updating an order kept from the previous snapshot.
+     * @param bodies The store to copy
+     * @param step The current step count
+     * @param order The depth order of the previous snapshot of this store*/
+    public static Snapshot of(BodyStore bodies, long step, DepthOrder order)
+    {
+        order.update(bodies);
+        int n = order.getCount();
+        float[] x = new float[n], y = new float[n], z = new float[n], radius = new float[n];
+        int[] id = new int[n], color = new int[n];
+        for (int k = 0; k < n; k++)
+        {
+            int i = order.slot(k);
+            id[k] = bodies.id[i];
+            x[k] = (float) bodies.x[i];
+            y[k] = (float) bodies.y[i];
+            z[k] = (float) bodies.z[i];
+            radius[k] = (float) bodies.size[i];
+            color[k] = bodies.color[i];
+        }
+        return new Snapshot(n, step, id, x, y, z, radius, color);
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public long getStep()
+    {
+        return step;
+    }
+
+    public int getId(int k)
+    {
+        return id[k];
+    }
+
+    public double getX(int k)
+    {
+        return x[k];
+    }
+
+    public double getY(int k)
+    {
+        return y[k];
+    }
+
+    public double getZ(int k)
+    {
+        return z[k];
+    }
+
+    public double getRadius(int k)
+    {
+        return radius[k];
+    }
+
+    public int getColor(int k)
+    {
+        return color[k];
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands the latest complete Snapshot from the simulation thread to any number of readers, such as the EDT.
+ * Publishing is a single atomic swap, so readers never block the simulation or see a partly written state,
+ * and the simulation step rate is independent of the frame rate.
+ */
+public class SnapshotPublisher
+{
+    private final AtomicReference<Snapshot> latest = new AtomicReference<Snapshot>(Snapshot.EMPTY);
+    /**Minimum time between automatic snapshots in nanoseconds; 0 publishes every step, negative never publishes automatically*/
+    private volatile long intervalNanos = -1;
+    private long lastPublish;
+    /**Depth order of the last snapshot, kept so the next one only needs a nearly-sorted pass*/
+    private final DepthOrder order = new DepthOrder();
+
+    /**Sets how often maybePublish() takes a snapshot.
+     * @param nanos Minimum time between snapshots; 0 for every step, negative to disable*/
+    public void setInterval(long nanos)
+    {
+        intervalNanos = nanos;
+    }
+
+    /**Publishes a snapshot if the interval has elapsed since the last one. Called by the simulation after each step.*/
+    public void maybePublish(BodyStore bodies, long step)
+    {
+        long interval = intervalNanos;
+        if (interval < 0)
+        {
+            return;
+        }
+        long now = System.nanoTime();
+        if (interval == 0 || now - lastPublish >= interval)
+        {
+            lastPublish = now;
+            publish(bodies, step);
+        }
+    }
+
+    /**Takes and publishes a snapshot now. Must be called from the thread that updates the store.*/
+    public void publish(BodyStore bodies, long step)
+    {
+        latest.set(Snapshot.of(bodies, step, order));
+    }
+
+    /**The most recently published snapshot; never null.*/
+    public Snapshot latest()
+    {
+        return latest.get();
+    }
+}
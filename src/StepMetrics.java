@@ -0,0 +1,285 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Counters and timers for each phase of SystemSimulator.updateSystem(), plus frame render times.
+ * Only the simulation thread records step phases and only the EDT records frames, so every field has a single writer.
+ * Readers (JMX, the log line) may see a step's values partly updated, which is fine for monitoring.
+ * When metrics are off the simulator holds no StepMetrics and pays only a null check per phase.
+ */
+public class StepMetrics implements StepMetricsMBean
+{
+    public static final int FORCE = 0;
+    public static final int INTEGRATION = 1;
+    public static final int COLLISION = 2;
+    public static final int MERGE = 3;
+    public static final int REMOVAL = 4;
+    public static final int PUBLISH = 5;
+    /**Energy and momentum sampling by ConservationMonitor*/
+    public static final int CONSERVATION = 6;
+    private static final String[] PHASE_NAMES = {"force", "integrate", "collide", "merge", "remove", "publish", "conserve"};
+
+    private final long[] phaseNanos = new long[PHASE_NAMES.length];
+    private final long[] lastPhaseNanos = new long[PHASE_NAMES.length];
+    private volatile long steps;
+    private volatile int bodiesAlive;
+    private volatile long pairInteractions;
+    private volatile long lastStepPairInteractions;
+    private volatile long merges;
+    private volatile long bodiesRemoved;
+    private volatile long lastStepNanos;
+    private volatile long frames;
+    private volatile long renderNanos;
+    private long mergeNanosThisStep;
+    private long stepStart;
+
+    /**Seconds between log lines; 0 or less disables logging*/
+    private final double logSeconds;
+    private long lastLog;
+    private long stepsAtLastLog;
+    private volatile double stepsPerSecond;
+    private long rateStart;
+    private long stepsAtRateStart;
+
+    /**@param logSeconds Seconds between periodic log lines on standard out; 0 or less for none*/
+    public StepMetrics(double logSeconds)
+    {
+        this.logSeconds = logSeconds;
+        lastLog = rateStart = System.nanoTime();
+    }
+
+    /**Registers this object with the platform MBean server as orbsim:type=StepMetrics, replacing any earlier registration.*/
+    public void register()
+    {
+        try
+        {
+            ObjectName name = new ObjectName("orbsim:type=StepMetrics");
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        }
+        catch (JMException e)
+        {
+            System.out.println("Metrics not registered with JMX: "+e.getMessage());
+        }
+    }
+
+    /**Marks the start of a step.
+     * @return The current time, to pass to lap()*/
+    public long startStep()
+    {
+        mergeNanosThisStep = 0;
+        stepStart = System.nanoTime();
+        return stepStart;
+    }
+
+    /**Charges the time since since to a phase.
+     * @return The current time, to pass to the next lap()*/
+    public long lap(int phase, long since)
+    {
+        long now = System.nanoTime();
+        long elapsed = now - since;
+        if (phase == COLLISION)
+        {
+            //Merges happen inside the collision pass and are timed separately
+            elapsed -= mergeNanosThisStep;
+        }
+        phaseNanos[phase] += elapsed;
+        lastPhaseNanos[phase] = elapsed;
+        return now;
+    }
+
+    /**Records one merge and the time it took.*/
+    public void merged(long nanos)
+    {
+        mergeNanosThisStep += nanos;
+        phaseNanos[MERGE] += nanos;
+        merges++;
+    }
+
+    public void interactions(long count)
+    {
+        lastStepPairInteractions = count;
+        pairInteractions += count;
+    }
+
+    public void removed(int count)
+    {
+        bodiesRemoved += count;
+    }
+
+    /**Marks the end of a step and logs if the log interval has passed.
+     * @param alive Number of bodies left after the step*/
+    public void endStep(int alive)
+    {
+        long now = System.nanoTime();
+        lastPhaseNanos[MERGE] = mergeNanosThisStep;
+        lastStepNanos = now - stepStart;
+        bodiesAlive = alive;
+        steps++;
+        if (now - rateStart >= 1000000000L)
+        {
+            stepsPerSecond = (steps - stepsAtRateStart)/((now - rateStart)/1e9);
+            rateStart = now;
+            stepsAtRateStart = steps;
+        }
+        if (logSeconds > 0 && now - lastLog >= logSeconds*1e9)
+        {
+            log(now);
+        }
+    }
+
+    /**Records the time taken to paint one frame.*/
+    public void frameRendered(long nanos)
+    {
+        renderNanos += nanos;
+        frames++;
+    }
+
+    private void log(long now)
+    {
+        double rate = (steps - stepsAtLastLog)/((now - lastLog)/1e9);
+        long total = 0;
+        for (long t : phaseNanos)
+        {
+            total += t;
+        }
+        StringBuilder line = new StringBuilder("Metrics: step ").append(steps)
+                .append(String.format(" | %.1f steps/s | bodies %d | pairs/step %d |", rate, bodiesAlive, lastStepPairInteractions));
+        for (int p = 0; p < PHASE_NAMES.length; p++)
+        {
+            line.append(String.format(" %s %.1f%%", PHASE_NAMES[p], total > 0 ? 100.0*phaseNanos[p]/total : 0));
+        }
+        if (frames > 0)
+        {
+            line.append(String.format(" | render %.2f ms/frame", renderNanos/1e6/frames));
+        }
+        System.out.println(line);
+        lastLog = now;
+        stepsAtLastLog = steps;
+    }
+
+    /**Time spent in a phase during the last step, in nanoseconds.*/
+    public long getLastPhaseNanos(int phase)
+    {
+        return lastPhaseNanos[phase];
+    }
+
+    public long getSteps()
+    {
+        return steps;
+    }
+
+    public double getStepsPerSecond()
+    {
+        return stepsPerSecond;
+    }
+
+    public int getBodiesAlive()
+    {
+        return bodiesAlive;
+    }
+
+    public long getPairInteractions()
+    {
+        return pairInteractions;
+    }
+
+    public long getLastStepPairInteractions()
+    {
+        return lastStepPairInteractions;
+    }
+
+    public long getMerges()
+    {
+        return merges;
+    }
+
+    public long getBodiesRemoved()
+    {
+        return bodiesRemoved;
+    }
+
+    public double getForceMillis()
+    {
+        return phaseNanos[FORCE]/1e6;
+    }
+
+    public double getIntegrationMillis()
+    {
+        return phaseNanos[INTEGRATION]/1e6;
+    }
+
+    public double getCollisionMillis()
+    {
+        return phaseNanos[COLLISION]/1e6;
+    }
+
+    public double getMergeMillis()
+    {
+        return phaseNanos[MERGE]/1e6;
+    }
+
+    public double getRemovalMillis()
+    {
+        return phaseNanos[REMOVAL]/1e6;
+    }
+
+    public double getPublishMillis()
+    {
+        return phaseNanos[PUBLISH]/1e6;
+    }
+
+    public double getConservationMillis()
+    {
+        return phaseNanos[CONSERVATION]/1e6;
+    }
+
+    public double getMeanStepMillis()
+    {
+        long total = 0;
+        for (long t : phaseNanos)
+        {
+            total += t;
+        }
+        return steps > 0 ? total/1e6/steps : 0;
+    }
+
+    public double getLastStepMillis()
+    {
+        return lastStepNanos/1e6;
+    }
+
+    public long getFrames()
+    {
+        return frames;
+    }
+
+    public double getRenderMillis()
+    {
+        return renderNanos/1e6;
+    }
+
+    /**Zeroes every counter. Intended for use between runs; counters being updated at the same time may keep part of their old value.*/
+    public void reset()
+    {
+        for (int p = 0; p < phaseNanos.length; p++)
+        {
+            phaseNanos[p] = 0;
+            lastPhaseNanos[p] = 0;
+        }
+        steps = 0;
+        pairInteractions = 0;
+        lastStepPairInteractions = 0;
+        merges = 0;
+        bodiesRemoved = 0;
+        frames = 0;
+        renderNanos = 0;
+        stepsPerSecond = 0;
+        stepsAtLastLog = 0;
+        stepsAtRateStart = 0;
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * The JMX view of StepMetrics, registered as orbsim:type=StepMetrics. Times are totals since the last reset in milliseconds.
+ */
+public interface StepMetricsMBean
+{
+    long getSteps();
+    double getStepsPerSecond();
+    int getBodiesAlive();
+    long getPairInteractions();
+    long getLastStepPairInteractions();
+    long getMerges();
+    long getBodiesRemoved();
+    double getForceMillis();
+    double getIntegrationMillis();
+    double getCollisionMillis();
+    double getMergeMillis();
+    double getRemovalMillis();
+    double getPublishMillis();
+    double getConservationMillis();
+    double getMeanStepMillis();
+    double getLastStepMillis();
+    long getFrames();
+    double getRenderMillis();
+    void reset();
+}
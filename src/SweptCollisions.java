@@ -0,0 +1,407 @@
+import java.util.Arrays;
+
+/**
+ * Continuous collision detection: each body is treated as a sphere sweeping along the straight segment from its position
+ * at the start of the step to its position at the end, so bodies that pass through each other within one step still merge.
+ * The broad phase bins the box around each swept sphere into a spatial hash, as CollisionGrid does for the spheres alone;
+ * boxes spanning too many cells are kept in a separate list that is tested against every body.
+ * Contacts are merged in order of the time they happen within the step, into the lower slot; Body.merge() gives the
+ * merged body the identity of the lower id.
+ * A survivor continues from the contact along the mass-weighted segment of the two bodies, which ends where
+ * Body.merge() places it, and is tested again from the time of the contact onwards.
+ * Bodies whose start of step was not recorded with beginStep() are treated as not moving.
+ */
+public class SweptCollisions implements CollisionDetector
+{
+    /**Boxes spanning more cells than this along any axis go in the list of large boxes*/
+    private static final int MAX_SPAN = 4;
+
+    /**Positions at the start of the step*/
+    private double[] sx = new double[0], sy = new double[0], sz = new double[0];
+    private int startCount;
+
+    /**Head of each bucket's list of entries, or -1*/
+    private int[] bucketHead = new int[0];
+    private int mask;
+    /**Body slot held by each entry*/
+    private int[] entryBody = new int[0];
+    /**Next entry in the same bucket, or -1*/
+    private int[] entryNext = new int[0];
+    private int entryCount;
+    private double cellSize;
+    /**Slots of bodies whose boxes are too large to bin*/
+    private int[] large = new int[0];
+    private int largeCount;
+    /**Whether each slot is in the list of large boxes*/
+    private boolean[] isLarge = new boolean[0];
+
+    /**Incremented whenever a body merges, so that contacts found before are recognised as stale*/
+    private int[] version = new int[0];
+    /**Query that last tested each slot, so a body met in several cells is tested once*/
+    private int[] seen = new int[0];
+    private int query;
+
+    /**Pending contacts as a binary heap ordered by time, then slots*/
+    private double[] eventTime = new double[16];
+    private int[] eventI = new int[16], eventJ = new int[16], eventVersionI = new int[16], eventVersionJ = new int[16];
+    private int eventCount;
+
+    @Override
+    public void beginStep(BodyStore bodies)
+    {
+        int n = bodies.count;
+        if (sx.length < n)
+        {
+            int capacity = bodies.mass.length;
+            sx = new double[capacity];
+            sy = new double[capacity];
+            sz = new double[capacity];
+        }
+        System.arraycopy(bodies.x, 0, sx, 0, n);
+        System.arraycopy(bodies.y, 0, sy, 0, n);
+        System.arraycopy(bodies.z, 0, sz, 0, n);
+        startCount = n;
+    }
+
+    public void resolveCollisions(BodyStore bodies)
+    {
+        int n = bodies.count;
+        ensureCapacity(bodies.mass.length);
+        //Bodies added since beginStep() start where they are
+        for (int i = startCount; i < n; i++)
+        {
+            sx[i] = bodies.x[i];
+            sy[i] = bodies.y[i];
+            sz[i] = bodies.z[i];
+        }
+        startCount = 0;
+        Arrays.fill(version, 0, n, 0);
+        Arrays.fill(seen, 0, n, 0);
+        query = 0;
+        eventCount = 0;
+        build(bodies);
+
+        for (int i = 0; i < n; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                findContacts(bodies, i, 0, true);
+            }
+        }
+        while (eventCount > 0)
+        {
+            double t = eventTime[0];
+            int i = eventI[0], j = eventJ[0];
+            boolean current = !bodies.removed[i] && !bodies.removed[j] && version[i] == eventVersionI[0] && version[j] == eventVersionJ[0];
+            pop();
+            if (current)
+            {
+                merge(bodies, Math.min(i, j), Math.max(i, j));
+                findContacts(bodies, Math.min(i, j), t, false);
+            }
+        }
+    }
+
+    /**Merges body b into body a, giving the survivor the mass-weighted start of both segments.*/
+    private void merge(BodyStore bodies, int a, int b)
+    {
+        double total = bodies.mass[a] + bodies.mass[b];
+        double fa = bodies.mass[a]/total, fb = bodies.mass[b]/total;
+        sx[a] = sx[a]*fa + sx[b]*fb;
+        sy[a] = sy[a]*fa + sy[b]*fb;
+        sz[a] = sz[a]*fa + sz[b]*fb;
+        bodies.get(a).merge(b);
+        version[a]++;
+        insert(bodies, a);
+    }
+
+    /**Adds the first contact of body i with each body its swept box may reach, at or after time from.
+     * @param firstPass Whether this is the initial search, in which each pair is only tested from its lower slot*/
+    private void findContacts(BodyStore bodies, int i, double from, boolean firstPass)
+    {
+        query++;
+        seen[i] = query;
+        if (isLarge[i])
+        {
+            for (int j = 0; j < bodies.count; j++)
+            {
+                //In the first pass a pair of large bodies is tested from its lower slot
+                if (!bodies.removed[j] && seen[j] != query && !(firstPass && isLarge[j] && j < i))
+                {
+                    seen[j] = query;
+                    test(bodies, i, j, from);
+                }
+            }
+            return;
+        }
+        for (int k = 0; k < largeCount; k++)
+        {
+            int j = large[k];
+            //In the first pass a large body has already been tested against every other
+            if (!firstPass && !bodies.removed[j] && seen[j] != query)
+            {
+                seen[j] = query;
+                test(bodies, i, j, from);
+            }
+        }
+        double r = bodies.size[i];
+        long x0 = cell(Math.min(sx[i], bodies.x[i]) - r), x1 = cell(Math.max(sx[i], bodies.x[i]) + r);
+        long y0 = cell(Math.min(sy[i], bodies.y[i]) - r), y1 = cell(Math.max(sy[i], bodies.y[i]) + r);
+        long z0 = cell(Math.min(sz[i], bodies.z[i]) - r), z1 = cell(Math.max(sz[i], bodies.z[i]) + r);
+        for (long cx = x0; cx <= x1; cx++)
+        {
+            for (long cy = y0; cy <= y1; cy++)
+            {
+                for (long cz = z0; cz <= z1; cz++)
+                {
+                    for (int e = bucketHead[bucket(cx, cy, cz)]; e >= 0; e = entryNext[e])
+                    {
+                        int j = entryBody[e];
+                        if (seen[j] == query || bodies.removed[j] || (firstPass && j < i))
+                        {
+                            continue;
+                        }
+                        seen[j] = query;
+                        test(bodies, i, j, from);
+                    }
+                }
+            }
+        }
+    }
+
+    /**Queues the contact of bodies i and j if their swept spheres touch at or after time from.*/
+    private void test(BodyStore bodies, int i, int j, double from)
+    {
+        double t = contactTime(sx[i], sy[i], sz[i], bodies.x[i], bodies.y[i], bodies.z[i],
+                sx[j], sy[j], sz[j], bodies.x[j], bodies.y[j], bodies.z[j], bodies.size[i] + bodies.size[j], from);
+        if (t >= 0)
+        {
+            push(t, Math.min(i, j), Math.max(i, j));
+        }
+    }
+
+    /**The earliest time in [from, 1], as a fraction of the step, at which two spheres moving steadily between the given
+     * start and end positions are closer than reach, or -1 if they never are.*/
+    static double contactTime(double aStartX, double aStartY, double aStartZ, double aEndX, double aEndY, double aEndZ,
+                              double bStartX, double bStartY, double bStartZ, double bEndX, double bEndY, double bEndZ,
+                              double reach, double from)
+    {
+        //Separation at time t is d + t*v
+        double dx = bStartX - aStartX, dy = bStartY - aStartY, dz = bStartZ - aStartZ;
+        double vx = (bEndX - bStartX) - (aEndX - aStartX);
+        double vy = (bEndY - bStartY) - (aEndY - aStartY);
+        double vz = (bEndZ - bStartZ) - (aEndZ - aStartZ);
+        double a = vx*vx + vy*vy + vz*vz;
+        double b = dx*vx + dy*vy + dz*vz;
+        double c = dx*dx + dy*dy + dz*dz - reach*reach;
+        //Already touching at the start of the interval
+        double fx = dx + from*vx, fy = dy + from*vy, fz = dz + from*vz;
+        if (fx*fx + fy*fy + fz*fz < reach*reach)
+        {
+            return from;
+        }
+        if (a == 0)
+        {
+            return -1;
+        }
+        double disc = b*b - a*c;
+        if (disc <= 0)
+        {
+            return -1;
+        }
+        double t = (-b - Math.sqrt(disc))/a;
+        return t >= from && t <= 1 ? t : -1;
+    }
+
+    private void build(BodyStore bodies)
+    {
+        double largest = 0;
+        double travel = 0;
+        int live = 0;
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                largest = Math.max(largest, bodies.size[i]);
+                double dx = bodies.x[i] - sx[i], dy = bodies.y[i] - sy[i], dz = bodies.z[i] - sz[i];
+                travel += Math.sqrt(dx*dx + dy*dy + dz*dz);
+                live++;
+            }
+        }
+        //Cells fit a typical swept sphere, so most bodies land in a few cells
+        cellSize = 2*largest + (live > 0 ? travel/live : 0);
+        if (cellSize == 0)
+        {
+            cellSize = 1;
+        }
+        int buckets = Integer.highestOneBit(Math.max(live, 8)*4);
+        if (bucketHead.length != buckets)
+        {
+            bucketHead = new int[buckets];
+        }
+        Arrays.fill(bucketHead, -1);
+        mask = buckets-1;
+        entryCount = 0;
+        largeCount = 0;
+        Arrays.fill(isLarge, 0, bodies.count, false);
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                insert(bodies, i);
+            }
+        }
+    }
+
+    /**Bins the swept box of body i, or adds it to the large boxes. Entries left from before a merge are harmless,
+     * since the body is only ever tested in its current state.*/
+    private void insert(BodyStore bodies, int i)
+    {
+        if (isLarge[i])
+        {
+            return;
+        }
+        double r = bodies.size[i];
+        long x0 = cell(Math.min(sx[i], bodies.x[i]) - r), x1 = cell(Math.max(sx[i], bodies.x[i]) + r);
+        long y0 = cell(Math.min(sy[i], bodies.y[i]) - r), y1 = cell(Math.max(sy[i], bodies.y[i]) + r);
+        long z0 = cell(Math.min(sz[i], bodies.z[i]) - r), z1 = cell(Math.max(sz[i], bodies.z[i]) + r);
+        if (x1 - x0 >= MAX_SPAN || y1 - y0 >= MAX_SPAN || z1 - z0 >= MAX_SPAN)
+        {
+            isLarge[i] = true;
+            large[largeCount++] = i;
+            return;
+        }
+        for (long cx = x0; cx <= x1; cx++)
+        {
+            for (long cy = y0; cy <= y1; cy++)
+            {
+                for (long cz = z0; cz <= z1; cz++)
+                {
+                    if (entryCount == entryBody.length)
+                    {
+                        int capacity = Math.max(16, entryCount*2);
+                        entryBody = Arrays.copyOf(entryBody, capacity);
+                        entryNext = Arrays.copyOf(entryNext, capacity);
+                    }
+                    int b = bucket(cx, cy, cz);
+                    entryBody[entryCount] = i;
+                    entryNext[entryCount] = bucketHead[b];
+                    bucketHead[b] = entryCount++;
+                }
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (version.length < capacity)
+        {
+            version = new int[capacity];
+            seen = new int[capacity];
+            isLarge = new boolean[capacity];
+            large = new int[capacity];
+        }
+        if (sx.length < capacity)
+        {
+            sx = Arrays.copyOf(sx, capacity);
+            sy = Arrays.copyOf(sy, capacity);
+            sz = Arrays.copyOf(sz, capacity);
+        }
+    }
+
+    private void push(double t, int i, int j)
+    {
+        if (eventCount == eventTime.length)
+        {
+            int capacity = eventCount*2;
+            eventTime = Arrays.copyOf(eventTime, capacity);
+            eventI = Arrays.copyOf(eventI, capacity);
+            eventJ = Arrays.copyOf(eventJ, capacity);
+            eventVersionI = Arrays.copyOf(eventVersionI, capacity);
+            eventVersionJ = Arrays.copyOf(eventVersionJ, capacity);
+        }
+        int k = eventCount++;
+        set(k, t, i, j, version[i], version[j]);
+        while (k > 0)
+        {
+            int parent = (k-1) >> 1;
+            if (!before(k, parent))
+            {
+                break;
+            }
+            swap(k, parent);
+            k = parent;
+        }
+    }
+
+    /**Removes the earliest contact from the heap.*/
+    private void pop()
+    {
+        eventCount--;
+        if (eventCount == 0)
+        {
+            return;
+        }
+        swap(0, eventCount);
+        int k = 0;
+        while (true)
+        {
+            int child = 2*k + 1;
+            if (child >= eventCount)
+            {
+                break;
+            }
+            if (child + 1 < eventCount && before(child + 1, child))
+            {
+                child++;
+            }
+            if (!before(child, k))
+            {
+                break;
+            }
+            swap(k, child);
+            k = child;
+        }
+    }
+
+    private boolean before(int a, int b)
+    {
+        if (eventTime[a] != eventTime[b])
+        {
+            return eventTime[a] < eventTime[b];
+        }
+        if (eventI[a] != eventI[b])
+        {
+            return eventI[a] < eventI[b];
+        }
+        return eventJ[a] < eventJ[b];
+    }
+
+    private void set(int k, double t, int i, int j, int versionI, int versionJ)
+    {
+        eventTime[k] = t;
+        eventI[k] = i;
+        eventJ[k] = j;
+        eventVersionI[k] = versionI;
+        eventVersionJ[k] = versionJ;
+    }
+
+    private void swap(int a, int b)
+    {
+        double t = eventTime[a];
+        int i = eventI[a], j = eventJ[a], vi = eventVersionI[a], vj = eventVersionJ[a];
+        set(a, eventTime[b], eventI[b], eventJ[b], eventVersionI[b], eventVersionJ[b]);
+        set(b, t, i, j, vi, vj);
+    }
+
+    private long cell(double coordinate)
+    {
+        return (long) Math.floor(coordinate/cellSize);
+    }
+
+    private int bucket(long cx, long cy, long cz)
+    {
+        long h = cx*73856093L ^ cy*19349663L ^ cz*83492791L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.Arrays;
+
+/**
+ * Exact direct summation that visits each unordered pair of bodies once and applies equal and opposite
+ * contributions to both, using Newton's third law. This does half the work of DirectForceEngine.
+ * An optional Plummer softening length keeps close encounters from producing near-singular accelerations.
+ */
+public class SymmetricForceEngine implements ForceEngine
+{
+    /**Plummer softening length in meters; 0 gives exact Newtonian gravity*/
+    private double softening;
+    private double softeningSq;
+    private long interactions;
+
+    /**Creates an engine without softening.*/
+    public SymmetricForceEngine()
+    {
+        this(0);
+    }
+
+    /**Creates an engine with the given softening length.
+     * @param softeningLength Plummer softening length in meters*/
+    public SymmetricForceEngine(double softeningLength)
+    {
+        setSoftening(softeningLength);
+    }
+
+    public double getSoftening()
+    {
+        return softening;
+    }
+
+    public void setSoftening(double softeningLength)
+    {
+        softening = softeningLength;
+        softeningSq = softeningLength*softeningLength;
+    }
+
+    /**Pairs are visited in a fixed order on the calling thread, since both bodies of a pair are written.*/
+    public void computeAccelerations(BodyStore bodies)
+    {
+        int n = bodies.count;
+        double[] x = bodies.x, y = bodies.y, z = bodies.z, mass = bodies.mass;
+        double[] ax = bodies.ax, ay = bodies.ay, az = bodies.az, potential = bodies.potential;
+        boolean[] removed = bodies.removed;
+        double G = bodies.G;
+        double eps2 = softeningSq;
+        Arrays.fill(ax, 0, n, 0);
+        Arrays.fill(ay, 0, n, 0);
+        Arrays.fill(az, 0, n, 0);
+        Arrays.fill(potential, 0, n, 0);
+        for (int i = 0; i < n; i++)
+        {
+            if (removed[i])
+            {
+                continue;
+            }
+            double xi = x[i], yi = y[i], zi = z[i];
+            double gmi = G*mass[i];
+            double sumX = 0, sumY = 0, sumZ = 0, sumP = 0;
+            for (int j = i+1; j < n; j++)
+            {
+                if (removed[j])
+                {
+                    continue;
+                }
+                double dx = x[j] - xi;
+                double dy = y[j] - yi;
+                double dz = z[j] - zi;
+                double invDist = 1/Math.sqrt(dx*dx + dy*dy + dz*dz + eps2);
+                double invDistCubed = invDist*invDist*invDist;
+                //Pull on i towards j, and the equal and opposite pull on j
+                double si = G*mass[j]*invDistCubed;
+                double sj = gmi*invDistCubed;
+                sumX += dx*si;
+                sumY += dy*si;
+                sumZ += dz*si;
+                ax[j] -= dx*sj;
+                ay[j] -= dy*sj;
+                az[j] -= dz*sj;
+                sumP -= G*mass[j]*invDist;
+                potential[j] -= gmi*invDist;
+            }
+            ax[i] += sumX;
+            ay[i] += sumY;
+            az[i] += sumZ;
+            potential[i] += sumP;
+        }
+        long live = bodies.liveCount();
+        interactions = live*(live-1)/2;
+    }
+
+    public long getInteractionCount()
+    {
+        return interactions;
+    }
+}
@@ -1,12 +1,18 @@
 import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * This class runs the animation itself.
  * Most of its methods are simple overrides of Runnable that keep the simulation running.
- * Creates a single SystemSimulator by default, but the addition of multiple could allow for comparison of initial conditions.
+ * Creates a single SystemSimulator by default; each simulator holds its own state, so EnsembleRunner can compare
+ * many initial conditions side by side.
+ * Can instead replay a recording made by TrajectoryRecorder, in which case no SystemSimulator is created.
  */
 public class SystemAnimator extends JPanel
         implements Runnable, ActionListener
@@ -15,8 +21,14 @@ public class SystemAnimator extends JPanel
     public static final int B_HEIGHT = 900;
     public static final int B_DEPTH = 900;
     private final int DELAY = 1;
+    /**Target frame rate of the display, independent of the simulation step rate*/
+    private final int FPS = 60;
 
     private Thread animator;
+    /**Repaints from the latest snapshot at the frame rate*/
+    private Timer frameTimer;
+    /**Set by the reset button on the EDT and acted on by the animator thread between steps*/
+    private volatile boolean resetRequested = false;
 
     //Create JPanels for each button
     JPanel resetPanel = new JPanel();
@@ -24,15 +36,52 @@ public class SystemAnimator extends JPanel
     //Create reset button
     JButton resetButton = new JButton("Reset");
 
+    /**Replay controls*/
+    JSlider seekSlider;
+    JComboBox<Double> speedBox;
+
+    /**The simulation being animated, or null when replaying*/
+    public final SystemSimulator sysSim;
+    /**The recording being replayed, or null when simulating*/
+    private final TrajectoryReader replay;
+    /**Current replay frame; fractional so slow speeds still advance*/
+    private double replayPosition = 0;
+    /**Recorded frames shown per display frame*/
+    private double replaySpeed = 1;
+    /**Set while the slider is being moved by the replay rather than the user*/
+    private boolean updatingSlider = false;
+    /**Paints frames into an image the size of the window; used only on the EDT*/
+    private final RasterRenderer renderer = new RasterRenderer(B_WIDTH, B_HEIGHT);
+
     public SystemAnimator()
     {
+        sysSim = new SystemSimulator();
+        replay = null;
         initBoard();
     }
 
-    public SystemSimulator sysSim = new SystemSimulator();
+    /**Creates an animator that replays a recorded trajectory instead of simulating.
+     * @param recording The recording to replay
+     * @param speed Recorded frames shown per display frame*/
+    public SystemAnimator(TrajectoryReader recording, double speed)
+    {
+        sysSim = null;
+        replay = recording;
+        replaySpeed = speed;
+        initBoard();
+    }
 
     private void initBoard()
     {
+        if (replay != null)
+        {
+            initReplayControls();
+        }
+        else
+        {
+            initSimulation();
+        }
+
         //Name the action message used by the reset button
         //Add SystemDrawer as the ActionListener of the button
         resetButton.setActionCommand("reset");
@@ -47,19 +96,140 @@ public class SystemAnimator extends JPanel
         resetPanel.add(resetButton);
         add(resetPanel);
         resetPanel.setBounds(0, 0, 100, 50);
+        if (replay != null)
+        {
+            add(seekSlider);
+            seekSlider.setBounds(110, B_HEIGHT-40, B_WIDTH-240, 30);
+            add(speedBox);
+            speedBox.setBounds(B_WIDTH-120, B_HEIGHT-40, 100, 30);
+        }
 
         setBackground(Color.BLACK);
         setPreferredSize(new Dimension(B_WIDTH, B_HEIGHT));
         setDoubleBuffered(true);
     }
 
+    private void initReplayControls()
+    {
+        seekSlider = new JSlider(0, Math.max(0, replay.getFrameCount()-1), 0);
+        seekSlider.setOpaque(false);
+        seekSlider.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                if (!updatingSlider)
+                {
+                    replayPosition = seekSlider.getValue();
+                }
+            }
+        });
+        speedBox = new JComboBox<Double>(new Double[]{0.0, 0.25, 0.5, 1.0, 2.0, 4.0, 8.0, 16.0});
+        speedBox.setSelectedItem(replaySpeed);
+        speedBox.setEditable(true);
+        speedBox.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                Object speed = speedBox.getSelectedItem();
+                replaySpeed = speed instanceof Number ? ((Number) speed).doubleValue() : Double.parseDouble(speed.toString());
+            }
+        });
+    }
+
+    private void initSimulation()
+    {
+        //-Dorbsim.scenario=<file> starts from a scenario file instead of the random system
+        String scenario = System.getProperty("orbsim.scenario");
+        if (scenario != null)
+        {
+            try
+            {
+                sysSim.loadScenario(Paths.get(scenario));
+            }
+            catch (IOException e)
+            {
+                System.out.println("Scenario not loaded: "+e.getMessage());
+            }
+        }
+        //Spread force evaluation over every core
+        sysSim.setThreads(Runtime.getRuntime().availableProcessors());
+        //Publish a snapshot for each frame; the EDT never touches the live bodies
+        sysSim.snapshots.setInterval(1000000000L/FPS);
+        sysSim.snapshots.publish(sysSim.bodies, 0);
+        //-Dorbsim.integrator=ab3|leapfrog|yoshida|hermite picks the integration method
+        String integrator = System.getProperty("orbsim.integrator");
+        if (integrator != null)
+        {
+            sysSim.integrator = HeadlessRunner.createIntegrator(integrator);
+        }
+        //-Dorbsim.autoTune=true picks the fastest force engine and collision detector as bodies merge; see AutoTuner
+        if (Boolean.getBoolean("orbsim.autoTune"))
+        {
+            try
+            {
+                AutoTuner tuner = new AutoTuner(sysSim, System.getProperty("orbsim.autoTuneLog"), 0);
+                sysSim.forceEngine = tuner.forceEngine;
+                sysSim.collisionDetector = tuner.collisionDetector;
+            }
+            catch (IOException e)
+            {
+                System.out.println("Not auto-tuning: "+e.getMessage());
+            }
+        }
+        //-Dorbsim.metrics=<seconds between log lines> turns on step metrics, 0 for JMX only
+        String metricsSeconds = System.getProperty("orbsim.metrics");
+        if (metricsSeconds != null)
+        {
+            sysSim.enableMetrics(Double.parseDouble(metricsSeconds));
+        }
+        //-Dorbsim.telemetry=<port> serves the run to viewers on that loopback port; see TelemetryServer
+        String telemetry = System.getProperty("orbsim.telemetry");
+        if (telemetry != null)
+        {
+            try
+            {
+                sysSim.telemetry = new TelemetryServer(Integer.parseInt(telemetry), FPS, sysSim.spaceCompression/16);
+            }
+            catch (IOException e)
+            {
+                System.out.println("No telemetry: "+e.getMessage());
+            }
+        }
+        //-Dorbsim.record=<file> records the run for replay, one frame every -Dorbsim.recordEvery steps
+        String record = System.getProperty("orbsim.record");
+        if (record != null)
+        {
+            try
+            {
+                sysSim.recorder = new TrajectoryRecorder(Paths.get(record), Integer.getInteger("orbsim.recordEvery", 1), sysSim);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Not recording: "+e.getMessage());
+            }
+        }
+    }
+
     @Override
     public void addNotify()
     {
         super.addNotify();
 
-        animator = new Thread(this);
-        animator.start();
+        if (replay == null)
+        {
+            animator = new Thread(this);
+            animator.start();
+        }
+
+        frameTimer = new Timer(1000/FPS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (replay != null)
+                {
+                    advanceReplay();
+                }
+                repaint();
+            }
+        });
+        frameTimer.start();
     }
 
     @Override
@@ -68,7 +238,33 @@ public class SystemAnimator extends JPanel
         super.paintComponent(g);
         Graphics2D g2 = (Graphics2D)g;
 
-        sysSim.draw(g2);
+        if (replay != null)
+        {
+            TrajectoryReader.Frame frame = replay.frame((int) replayPosition);
+            renderer.render(frame, replay.spaceCompression);
+            g2.drawImage(renderer.getImage(), 0, 0, null);
+            g2.setColor(Color.WHITE);
+            g2.drawString("Frame "+(int) replayPosition+"/"+(replay.getFrameCount()-1)+"  Year: "+String.format("%.2f", frame.getStep()*replay.timeCompression/(365*86400))+"  Bodies: "+frame.getCount(), 110, 20);
+            return;
+        }
+        StepMetrics metrics = sysSim.getMetrics();
+        long start = metrics != null ? System.nanoTime() : 0;
+        renderer.render(sysSim.snapshots.latest(), sysSim.spaceCompression);
+        g2.drawImage(renderer.getImage(), 0, 0, null);
+        if (metrics != null)
+        {
+            metrics.frameRendered(System.nanoTime() - start);
+        }
+    }
+
+    /**Moves the replay on by one display frame at the current speed, stopping at the last frame.*/
+    private void advanceReplay()
+    {
+        int last = replay.getFrameCount()-1;
+        replayPosition = Math.min(last, replayPosition + replaySpeed);
+        updatingSlider = true;
+        seekSlider.setValue((int) replayPosition);
+        updatingSlider = false;
     }
 
     @Override
@@ -81,6 +277,11 @@ public class SystemAnimator extends JPanel
 
         while (true)
         {
+            if (resetRequested)
+            {
+                resetRequested = false;
+                sysSim.reset();
+            }
             try
             {
                 sysSim.updateSystem();
@@ -89,7 +290,6 @@ public class SystemAnimator extends JPanel
             {
                 System.out.println("SYSTEM DROPPED SIM STEP");
             }
-            repaint();
 
             timeDiff = System.currentTimeMillis() - beforeTime;
             sleep = DELAY - timeDiff;
@@ -115,7 +315,14 @@ public class SystemAnimator extends JPanel
     public void actionPerformed(ActionEvent e) {
         if ("reset".equals(e.getActionCommand()))
         {
-            sysSim.reset();
+            if (replay != null)
+            {
+                replayPosition = 0;
+            }
+            else
+            {
+                resetRequested = true;
+            }
         }
     }
 }
\ No newline at end of file
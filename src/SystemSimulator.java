@@ -1,40 +1,138 @@
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Random;
 
 /**
  * SystemSimulator handles the simulation for a group of Bodies.
- * It is responsible for updating their position and velocity through numerical linear multistep integration.
+ * It is responsible for updating their position and velocity through numerical integration; see Integrator.
  */
 public class SystemSimulator
 {
-    /**Bodies are stored in this ArrayList; this is how the simulator keeps track of them.
-     * Any number of bodies can be added.*/
-    public static List<Body> bodies = new ArrayList<Body>();
-    /**The universal gravitational constant.*/
-    public static double G = 6.673*Math.pow(10,-11);
+    /**Bodies are stored in this BodyStore; this is how the simulator keeps track of them.
+     * Any number of bodies can be added. The store also holds G and the other constants the bodies' physics needs.*/
+    public final BodyStore bodies = new BodyStore(1024);
     /**A conversion factor from pixels to meter; each pixel is equal to this number of meters.*/
-    public static double spaceCompression = 1000000000;
+    public double spaceCompression = 1000000000;
     /**A conversion factor from each frame in the simulation to seconds; each frame is equal to this number of seconds*/
-    public static double timeCompression = 86400/2;
+    public double timeCompression = 86400/2;
+    /**Whether to print the simulated year as it passes*/
+    public boolean logYears = true;
     /**Keeps track of how many frames have passed; used to pick an integration method and for timekeeping*/
     private int stepCount = 0;
-    public static double maxSize;
-    public static int initNumBodies;
+    /**Per-phase counters and timers for updateSystem(); null when metrics are off*/
+    private StepMetrics metrics;
+    /**Advances the bodies from the accelerations of each force pass; the Euler, AB2 and AB3 start-up unless replaced*/
+    public Integrator integrator = new AdamsBashforthIntegrator();
+    /**Computes the accelerations used by the integrators each step; direct summation unless replaced, e.g. by an OctreeForceEngine*/
+    public ForceEngine forceEngine = new DirectForceEngine();
+    /**Finds and merges colliding bodies after each step*/
+    public CollisionDetector collisionDetector = new CollisionGrid();
+    /**Publishes snapshots of the system for renderers on other threads*/
+    public final SnapshotPublisher snapshots = new SnapshotPublisher();
+    /**Streams the state to viewers over the network; null when off*/
+    public TelemetryServer telemetry;
+    /**Records the trajectory for later replay; null when not recording*/
+    public TrajectoryRecorder recorder;
+    /**Samples energy and momentum conservation using the potential from the force pass, so the sample for step N describes
+     * the state after N steps; null when off*/
+    public ConservationMonitor conservation;
+    /**Advances the bodies with individual power-of-two time steps instead of forceEngine and the shared integrators; null when off*/
+    private BlockTimeStepper blockStepper;
+    /**The scenario the bodies were loaded from, reloaded by reset(); null for the random system*/
+    private ScenarioLoader scenario;
+    /**Renderer for draw(), created on first use*/
+    private RasterRenderer raster;
+    /**Depth order of the bodies for draw(), kept apart from the one snapshots uses*/
+    private final DepthOrder drawOrder = new DepthOrder();
+    /**The bodies in drawOrder, read in place so draw() copies nothing*/
+    private final RenderFrame drawFrame = new RenderFrame() {
+        @Override
+        public int getCount() {
+            return drawOrder.getCount();
+        }
+
+        @Override
+        public long getStep() {
+            return stepCount;
+        }
+
+        @Override
+        public int getId(int k) {
+            return bodies.id[drawOrder.slot(k)];
+        }
+
+        @Override
+        public double getX(int k) {
+            return bodies.x[drawOrder.slot(k)];
+        }
+
+        @Override
+        public double getY(int k) {
+            return bodies.y[drawOrder.slot(k)];
+        }
+
+        @Override
+        public double getZ(int k) {
+            return bodies.z[drawOrder.slot(k)];
+        }
+
+        @Override
+        public double getRadius(int k) {
+            return bodies.size[drawOrder.slot(k)];
+        }
+
+        @Override
+        public int getColor(int k) {
+            return bodies.color[drawOrder.slot(k)];
+        }
+    };
+    /**Threads used for force evaluation and integration; null runs the whole step on the calling thread*/
+    private WorkerPool workers;
+    private final WorkerPool.RangeTask integrateTask = new WorkerPool.RangeTask() {
+        @Override
+        public void run(int from, int to, int worker) {
+            for (int i = from; i < to; i++)
+            {
+                integrator.advance(bodies, i, stepCount, timeCompression);
+            }
+        }
+    };
 
     /**Accepts no parameters, populates bodies with contents of populateSystem().*/
     public SystemSimulator()
     {
-        populateSystem(1);
+        this(1);
+    }
+
+    /**Populates bodies with contents of populateSystem(seed).
+     * @param seed Seed for the random initial conditions*/
+    public SystemSimulator(int seed)
+    {
+        populateSystem(seed);
+    }
+
+    /**Populates bodies from a scenario file instead of the random system; see loadScenario().*/
+    public SystemSimulator(Path scenario) throws IOException
+    {
+        loadScenario(scenario);
     }
 
-    /**Creates the Body objects and adds them to the bodies ArrayList.
+    /**Populates bodies through a loader set up by the caller, e.g. to keep one slab of the file; see loadScenario().*/
+    public SystemSimulator(ScenarioLoader scenario) throws IOException
+    {
+        loadScenario(scenario);
+    }
+
+    /**Creates the Body objects and adds them to the bodies store.
      * Once the simulation is launched, bodies can only be removed (through collision)*/
     public void populateSystem(int seed)
     {
         double maxI = 2.9;
+        double maxSize = 0;
         Random rand = new Random(seed);
         for (int i = 0; i < maxI*16; i++)
         {
@@ -49,178 +147,353 @@ public class SystemSimulator
                 double r7 = rand.nextDouble();
                 double r8 = rand.nextDouble();
                 double r9 = rand.nextDouble();
-                bodies.add(new Body(Integer.toString(i)+"."+Integer.toString(j), 2*((r1+1)/2)*Math.pow(10, 27), 1000000000*((r2+1)/2), new Vector3D(r3*SystemAnimator.B_WIDTH*SystemSimulator.spaceCompression, r4*SystemAnimator.B_HEIGHT*SystemSimulator.spaceCompression, r7*SystemAnimator.B_DEPTH*SystemSimulator.spaceCompression), new Vector3D((2-1)*20000*((r4-0.5)), (2-1)*20000*-((r3-0.5)), (r8*2-1.1)*10000), new int[]{0, 0, (int)(255*r9)}));
+                double size = 1000000000*((r2+1)/2);
+                maxSize = Math.max(maxSize, size);
+                bodies.add(Integer.toString(i)+"."+Integer.toString(j), 2*((r1+1)/2)*Math.pow(10, 27), size, new Vector3D(r3*SystemAnimator.B_WIDTH*spaceCompression, r4*SystemAnimator.B_HEIGHT*spaceCompression, r7*SystemAnimator.B_DEPTH*spaceCompression), new Vector3D((2-1)*20000*((r4-0.5)), (2-1)*20000*-((r3-0.5)), (r8*2-1.1)*10000), new int[]{0, 0, (int)(255*r9)});
             }
         }
-        /*bodies.add(new Body("Sun", 1.988*Math.pow(10, 30), 6.955*Math.pow(10, 8), new Vector3D(50*11 * SystemSimulator.spaceCompression, 50*7 * SystemSimulator.spaceCompression, 0), new Vector3D(0,0,0), new int[]{255, 255, 128}));
-        bodies.add(new Body("Mercury", 3.301*Math.pow(10, 23), 2.439*Math.pow(10, 6), new Vector3D(50*11*SystemSimulator.spaceCompression+6.389*Math.pow(10,10), 50*7 * SystemSimulator.spaceCompression, 0), new Vector3D(0,44150,0), new int[]{255, 200, 0}));
-        bodies.add(new Body("Venus", 4.867*Math.pow(10, 24), 6.051*Math.pow(10, 6), new Vector3D(50*11*SystemSimulator.spaceCompression+1.0828*Math.pow(10,11), 50*7 * SystemSimulator.spaceCompression, 0), new Vector3D(0,-34990,0), new int[]{255, 128, 0}));
-        bodies.add(new Body("Earth", 5.972*Math.pow(10, 24), 6.367*Math.pow(10, 6), new Vector3D(50*11*SystemSimulator.spaceCompression+1.496*Math.pow(10,11), 50*7 * SystemSimulator.spaceCompression, 0), new Vector3D(0,0,29800), new int[]{0, 255, 255}));
-        bodies.add(new Body("Mars", 6.4169*Math.pow(10, 23), 3.396*Math.pow(10, 6), new Vector3D(50*11*SystemSimulator.spaceCompression+2.1138*Math.pow(10,11), 50*7 * SystemSimulator.spaceCompression, 0), new Vector3D(0,18349.420971790908258201911196621,18349.420971790908258201911196621), new int[]{255, 0, 0}));*/
-        //bodies.add(new Body("Test1", Math.pow(10,30), 5*Math.pow(10,8), new Vector3D(50*10 * SystemSimulator.spaceCompression, 50*7 * SystemSimulator.spaceCompression, 0), new Vector3D(0,0,0), new int[]{255, 0, 0}));
-        //bodies.add(new Body("Test2", Math.pow(10,30), 5*Math.pow(10,8), new Vector3D(50*12 * SystemSimulator.spaceCompression, 50*7 * SystemSimulator.spaceCompression, 0), new Vector3D(0,0,0), new int[]{0, 0, 255}));
-        colorDimension();
+        /*bodies.add(new Body("Sun", 1.988*Math.pow(10, 30), 6.955*Math.pow(10, 8), new Vector3D(50*11 * spaceCompression, 50*7 * spaceCompression, 0), new Vector3D(0,0,0), new int[]{255, 255, 128}));
+        bodies.add(new Body("Mercury", 3.301*Math.pow(10, 23), 2.439*Math.pow(10, 6), new Vector3D(50*11*spaceCompression+6.389*Math.pow(10,10), 50*7 * spaceCompression, 0), new Vector3D(0,44150,0), new int[]{255, 200, 0}));
+        bodies.add(new Body("Venus", 4.867*Math.pow(10, 24), 6.051*Math.pow(10, 6), new Vector3D(50*11*spaceCompression+1.0828*Math.pow(10,11), 50*7 * spaceCompression, 0), new Vector3D(0,-34990,0), new int[]{255, 128, 0}));
+        bodies.add(new Body("Earth", 5.972*Math.pow(10, 24), 6.367*Math.pow(10, 6), new Vector3D(50*11*spaceCompression+1.496*Math.pow(10,11), 50*7 * spaceCompression, 0), new Vector3D(0,0,29800), new int[]{0, 255, 255}));
+        bodies.add(new Body("Mars", 6.4169*Math.pow(10, 23), 3.396*Math.pow(10, 6), new Vector3D(50*11*spaceCompression+2.1138*Math.pow(10,11), 50*7 * spaceCompression, 0), new Vector3D(0,18349.420971790908258201911196621,18349.420971790908258201911196621), new int[]{255, 0, 0}));*/
+        //bodies.add(new Body("Test1", Math.pow(10,30), 5*Math.pow(10,8), new Vector3D(50*10 * spaceCompression, 50*7 * spaceCompression, 0), new Vector3D(0,0,0), new int[]{255, 0, 0}));
+        //bodies.add(new Body("Test2", Math.pow(10,30), 5*Math.pow(10,8), new Vector3D(50*12 * spaceCompression, 50*7 * spaceCompression, 0), new Vector3D(0,0,0), new int[]{0, 0, 255}));
+        colorDimension(maxSize);
         //System.out.println(bodies.size());
-        initNumBodies = bodies.size();
+        bodies.initNumBodies = bodies.count;
     }
 
+    /**Replaces the red and green of each body's color with its size relative to the largest.*/
     public void colorDimension()
     {
-        bodies.sort(new Comparator<Body>() {
-            @Override
-            public int compare(Body o1, Body o2) {
-                if (o1.size<o2.size)
-                {
-                    return 1;
-                }
-                else if (o2.size<o1.size)
-                {
-                    return -1;
-                }
-                else
-                {
-                    return 0;
-                }
-            }
-        });
-        maxSize=bodies.get(0).size;
-        for (Body body : bodies)
+        double maxSize=0;
+        for (int i = 0; i < bodies.count; i++)
         {
-            double relativeSize = body.size/SystemSimulator.maxSize;
+            maxSize=Math.max(maxSize, bodies.size[i]);
+        }
+        colorDimension(maxSize);
+    }
+
+    /**As colorDimension(), for a caller that already tracked the largest radius while adding the bodies.*/
+    public void colorDimension(double maxSize)
+    {
+        bodies.maxSize = maxSize;
+        for (int i = 0; i < bodies.count; i++)
+        {
+            double relativeSize = bodies.size[i]/maxSize;
+            int blue = BodyStore.blue(bodies.color[i]);
             //System.out.println(relativeSize);
             if (relativeSize<=1)
             {
-                body.color = new int[]{(int)(relativeSize*255), 0, body.color[2]};
+                bodies.color[i] = BodyStore.packColor((int)(relativeSize*255), 0, blue);
             }
             else
             {
-                System.out.println("g "+(int)((255D/SystemSimulator.initNumBodies)*(int)(relativeSize)));
-                body.color = new int[]{(int)(255*(relativeSize/Math.ceil(relativeSize))), (int)((255D/SystemSimulator.initNumBodies)*(int)(relativeSize)), body.color[2]};
+                System.out.println("g "+(int)((255D/bodies.initNumBodies)*(int)(relativeSize)));
+                bodies.color[i] = BodyStore.packColor((int)(255*(relativeSize/Math.ceil(relativeSize))), (int)((255D/bodies.initNumBodies)*(int)(relativeSize)), blue);
             }
         }
     }
 
+    /**Turns on step metrics, registers them with JMX and optionally logs them periodically.
+     * @param logSeconds Seconds between log lines on standard out; 0 or less for none
+     * @return The metrics being recorded*/
+    public StepMetrics enableMetrics(double logSeconds)
+    {
+        StepMetrics m = new StepMetrics(logSeconds);
+        m.register();
+        metrics = m;
+        bodies.metrics = m;
+        return m;
+    }
+
+    /**The metrics being recorded, or null when metrics are off*/
+    public StepMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**Returns the bodies with their positions and velocities at one instant, the end of the last step, for summaries
+     * and output. For integrators that need finishing (see Integrator.needsFinish()) this is a copy, finished with a
+     * force pass of its own, and the live bodies are left as they are so the run continues exactly as before.*/
+    public BodyStore finishedBodies()
+    {
+        if (blockStepper != null || stepCount == 0 || !integrator.needsFinish())
+        {
+            return bodies;
+        }
+        BodyStore finished = bodies.copy();
+        finished.computeJerk = integrator.needsJerk();
+        if (workers == null)
+        {
+            forceEngine.computeAccelerations(finished);
+        }
+        else
+        {
+            forceEngine.computeAccelerations(finished, workers);
+        }
+        integrator.finish(finished, stepCount, timeCompression);
+        return finished;
+    }
+
+    /**Number of steps simulated since the system was populated*/
+    public int getStepCount()
+    {
+        return stepCount;
+    }
+
+    /**Chooses how many threads updateSystem() spreads force evaluation and integration over.
+     * Each body is computed independently and in a fixed order, so results are bit-identical for any thread count.
+     * Collisions are still resolved on the calling thread, in slot order.
+     * @param threads Number of threads; 1 or less runs serially*/
+    public void setThreads(int threads)
+    {
+        if (workers != null)
+        {
+            workers.shutdown();
+            workers = null;
+        }
+        if (threads > 1)
+        {
+            workers = new WorkerPool(threads, 32);
+        }
+    }
+
+    /**Switches block time-stepping on or off. While on, each step moves every body forward by timeCompression
+     * in as many sub-steps as its own acceleration requires, and neither forceEngine nor integrator is used.
+     * Switching it on rebuilds each body's Adams-Bashford history, so it is best chosen before the run starts.
+     * @param stepper The stepper to use, or null for the shared step*/
+    public void setBlockStepper(BlockTimeStepper stepper)
+    {
+        if (stepper != null && blockStepper == null)
+        {
+            for (int i = 0; i < bodies.count; i++)
+            {
+                bodies.history[i] = 0;
+                bodies.level[i] = 0;
+            }
+        }
+        blockStepper = stepper;
+    }
+
+    public BlockTimeStepper getBlockStepper()
+    {
+        return blockStepper;
+    }
+
     public void reset()
     {
+        if (scenario != null)
+        {
+            try
+            {
+                loadScenario(scenario);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
         bodies.clear();
         populateSystem(stepCount);
         stepCount=0;
+        snapshots.publish(bodies, stepCount);
+    }
+
+    /**Replaces the bodies with those in a scenario file and starts again from step 0; see ScenarioLoader for the formats.
+     * The file is streamed into the store, so even millions of bodies load without holding the file in memory.
+     * Must be called between steps from the thread running updateSystem().*/
+    public void loadScenario(Path path) throws IOException
+    {
+        loadScenario(new ScenarioLoader(path));
+    }
+
+    /**As loadScenario(Path), through a loader set up by the caller; reset() loads through it again.*/
+    public void loadScenario(ScenarioLoader loader) throws IOException
+    {
+        bodies.clear();
+        loader.load(bodies);
+        if (loader.hasColors())
+        {
+            bodies.maxSize = loader.getMaxSize();
+        }
+        else
+        {
+            colorDimension(loader.getMaxSize());
+        }
+        //The whole file, when the loader keeps only a slab of it
+        bodies.initNumBodies = loader.getCount();
+        scenario = loader;
+        stepCount = 0;
+        snapshots.publish(bodies, stepCount);
+    }
+
+    /**Saves the complete state of the simulation, including the Adams-Bashford history, to a file.
+     * Must be called between steps from the thread running updateSystem().
+     * The checkpoint is written beside the target and moved into place, so a crash never leaves a partial file.*/
+    public void saveCheckpoint(Path path) throws IOException
+    {
+        Path partial = path.resolveSibling(path.getFileName()+".partial");
+        Checkpoint.save(this, partial);
+        Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**Replaces the current state with one saved by saveCheckpoint(), continuing from the saved step.
+     * Must be called between steps from the thread running updateSystem().*/
+    public void restoreCheckpoint(Path path) throws IOException
+    {
+        stepCount = Checkpoint.restore(this, path);
+        snapshots.publish(bodies, stepCount);
     }
 
     /**Updates the velocity and position of each Body each frame.
-     * The preferred method of integration is the 3rd order Adams-Bashford method, but this requires information from 3 timesteps in the past.
-     * As this is not available at the start of the simulation, it first makes use of the Euler method for a frame.
-     * It then uses the two sets of position-velocity to use a more accurate 2nd order method.
-     * At this point, the 3rd frame in the simulation, it has enough data to use the 3rd order method and does so for the rest of the simulation.
-     * This system allows for roughly a 4-fold increase in speed with no loss of accuracy, or a 4-fold increase in accuracy with no loss of speed
-     * (compared to using solely the Euler method).*/
+     * The forces are evaluated once, by forceEngine, and integrator moves every body with them;
+     * by default this is the Adams-Bashford start-up described in AdamsBashforthIntegrator.*/
     public void updateSystem()
     {
-        List<Body> copyBodies = new ArrayList<Body>(bodies);
-        //Simul computation loop
-        for (Body body : bodies)
+        StepMetrics m = metrics;
+        long t = m != null ? m.startStep() : 0;
+        //A composition method's substeps leave the bodies at non-physical times, so collisions, sampling and publishing
+        //happen only between whole groups of substeps; see Integrator.stepMultiple()
+        int multiple = blockStepper != null ? 1 : integrator.stepMultiple();
+        boolean groupEnd = (stepCount+1) % multiple == 0;
+        if (stepCount % multiple == 0)
+        {
+            collisionDetector.beginStep(bodies);
+        }
+        //Simul computation loop: every acceleration is taken from the current positions before any body moves
+        if (blockStepper != null)
         {
-            if(!body.doRemove)
+            blockStepper.step(bodies, workers, timeCompression);
+            if (m != null)
             {
-                if (stepCount == 0)
+                t = m.lap(StepMetrics.FORCE, t);
+            }
+            //The stepper ends with every body evaluated at the end of the step
+            if (conservation != null)
+            {
+                conservation.maybeSample(bodies, stepCount+1);
+                if (m != null)
                 {
-                    eulerStep(body);
+                    t = m.lap(StepMetrics.CONSERVATION, t);
                 }
-                else if (stepCount == 1)
+            }
+        }
+        else
+        {
+            bodies.computeJerk = integrator.needsJerk();
+            if (bodies.computeJerk && !forceEngine.computesJerk())
+            {
+                throw new IllegalStateException(integrator.getClass().getName()+" needs jerk, which "+forceEngine.getClass().getName()+" does not compute");
+            }
+            if (workers == null)
+            {
+                forceEngine.computeAccelerations(bodies);
+            }
+            else
+            {
+                forceEngine.computeAccelerations(bodies, workers);
+            }
+            integrator.forcesReady(bodies, stepCount, timeCompression);
+            if (m != null)
+            {
+                t = m.lap(StepMetrics.FORCE, t);
+            }
+            if (conservation != null && stepCount % multiple == 0)
+            {
+                conservation.maybeSample(bodies, stepCount);
+                if (m != null)
                 {
-                    adamBash2ndOrdStep(body);
+                    t = m.lap(StepMetrics.CONSERVATION, t);
                 }
-                else
+            }
+            if (workers == null)
+            {
+                for (int i = 0; i < bodies.count; i++)
                 {
-                    adamBash3rdOrdStep(body);
+                    integrator.advance(bodies, i, stepCount, timeCompression);
                 }
-                //body.collisionChk();
-                //System.out.println(body.ident+" "+body.velocity.toString());
             }
             else
             {
-                copyBodies.remove(body);
+                workers.forEach(bodies.count, integrateTask);
+            }
+        }
+        if (m != null)
+        {
+            t = m.lap(StepMetrics.INTEGRATION, t);
+            m.interactions(blockStepper != null ? blockStepper.getInteractionCount() : forceEngine.getInteractionCount());
+        }
+        if (!groupEnd)
+        {
+            stepCount++;
+            if (m != null)
+            {
+                //Nothing is collided, removed or published within a group
+                t = m.lap(StepMetrics.COLLISION, t);
+                t = m.lap(StepMetrics.REMOVAL, t);
+                m.lap(StepMetrics.PUBLISH, t);
+                m.endStep(bodies.count);
             }
+            return;
         }
-        bodies = copyBodies;
-        //Insert simul-update loop here.
-        for(Body body : bodies)
+        if (bodies.mergeLog != null)
         {
-            body.velocity=body.velNew;
-            body.location=body.locNew;
+            bodies.mergeLog.beginStep(stepCount+1);
         }
-        for (Body body : bodies)
+        collisionDetector.resolveCollisions(bodies);
+        if (m != null)
         {
-            body.collisionChk();
+            t = m.lap(StepMetrics.COLLISION, t);
+        }
+        int removed = bodies.compact();
+        if (m != null)
+        {
+            t = m.lap(StepMetrics.REMOVAL, t);
+            m.removed(removed);
         }
         stepCount++;
-        if(stepCount%(365*2)==0)
+        snapshots.maybePublish(bodies, stepCount);
+        if (telemetry != null)
+        {
+            telemetry.maybePublish(bodies, stepCount);
+        }
+        if (recorder != null)
+        {
+            try
+            {
+                recorder.maybeRecord(bodies, stepCount);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Recording stopped: "+e.getMessage());
+                recorder = null;
+            }
+        }
+        if (m != null)
+        {
+            m.lap(StepMetrics.PUBLISH, t);
+            m.endStep(bodies.count);
+        }
+        //A year may end inside the group just finished
+        if(logYears && stepCount%(365*2) < multiple)
         {
             System.out.println("Year: "+stepCount/(365*2));
         }
     }
 
+    /**Draws the current state straight from the bodies, without building or publishing a snapshot.
+     * Must be called from the thread running updateSystem(); other threads should draw snapshots.latest() instead.*/
     public void draw(Graphics2D g2)
     {
-        List<Body> copyBodies = new ArrayList<Body>(bodies);
-        copyBodies.sort(new Comparator<Body>() {
-            @Override
-            public int compare(Body o1, Body o2) {
-                if (o1.location.z > o2.location.z) {
-                    return 1;
-                } else if (o2.location.z > o1.location.z) {
-                    return -1;
-                } else {
-                    return 0;
-                }
-            }
-        });
-        for (Body body : copyBodies)
+        if (raster == null)
         {
-            body.draw(g2);
+            raster = new RasterRenderer(SystemAnimator.B_WIDTH, SystemAnimator.B_HEIGHT);
         }
-    }
-
-    /**Updates a bodies position-velocity through the Euler method, a 1st order linear explicit method for numerical integration.
-     * Requires no more information than the current position and velocity, but stores the last values of them before simulating for future use.
-     * Least accurate of the three implemented methods, but requires little information, used only for the first frame.
-     * @param body The body to be simulated.*/
-    public void eulerStep(Body body)
-    {
-        body.accelOld=body.acceleration();
-        body.velOld=body.velocity;
-        body.velNew=body.velocity.add(body.acceleration().scalarMult(timeCompression));
-        //System.out.println(body.acceleration().x+" "+body.acceleration().y);
-        body.locNew=body.location.add(body.velocity.scalarMult(timeCompression));
-    }
-
-    /**Updates a bodies position-velocity through the 2nd order explicit Adams-Bashford method.
-     * Requires both the current information and information from 1 frame ago, but stores info from 2 frames ago.
-     * Intermediate accuracy, intermediate information needs, used only for the second frame.
-     * @param body The body to be simulated.*/
-    public void adamBash2ndOrdStep(Body body)
-    {
-        body.accel2Old=body.accelOld;
-        body.accelOld=body.acceleration();
-
-        body.vel2Old=body.velOld;
-        body.velOld=body.velocity;
-        body.velNew=body.velocity.add(body.accelOld.scalarMult(1.5*timeCompression)).sub(body.accel2Old.scalarMult(0.5*timeCompression));
-
-        body.locNew=body.location.add(body.velOld.scalarMult(1.5*timeCompression).sub(body.vel2Old.scalarMult(0.5*timeCompression)));
-    }
-
-    public void adamBash3rdOrdStep(Body body)
-    {
-        body.accel3Old = body.accel2Old;
-        body.accel2Old = body.accelOld;
-        body.accelOld = body.acceleration();
-
-        body.vel3Old=body.vel2Old;
-        body.vel2Old=body.velOld;
-        body.velOld=body.velocity;
-        body.velNew=body.velocity.add(body.accelOld.scalarMult(timeCompression*(23D/12D))).sub(body.accel2Old.scalarMult(timeCompression*(4D/3D))).add(body.accel3Old.scalarMult(timeCompression*(5D/12D)));
-
-        body.locNew=body.location.add(body.velOld.scalarMult(timeCompression*(23D/12D))).sub(body.vel2Old.scalarMult(timeCompression*(4D/3D))).add(body.vel3Old.scalarMult(timeCompression*(5D/12D)));
+        drawOrder.update(bodies);
+        raster.render(drawFrame, spaceCompression);
+        g2.drawImage(raster.getImage(), 0, 0, null);
     }
 }
@@ -0,0 +1,343 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * Connects to a TelemetryServer as a plain socket and rebuilds the system from its frames.
+ * apply() can also be fed the messages of a WebSocket connection, which carry the same frames.
+ * Run with: java TelemetryClient [host] port [frames] to print what arrives and how much of the raw size it takes.
+ */
+public class TelemetryClient
+{
+    /**Bytes a body would take sent raw: int id, 3 x double position, double radius, int color*/
+    static final int RAW_BODY_BYTES = 4 + 3*8 + 8 + 4;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private byte[] frame = new byte[4096];
+    private int frameLength;
+
+    private long[] qx = new long[0], qy = new long[0], qz = new long[0];
+    private float[] radius = new float[0];
+    private int[] color = new int[0];
+    private boolean[] present = new boolean[0];
+    private int idLimit;
+    private int count;
+    private long step;
+    private double quantum;
+    private int removals;
+    private int changed;
+    private int position;
+
+    public TelemetryClient(String host, int port) throws IOException
+    {
+        socket = new Socket(host, port);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+    }
+
+    /**Reads and applies the next frame, waiting for it to arrive.
+     * @return false once the server has closed the connection*/
+    public boolean readFrame() throws IOException
+    {
+        int length;
+        try
+        {
+            length = Integer.reverseBytes(in.readInt());
+        }
+        catch (EOFException e)
+        {
+            return false;
+        }
+        if (frame.length < length)
+        {
+            frame = new byte[Math.max(length, frame.length*2)];
+        }
+        in.readFully(frame, 0, length);
+        apply(frame, length);
+        return true;
+    }
+
+    /**Applies one encoded frame to the state held; see TelemetryEncoder for the format.*/
+    public void apply(byte[] bytes, int length) throws IOException
+    {
+        frame = bytes;
+        frameLength = length;
+        position = 0;
+        int type = getByte();
+        step = unzigzag(getVarLong());
+        quantum = Double.longBitsToDouble(getLong());
+        long expected = getVarLong();
+        if (type == TelemetryEncoder.KEY)
+        {
+            Arrays.fill(present, 0, idLimit, false);
+            count = 0;
+        }
+        removals = (int) getVarLong();
+        int id = -1;
+        for (int k = 0; k < removals; k++)
+        {
+            id += (int) getVarLong() + 1;
+            if (id >= idLimit || !present[id])
+            {
+                throw new IOException("Removal of unknown body "+id);
+            }
+            present[id] = false;
+            count--;
+        }
+        changed = getInt();
+        id = -1;
+        for (int k = 0; k < changed; k++)
+        {
+            id += (int) getVarLong() + 1;
+            ensureIds(id+1);
+            int flags = getByte();
+            if (flags == TelemetryEncoder.NEW)
+            {
+                if (!present[id])
+                {
+                    present[id] = true;
+                    count++;
+                }
+                qx[id] = unzigzag(getVarLong());
+                qy[id] = unzigzag(getVarLong());
+                qz[id] = unzigzag(getVarLong());
+            }
+            else if (!present[id])
+            {
+                throw new IOException("Change to unknown body "+id);
+            }
+            else if ((flags & TelemetryEncoder.MOVED) != 0)
+            {
+                qx[id] += unzigzag(getVarLong());
+                qy[id] += unzigzag(getVarLong());
+                qz[id] += unzigzag(getVarLong());
+            }
+            if (flags == TelemetryEncoder.NEW || (flags & TelemetryEncoder.RESIZED) != 0)
+            {
+                radius[id] = Float.intBitsToFloat(getInt());
+            }
+            if (flags == TelemetryEncoder.NEW || (flags & TelemetryEncoder.RECOLORED) != 0)
+            {
+                color[id] = getByte() << 16 | getByte() << 8 | getByte();
+            }
+        }
+        if (count != expected)
+        {
+            throw new IOException("Frame at step "+step+" leaves "+count+" bodies, expected "+expected);
+        }
+    }
+
+    /**Simulation step of the last frame applied*/
+    public long getStep()
+    {
+        return step;
+    }
+
+    /**Number of bodies held after the last frame*/
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**Size of the last frame in bytes*/
+    public int getFrameLength()
+    {
+        return frameLength;
+    }
+
+    /**Number of removal records in the last frame*/
+    public int getRemovalCount()
+    {
+        return removals;
+    }
+
+    /**Number of bodies the last frame changed*/
+    public int getChangedCount()
+    {
+        return changed;
+    }
+
+    /**Copies the state held into a frame a renderer can draw.*/
+    public RenderFrame frame()
+    {
+        long[] order = new long[count];
+        int n = 0;
+        for (int id = 0; id < idLimit; id++)
+        {
+            if (present[id])
+            {
+                int bits = Float.floatToIntBits((float) (qz[id]*quantum));
+                int key = bits ^ ((bits >> 31) & 0x7FFFFFFF);
+                order[n++] = ((long) key << 32) | id;
+            }
+        }
+        Arrays.sort(order, 0, n);
+        int[] ids = new int[n];
+        for (int k = 0; k < n; k++)
+        {
+            ids[k] = (int) order[k];
+        }
+        return new Frame(ids);
+    }
+
+    public void close() throws IOException
+    {
+        socket.close();
+    }
+
+    /**The bodies held at one frame, back to front.*/
+    private final class Frame implements RenderFrame
+    {
+        private final int[] ids;
+        private final double[] x, y, z, r;
+        private final int[] rgb;
+        private final long frameStep;
+
+        Frame(int[] ids)
+        {
+            this.ids = ids;
+            int n = ids.length;
+            x = new double[n];
+            y = new double[n];
+            z = new double[n];
+            r = new double[n];
+            rgb = new int[n];
+            for (int k = 0; k < n; k++)
+            {
+                int id = ids[k];
+                x[k] = qx[id]*quantum;
+                y[k] = qy[id]*quantum;
+                z[k] = qz[id]*quantum;
+                r[k] = radius[id];
+                rgb[k] = color[id];
+            }
+            frameStep = step;
+        }
+
+        public int getCount()
+        {
+            return ids.length;
+        }
+
+        public long getStep()
+        {
+            return frameStep;
+        }
+
+        public int getId(int k)
+        {
+            return ids[k];
+        }
+
+        public double getX(int k)
+        {
+            return x[k];
+        }
+
+        public double getY(int k)
+        {
+            return y[k];
+        }
+
+        public double getZ(int k)
+        {
+            return z[k];
+        }
+
+        public double getRadius(int k)
+        {
+            return r[k];
+        }
+
+        public int getColor(int k)
+        {
+            return rgb[k];
+        }
+    }
+
+    private void ensureIds(int n)
+    {
+        if (n > qx.length)
+        {
+            int size = Math.max(n, qx.length*2);
+            qx = Arrays.copyOf(qx, size);
+            qy = Arrays.copyOf(qy, size);
+            qz = Arrays.copyOf(qz, size);
+            radius = Arrays.copyOf(radius, size);
+            color = Arrays.copyOf(color, size);
+            present = Arrays.copyOf(present, size);
+        }
+        idLimit = Math.max(idLimit, n);
+    }
+
+    private static long unzigzag(long v)
+    {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private int getByte() throws IOException
+    {
+        if (position >= frameLength)
+        {
+            throw new IOException("Frame ends early");
+        }
+        return frame[position++] & 0xFF;
+    }
+
+    private int getInt() throws IOException
+    {
+        return getByte() | getByte() << 8 | getByte() << 16 | getByte() << 24;
+    }
+
+    private long getLong() throws IOException
+    {
+        return (getInt() & 0xFFFFFFFFL) | (long) getInt() << 32;
+    }
+
+    private long getVarLong() throws IOException
+    {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            int b = getByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return v;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: java TelemetryClient [host] port [frames]");
+            return;
+        }
+        boolean hasHost = args.length > 1 && !args[0].matches("\\d+");
+        String host = hasHost ? args[0] : "localhost";
+        int port = Integer.parseInt(args[hasHost ? 1 : 0]);
+        long frames = args.length > (hasHost ? 2 : 1) ? Long.parseLong(args[hasHost ? 2 : 1]) : Long.MAX_VALUE;
+        TelemetryClient client = new TelemetryClient(host, port);
+        long received = 0, bytes = 0, raw = 0;
+        while (received < frames && client.readFrame())
+        {
+            received++;
+            bytes += client.getFrameLength();
+            raw += (long) client.getCount()*RAW_BODY_BYTES;
+            System.out.println("Step "+client.getStep()+": "+client.getCount()+" bodies, "+client.getChangedCount()+" changed, "
+                    +client.getRemovalCount()+" removed, "+client.getFrameLength()+" bytes");
+        }
+        client.close();
+        if (received > 0)
+        {
+            System.out.println("Frames: "+received+"  bytes per frame: "+bytes/received
+                    +" ("+String.format("%.1f", 100.0*bytes/Math.max(1, raw))+"% of raw)");
+        }
+    }
+}
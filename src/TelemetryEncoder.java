@@ -0,0 +1,245 @@
+import java.util.Arrays;
+
+/**
+ * Encodes frames for one telemetry subscriber as changes from the last frame that subscriber was sent.
+ * Positions are quantized to a grid of quantum meters and sent as the difference from the previous quantized position,
+ * so a body that moved a few grid cells costs a byte per axis; the subscriber's copy is rebuilt from the same integers,
+ * so rounding never accumulates. Radius and color are sent only when they change, bodies that did not change at all
+ * are left out, and bodies that have gone since the last frame (merged away, see Body.merge()) are sent as removal records.
+ * Because the reference is the subscriber's own last frame, any number of frames can be skipped in between.
+ * <pre>
+ * frame:  byte type (0 key, 1 delta), varlong step, double quantum, varint bodyCount,
+ *         varint removalCount, removalCount x varint idGap,
+ *         int changedCount, changedCount x {varint idGap, byte flags, [3 x varlong position], [float radius], [3 bytes color]}
+ * flags:  1 new (position absolute, radius and color follow), 2 moved (position is a difference), 4 resized, 8 recolored
+ * </pre>
+ * Ids are listed in ascending order as the gap from the previous id listed, minus one. varints are unsigned LEB128,
+ * varlongs zigzag LEB128, fixed-size values little-endian. A key frame starts the subscriber afresh with every body new;
+ * one is sent first, and again if the step goes backwards, as after SystemSimulator.reset(). bodyCount is the number of
+ * bodies in the frame after applying it, for checking.
+ */
+public class TelemetryEncoder
+{
+    static final int KEY = 0;
+    static final int DELTA = 1;
+    static final int NEW = 1;
+    static final int MOVED = 2;
+    static final int RESIZED = 4;
+    static final int RECOLORED = 8;
+
+    private final double quantum;
+    /**State the subscriber holds, by id*/
+    private long[] qx = new long[0], qy = new long[0], qz = new long[0];
+    private float[] radius = new float[0];
+    private int[] color = new int[0];
+    private boolean[] present = new boolean[0];
+    /**Position in the frame being encoded of each id, or -1*/
+    private int[] slot = new int[0];
+    /**One more than the largest id ever sent*/
+    private int idLimit;
+    private long lastStep = -1;
+
+    private byte[] out = new byte[4096];
+    private int length;
+
+    /**@param quantum Position resolution in meters*/
+    public TelemetryEncoder(double quantum)
+    {
+        this.quantum = quantum;
+    }
+
+    /**Encodes a frame and updates the subscriber's state as though it has been sent.
+     * The bytes are in getBytes() up to getLength(), until the next call.*/
+    public void encode(RenderFrame f)
+    {
+        int n = f.getCount();
+        int maxId = -1;
+        for (int k = 0; k < n; k++)
+        {
+            maxId = Math.max(maxId, f.getId(k));
+        }
+        ensureIds(maxId+1);
+        for (int k = 0; k < n; k++)
+        {
+            slot[f.getId(k)] = k;
+        }
+        boolean key = lastStep < 0 || f.getStep() < lastStep;
+        if (key)
+        {
+            Arrays.fill(present, 0, idLimit, false);
+        }
+        lastStep = f.getStep();
+        int limit = Math.max(idLimit, maxId+1);
+
+        length = 0;
+        putByte(key ? KEY : DELTA);
+        putVarLong(zigzag(f.getStep()));
+        putLong(Double.doubleToLongBits(quantum));
+        putVarLong(n);
+        //Removals: held by the subscriber but not in this frame
+        int removals = 0;
+        for (int id = 0; id < idLimit; id++)
+        {
+            if (present[id] && slot[id] < 0)
+            {
+                removals++;
+            }
+        }
+        putVarLong(removals);
+        int previous = -1;
+        for (int id = 0; id < idLimit && removals > 0; id++)
+        {
+            if (present[id] && slot[id] < 0)
+            {
+                putVarLong(id - previous - 1);
+                previous = id;
+                present[id] = false;
+                removals--;
+            }
+        }
+
+        int countAt = length;
+        putInt(0);
+        int changed = 0;
+        previous = -1;
+        for (int id = 0; id < limit; id++)
+        {
+            int k = slot[id];
+            if (k < 0)
+            {
+                continue;
+            }
+            slot[id] = -1;
+            long x = Math.round(f.getX(k)/quantum);
+            long y = Math.round(f.getY(k)/quantum);
+            long z = Math.round(f.getZ(k)/quantum);
+            float r = (float) f.getRadius(k);
+            int c = f.getColor(k) & 0xFFFFFF;
+            int flags;
+            if (!present[id])
+            {
+                flags = NEW;
+            }
+            else
+            {
+                flags = (x != qx[id] || y != qy[id] || z != qz[id] ? MOVED : 0)
+                        | (Float.floatToIntBits(r) != Float.floatToIntBits(radius[id]) ? RESIZED : 0)
+                        | (c != color[id] ? RECOLORED : 0);
+                if (flags == 0)
+                {
+                    continue;
+                }
+            }
+            putVarLong(id - previous - 1);
+            previous = id;
+            putByte(flags);
+            if (flags == NEW)
+            {
+                putVarLong(zigzag(x));
+                putVarLong(zigzag(y));
+                putVarLong(zigzag(z));
+            }
+            else if ((flags & MOVED) != 0)
+            {
+                putVarLong(zigzag(x - qx[id]));
+                putVarLong(zigzag(y - qy[id]));
+                putVarLong(zigzag(z - qz[id]));
+            }
+            if (flags == NEW || (flags & RESIZED) != 0)
+            {
+                putInt(Float.floatToIntBits(r));
+            }
+            if (flags == NEW || (flags & RECOLORED) != 0)
+            {
+                putByte(c >> 16);
+                putByte(c >> 8);
+                putByte(c);
+            }
+            qx[id] = x;
+            qy[id] = y;
+            qz[id] = z;
+            radius[id] = r;
+            color[id] = c;
+            present[id] = true;
+            changed++;
+        }
+        idLimit = limit;
+        out[countAt] = (byte) changed;
+        out[countAt+1] = (byte) (changed >> 8);
+        out[countAt+2] = (byte) (changed >> 16);
+        out[countAt+3] = (byte) (changed >> 24);
+    }
+
+    /**The encoded frame; valid up to getLength()*/
+    public byte[] getBytes()
+    {
+        return out;
+    }
+
+    public int getLength()
+    {
+        return length;
+    }
+
+    private void ensureIds(int n)
+    {
+        if (n > slot.length)
+        {
+            int size = Math.max(n, slot.length*2);
+            int old = slot.length;
+            qx = Arrays.copyOf(qx, size);
+            qy = Arrays.copyOf(qy, size);
+            qz = Arrays.copyOf(qz, size);
+            radius = Arrays.copyOf(radius, size);
+            color = Arrays.copyOf(color, size);
+            present = Arrays.copyOf(present, size);
+            slot = Arrays.copyOf(slot, size);
+            Arrays.fill(slot, old, size, -1);
+        }
+    }
+
+    static long zigzag(long v)
+    {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private void ensure(int bytes)
+    {
+        if (length + bytes > out.length)
+        {
+            out = Arrays.copyOf(out, Math.max(length + bytes, out.length*2));
+        }
+    }
+
+    private void putByte(int v)
+    {
+        ensure(1);
+        out[length++] = (byte) v;
+    }
+
+    private void putInt(int v)
+    {
+        ensure(4);
+        out[length++] = (byte) v;
+        out[length++] = (byte) (v >> 8);
+        out[length++] = (byte) (v >> 16);
+        out[length++] = (byte) (v >> 24);
+    }
+
+    private void putLong(long v)
+    {
+        putInt((int) v);
+        putInt((int) (v >>> 32));
+    }
+
+    private void putVarLong(long v)
+    {
+        ensure(10);
+        while ((v & ~0x7FL) != 0)
+        {
+            out[length++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[length++] = (byte) v;
+    }
+}
@@ -0,0 +1,333 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the state of a running simulation to any number of viewers over TCP on the loopback interface,
+ * as frames from a TelemetryEncoder: quantized, delta-encoded positions and only the radii and colors that changed.
+ * A viewer either connects with a plain socket and reads frames each preceded by an int length (little-endian),
+ * or opens a WebSocket to ws://localhost:PORT/ and receives each frame as one binary message. TelemetryClient reads either.
+ * The simulation thread only publishes a Snapshot at the frame rate, and only while someone is watching.
+ * Each viewer has its own thread that encodes the newest snapshot against the last frame that viewer was sent and writes it;
+ * a viewer that reads slowly blocks only its own thread, and skips the snapshots published meanwhile rather than
+ * queueing them, so updateSystem() never waits for the network.
+ */
+public class TelemetryServer
+{
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    /**How long a new connection has to start a WebSocket handshake before it is treated as a plain socket*/
+    private static final int HANDSHAKE_MILLIS = 250;
+
+    private final ServerSocket server;
+    private final double quantum;
+    /**Takes the snapshots at the frame rate; its own latest() is not read*/
+    private final SnapshotPublisher publisher = new SnapshotPublisher();
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+    /**Guards latest and sequence, and is notified when they change*/
+    private final Object lock = new Object();
+    private Snapshot latest;
+    /**Number of snapshots published so far*/
+    private long sequence;
+    private volatile boolean closed;
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong framesDropped = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    /**Starts listening.
+     * @param port TCP port on the loopback interface; 0 picks a free one, see getPort()
+     * @param fps Frames per second offered to viewers; 0 or less for every step
+     * @param quantum Position resolution in meters, e.g. spaceCompression/16 for a sixteenth of a pixel*/
+    public TelemetryServer(int port, double fps, double quantum) throws IOException
+    {
+        this.quantum = quantum;
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        publisher.setInterval(fps > 0 ? (long) (1e9/fps) : 0);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "Telemetry-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**The port being listened on*/
+    public int getPort()
+    {
+        return server.getLocalPort();
+    }
+
+    public int getSubscriberCount()
+    {
+        return subscribers.size();
+    }
+
+    /**Frames written to viewers so far, over all of them*/
+    public long getFramesSent()
+    {
+        return framesSent.get();
+    }
+
+    /**Snapshots skipped by viewers that were still writing an earlier frame, over all of them*/
+    public long getFramesDropped()
+    {
+        return framesDropped.get();
+    }
+
+    public long getBytesSent()
+    {
+        return bytesSent.get();
+    }
+
+    /**Publishes a snapshot for the viewers if the frame interval has elapsed and anyone is connected.
+     * Called by the simulation after each step.*/
+    public void maybePublish(BodyStore bodies, long step)
+    {
+        if (subscribers.isEmpty())
+        {
+            return;
+        }
+        Snapshot before = publisher.latest();
+        publisher.maybePublish(bodies, step);
+        Snapshot s = publisher.latest();
+        if (s != before)
+        {
+            synchronized (lock)
+            {
+                latest = s;
+                sequence++;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**Stops listening and disconnects every viewer.*/
+    public void close() throws IOException
+    {
+        closed = true;
+        server.close();
+        synchronized (lock)
+        {
+            lock.notifyAll();
+        }
+        for (Subscriber s : subscribers)
+        {
+            s.close();
+        }
+    }
+
+    private void acceptLoop()
+    {
+        int n = 0;
+        while (!closed)
+        {
+            try
+            {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Subscriber s = new Subscriber(socket);
+                subscribers.add(s);
+                Thread thread = new Thread(s, "Telemetry-"+(++n));
+                thread.setDaemon(true);
+                thread.start();
+            }
+            catch (IOException e)
+            {
+                if (!closed)
+                {
+                    System.out.println("Telemetry: "+e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**One viewer, with its own encoder state and thread.*/
+    private class Subscriber implements Runnable
+    {
+        private final Socket socket;
+        private final TelemetryEncoder encoder = new TelemetryEncoder(quantum);
+        private boolean webSocket;
+
+        Subscriber(Socket socket)
+        {
+            this.socket = socket;
+        }
+
+        public void run()
+        {
+            try
+            {
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+                handshake(socket.getInputStream(), out);
+                long seen = 0;
+                while (!closed)
+                {
+                    Snapshot s;
+                    long seq;
+                    synchronized (lock)
+                    {
+                        while (sequence == seen && !closed)
+                        {
+                            lock.wait();
+                        }
+                        s = latest;
+                        seq = sequence;
+                    }
+                    if (closed)
+                    {
+                        break;
+                    }
+                    if (seen > 0 && seq > seen+1)
+                    {
+                        framesDropped.addAndGet(seq - seen - 1);
+                    }
+                    seen = seq;
+                    encoder.encode(s);
+                    write(out, encoder.getBytes(), encoder.getLength());
+                    framesSent.incrementAndGet();
+                    bytesSent.addAndGet(encoder.getLength());
+                }
+            }
+            catch (IOException e)
+            {
+                //The viewer went away
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                subscribers.remove(this);
+                close();
+            }
+        }
+
+        /**Answers a WebSocket upgrade if the connection starts with one; anything else is a plain socket.*/
+        private void handshake(InputStream in, OutputStream out) throws IOException
+        {
+            socket.setSoTimeout(HANDSHAKE_MILLIS);
+            StringBuilder request = new StringBuilder();
+            try
+            {
+                int c;
+                while ((c = in.read()) >= 0)
+                {
+                    request.append((char) c);
+                    if (request.length() == 4 && !request.toString().equals("GET "))
+                    {
+                        break;
+                    }
+                    if (request.length() > 4 && request.toString().endsWith("\r\n\r\n"))
+                    {
+                        break;
+                    }
+                    if (request.length() > 8192)
+                    {
+                        throw new IOException("Request too long");
+                    }
+                }
+            }
+            catch (SocketTimeoutException e)
+            {
+                //A plain viewer need not send anything
+            }
+            socket.setSoTimeout(0);
+            if (!request.toString().startsWith("GET "))
+            {
+                return;
+            }
+            String key = null;
+            for (String line : request.toString().split("\r\n"))
+            {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key"))
+                {
+                    key = line.substring(colon+1).trim();
+                }
+            }
+            if (key == null)
+            {
+                out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                throw new IOException("Not a WebSocket request");
+            }
+            String accept;
+            try
+            {
+                MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                accept = Base64.getEncoder().encodeToString(sha1.digest((key+WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IOException(e);
+            }
+            out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    +"Sec-WebSocket-Accept: "+accept+"\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            webSocket = true;
+        }
+
+        /**Writes one frame, framed for the kind of connection.*/
+        private void write(OutputStream out, byte[] bytes, int length) throws IOException
+        {
+            if (webSocket)
+            {
+                //Final binary frame, unmasked as a server's must be
+                out.write(0x82);
+                if (length < 126)
+                {
+                    out.write(length);
+                }
+                else if (length < 65536)
+                {
+                    out.write(126);
+                    out.write(length >> 8);
+                    out.write(length);
+                }
+                else
+                {
+                    out.write(127);
+                    for (int shift = 56; shift >= 0; shift -= 8)
+                    {
+                        out.write((int) ((long) length >> shift));
+                    }
+                }
+            }
+            else
+            {
+                out.write(length);
+                out.write(length >> 8);
+                out.write(length >> 16);
+                out.write(length >> 24);
+            }
+            out.write(bytes, 0, length);
+            out.flush();
+        }
+
+        void close()
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException e)
+            {
+                //Already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/**
+ * Exact O(N^2) direct summation over packed copies of the positions and masses, tiled for cache reuse.
+ * Each force pass copies x, y, z and G*mass into contiguous arrays, with removed bodies given zero mass,
+ * so the inner loop has no branches: removed bodies and the body itself (at distance zero) are masked out arithmetically.
+ * When the store asks for the jerk, the velocities are packed too and interactJerk() sums it with the acceleration.
+ * Bodies are visited in tiles small enough to stay in L1 cache while a block of bodies sums over them.
+ * This is the scalar kernel; VectorForceEngine, compiled separately from src-vector, overrides it with the
+ * jdk.incubator.vector API. create() picks the vector kernel when the module is present and this one otherwise.
+ * Run with: java [--add-modules jdk.incubator.vector] TiledForceEngine to check the kernel against Body.twoBodyAcceleration().
+ */
+public class TiledForceEngine implements ForceEngine
+{
+    /**Bodies per tile: 4 arrays of 512 doubles fill 16 KB*/
+    protected static final int TILE = 512;
+    /**Packed copies of the positions and G*mass; padded with massless entries to a multiple of 8*/
+    protected double[] px = new double[0], py = new double[0], pz = new double[0], pgm = new double[0];
+    /**Packed copies of the velocities, filled only when the jerk is computed*/
+    protected double[] pvx = new double[0], pvy = new double[0], pvz = new double[0];
+    /**Length of the packed arrays in use*/
+    protected int padded;
+    private BodyStore target;
+    private long interactions;
+    private final WorkerPool.RangeTask accelerationTask = new WorkerPool.RangeTask() {
+        @Override
+        public void run(int from, int to, int worker) {
+            accelerate(target, from, to);
+        }
+    };
+
+    /**Returns the vector kernel if jdk.incubator.vector is available to this JVM, or the scalar kernel if not.*/
+    public static TiledForceEngine create()
+    {
+        try
+        {
+            return (TiledForceEngine) Class.forName("VectorForceEngine").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            return new TiledForceEngine();
+        }
+    }
+
+    /**Name of the kernel, for reports*/
+    public String kernel()
+    {
+        return "scalar";
+    }
+
+    public void computeAccelerations(BodyStore bodies)
+    {
+        pack(bodies);
+        accelerate(bodies, 0, bodies.count);
+        countInteractions(bodies);
+    }
+
+    public void computeAccelerations(BodyStore bodies, WorkerPool workers)
+    {
+        pack(bodies);
+        target = bodies;
+        workers.forEach(bodies.count, accelerationTask);
+        target = null;
+        countInteractions(bodies);
+    }
+
+    private void pack(BodyStore bodies)
+    {
+        int n = bodies.count;
+        padded = (n + 7) & ~7;
+        if (px.length < padded)
+        {
+            int capacity = (bodies.mass.length + 7) & ~7;
+            px = new double[capacity];
+            py = new double[capacity];
+            pz = new double[capacity];
+            pgm = new double[capacity];
+        }
+        if (bodies.computeJerk && pvx.length < padded)
+        {
+            pvx = new double[px.length];
+            pvy = new double[px.length];
+            pvz = new double[px.length];
+        }
+        double G = bodies.G;
+        for (int j = 0; j < n; j++)
+        {
+            px[j] = bodies.x[j];
+            py[j] = bodies.y[j];
+            pz[j] = bodies.z[j];
+            pgm[j] = bodies.removed[j] ? 0 : G*bodies.mass[j];
+        }
+        for (int j = n; j < padded; j++)
+        {
+            px[j] = 0;
+            py[j] = 0;
+            pz[j] = 0;
+            pgm[j] = 0;
+        }
+        if (bodies.computeJerk)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                pvx[j] = bodies.vx[j];
+                pvy[j] = bodies.vy[j];
+                pvz[j] = bodies.vz[j];
+            }
+            for (int j = n; j < padded; j++)
+            {
+                pvx[j] = 0;
+                pvy[j] = 0;
+                pvz[j] = 0;
+            }
+        }
+    }
+
+    /**Sums the accelerations of the bodies in slots from to to, one tile of the packed arrays at a time.
+     * Each body's sum is formed in the same order whichever range it falls in.*/
+    private void accelerate(BodyStore bodies, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            bodies.ax[i] = 0;
+            bodies.ay[i] = 0;
+            bodies.az[i] = 0;
+            bodies.potential[i] = 0;
+        }
+        boolean jerk = bodies.computeJerk;
+        if (jerk)
+        {
+            for (int i = from; i < to; i++)
+            {
+                bodies.jx[i] = 0;
+                bodies.jy[i] = 0;
+                bodies.jz[i] = 0;
+            }
+        }
+        for (int tile = 0; tile < padded; tile += TILE)
+        {
+            int tileEnd = Math.min(padded, tile + TILE);
+            for (int i = from; i < to; i++)
+            {
+                if (bodies.removed[i])
+                {
+                    continue;
+                }
+                if (jerk)
+                {
+                    interactJerk(bodies, i, tile, tileEnd);
+                }
+                else
+                {
+                    interact(bodies, i, tile, tileEnd);
+                }
+            }
+        }
+    }
+
+    /**Adds the acceleration and potential of body i due to the packed entries from to to (a multiple of 8 apart) to the store.*/
+    protected void interact(BodyStore bodies, int i, int from, int to)
+    {
+        double xi = bodies.x[i], yi = bodies.y[i], zi = bodies.z[i];
+        double sumX = 0, sumY = 0, sumZ = 0, sumP = 0;
+        for (int j = from; j < to; j++)
+        {
+            double dx = px[j] - xi;
+            double dy = py[j] - yi;
+            double dz = pz[j] - zi;
+            double distSq = dx*dx + dy*dy + dz*dz;
+            //Zero for the body itself, so it drops out without a branch on j
+            double valid = distSq > 0 ? 1 : 0;
+            double scale = valid*pgm[j]/(distSq*Math.sqrt(distSq) + (1 - valid));
+            sumX += dx*scale;
+            sumY += dy*scale;
+            sumZ += dz*scale;
+            sumP += distSq*scale;
+        }
+        bodies.ax[i] += sumX;
+        bodies.ay[i] += sumY;
+        bodies.az[i] += sumZ;
+        bodies.potential[i] -= sumP;
+    }
+
+    /**As interact(), also adding the jerk of body i due to the packed entries to jx, jy and jz.*/
+    protected void interactJerk(BodyStore bodies, int i, int from, int to)
+    {
+        double xi = bodies.x[i], yi = bodies.y[i], zi = bodies.z[i];
+        double vxi = bodies.vx[i], vyi = bodies.vy[i], vzi = bodies.vz[i];
+        double sumX = 0, sumY = 0, sumZ = 0, sumP = 0, sumJX = 0, sumJY = 0, sumJZ = 0;
+        for (int j = from; j < to; j++)
+        {
+            double dx = px[j] - xi;
+            double dy = py[j] - yi;
+            double dz = pz[j] - zi;
+            double dvx = pvx[j] - vxi;
+            double dvy = pvy[j] - vyi;
+            double dvz = pvz[j] - vzi;
+            double distSq = dx*dx + dy*dy + dz*dz;
+            double valid = distSq > 0 ? 1 : 0;
+            double scale = valid*pgm[j]/(distSq*Math.sqrt(distSq) + (1 - valid));
+            double rv = 3*(dx*dvx + dy*dvy + dz*dvz)/(distSq + (1 - valid));
+            sumX += dx*scale;
+            sumY += dy*scale;
+            sumZ += dz*scale;
+            sumP += distSq*scale;
+            sumJX += (dvx - rv*dx)*scale;
+            sumJY += (dvy - rv*dy)*scale;
+            sumJZ += (dvz - rv*dz)*scale;
+        }
+        bodies.ax[i] += sumX;
+        bodies.ay[i] += sumY;
+        bodies.az[i] += sumZ;
+        bodies.potential[i] -= sumP;
+        bodies.jx[i] += sumJX;
+        bodies.jy[i] += sumJY;
+        bodies.jz[i] += sumJZ;
+    }
+
+    private void countInteractions(BodyStore bodies)
+    {
+        long live = bodies.liveCount();
+        interactions = live*(live-1);
+    }
+
+    public boolean computesJerk()
+    {
+        return true;
+    }
+
+    public long getInteractionCount()
+    {
+        return interactions;
+    }
+
+    /**Checks the scalar kernel, and the vector kernel if available, against Body.twoBodyAcceleration() summed over
+     * every pair, and their jerk against BodyStore.accelerationAndJerk(), on the default initial conditions.
+     * Exits with status 1 if either differs by more than the tolerance.*/
+    public static void main(String[] args)
+    {
+        double tolerance = args.length > 0 ? Double.parseDouble(args[0]) : 1e-12;
+        BodyStore bodies = new SystemSimulator().bodies;
+        //Remove a few bodies so the masking is exercised
+        for (int i = 0; i < bodies.count; i += 97)
+        {
+            bodies.removed[i] = true;
+        }
+        double[] rx = new double[bodies.count], ry = new double[bodies.count], rz = new double[bodies.count];
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (bodies.removed[i])
+            {
+                continue;
+            }
+            Vector3D sum = new Vector3D(0, 0, 0);
+            for (int j = 0; j < bodies.count; j++)
+            {
+                if (j != i && !bodies.removed[j])
+                {
+                    sum = sum.add(bodies.get(i).twoBodyAcceleration(bodies.get(j)));
+                }
+            }
+            rx[i] = sum.x;
+            ry[i] = sum.y;
+            rz[i] = sum.z;
+        }
+        double[] jx = new double[bodies.count], jy = new double[bodies.count], jz = new double[bodies.count];
+        for (int i = 0; i < bodies.count; i++)
+        {
+            bodies.accelerationAndJerk(i);
+            jx[i] = bodies.jx[i];
+            jy[i] = bodies.jy[i];
+            jz[i] = bodies.jz[i];
+        }
+        boolean ok = check(new TiledForceEngine(), bodies, rx, ry, rz, jx, jy, jz, tolerance);
+        TiledForceEngine best = create();
+        if (best.getClass() != TiledForceEngine.class)
+        {
+            ok &= check(best, bodies, rx, ry, rz, jx, jy, jz, tolerance);
+        }
+        else
+        {
+            System.out.println("Vector kernel not available; run with --add-modules jdk.incubator.vector and src-vector compiled");
+        }
+        if (!ok)
+        {
+            System.exit(1);
+        }
+    }
+
+    private static boolean check(TiledForceEngine engine, BodyStore bodies, double[] rx, double[] ry, double[] rz,
+                                 double[] jx, double[] jy, double[] jz, double tolerance)
+    {
+        bodies.computeJerk = false;
+        engine.computeAccelerations(bodies);
+        double worst = worst(bodies, bodies.ax, bodies.ay, bodies.az, rx, ry, rz);
+        bodies.computeJerk = true;
+        engine.computeAccelerations(bodies);
+        //The acceleration must not change when the jerk is summed with it
+        worst = Math.max(worst, worst(bodies, bodies.ax, bodies.ay, bodies.az, rx, ry, rz));
+        double worstJerk = worst(bodies, bodies.jx, bodies.jy, bodies.jz, jx, jy, jz);
+        bodies.computeJerk = false;
+        boolean ok = worst <= tolerance && worstJerk <= tolerance;
+        System.out.println(engine.kernel()+" kernel: max relative error "+worst+", jerk "+worstJerk+" over "+bodies.liveCount()+" bodies "+(ok ? "OK" : "FAILED"));
+        return ok;
+    }
+
+    /**Largest relative difference between the vectors of live bodies and the reference vectors.*/
+    private static double worst(BodyStore bodies, double[] x, double[] y, double[] z, double[] rx, double[] ry, double[] rz)
+    {
+        double worst = 0;
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (bodies.removed[i])
+            {
+                continue;
+            }
+            double ex = x[i] - rx[i], ey = y[i] - ry[i], ez = z[i] - rz[i];
+            double ref = Math.sqrt(rx[i]*rx[i] + ry[i]*ry[i] + rz[i]*rz[i]);
+            worst = Math.max(worst, Math.sqrt(ex*ex + ey*ey + ez*ez)/ref);
+        }
+        return worst;
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a recording written by TrajectoryRecorder. The file is memory-mapped and frames are read in place:
+ * a Frame is a view onto the mapping, so replaying copies no body data. Any frame can be reached directly.
+ */
+public class TrajectoryReader
+{
+    /**Largest window of the file mapped at once*/
+    private static final long WINDOW_BYTES = 1L << 30;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    /**Time represented by one step, from the recording's header*/
+    public final double timeCompression;
+    /**Pixels to meters conversion the recording was made with*/
+    public final double spaceCompression;
+    /**Steps between frames*/
+    public final int decimation;
+    private long[] frameOffsets = new long[64];
+    private int frameCount;
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    /**Opens a recording and indexes its frames.*/
+    public TrajectoryReader(Path path) throws IOException
+    {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        fileSize = channel.size();
+        map(0);
+        if (window.getInt(0) != TrajectoryRecorder.MAGIC)
+        {
+            throw new IOException(path+" is not a trajectory recording");
+        }
+        if (window.getInt(4) != TrajectoryRecorder.VERSION)
+        {
+            throw new IOException("Unsupported trajectory version "+window.getInt(4));
+        }
+        decimation = window.getInt(8);
+        timeCompression = window.getDouble(16);
+        spaceCompression = window.getDouble(24);
+        long offset = TrajectoryRecorder.HEADER_BYTES;
+        while (offset + TrajectoryRecorder.FRAME_HEADER_BYTES <= fileSize)
+        {
+            int frameBytes = buffer(offset, 4).getInt((int) (offset - windowStart));
+            if (frameBytes <= 0 || offset + frameBytes > fileSize)
+            {
+                break;
+            }
+            if (frameCount == frameOffsets.length)
+            {
+                frameOffsets = Arrays.copyOf(frameOffsets, frameCount*2);
+            }
+            frameOffsets[frameCount++] = offset;
+            offset += frameBytes;
+        }
+    }
+
+    /**Number of complete frames in the recording*/
+    public int getFrameCount()
+    {
+        return frameCount;
+    }
+
+    /**Returns a view of the k-th frame. Each view keeps its own reference to the mapping it reads from.*/
+    public Frame frame(int k)
+    {
+        long offset = frameOffsets[k];
+        MappedByteBuffer b = buffer(offset, TrajectoryRecorder.FRAME_HEADER_BYTES);
+        int frameBytes = b.getInt((int) (offset - windowStart));
+        b = buffer(offset, frameBytes);
+        return new Frame(b, (int) (offset - windowStart));
+    }
+
+    /**Returns a mapping that holds the given range of the file, moving the window if needed.*/
+    private MappedByteBuffer buffer(long offset, long length)
+    {
+        if (offset < windowStart || offset + length > windowStart + window.capacity())
+        {
+            map(offset);
+        }
+        return window;
+    }
+
+    private void map(long offset)
+    {
+        try
+        {
+            windowStart = offset;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_BYTES, fileSize - offset));
+            window.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot map trajectory", e);
+        }
+    }
+
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**One recorded frame, read straight from the mapped file.*/
+    public static final class Frame implements RenderFrame
+    {
+        private final MappedByteBuffer b;
+        private final int base;
+        private final int count;
+        private final int removals;
+        private final int bodiesBase;
+
+        private Frame(MappedByteBuffer buffer, int offset)
+        {
+            b = buffer;
+            base = offset;
+            count = b.getInt(base + 12);
+            removals = b.getInt(base + 16);
+            bodiesBase = base + TrajectoryRecorder.FRAME_HEADER_BYTES + 4*removals;
+        }
+
+        public int getCount()
+        {
+            return count;
+        }
+
+        public long getStep()
+        {
+            return b.getLong(base + 4);
+        }
+
+        /**Number of bodies merged away since the previous frame*/
+        public int getRemovalCount()
+        {
+            return removals;
+        }
+
+        /**Id of the k-th body merged away since the previous frame*/
+        public int getRemovedId(int k)
+        {
+            return b.getInt(base + TrajectoryRecorder.FRAME_HEADER_BYTES + 4*k);
+        }
+
+        public int getId(int k)
+        {
+            return b.getInt(bodiesBase + TrajectoryRecorder.BODY_BYTES*k);
+        }
+
+        public double getX(int k)
+        {
+            return b.getDouble(bodiesBase + TrajectoryRecorder.BODY_BYTES*k + 4);
+        }
+
+        public double getY(int k)
+        {
+            return b.getDouble(bodiesBase + TrajectoryRecorder.BODY_BYTES*k + 12);
+        }
+
+        public double getZ(int k)
+        {
+            return b.getDouble(bodiesBase + TrajectoryRecorder.BODY_BYTES*k + 20);
+        }
+
+        public double getRadius(int k)
+        {
+            return b.getFloat(bodiesBase + TrajectoryRecorder.BODY_BYTES*k + 28);
+        }
+
+        public int getColor(int k)
+        {
+            return b.getInt(bodiesBase + TrajectoryRecorder.BODY_BYTES*k + 32);
+        }
+    }
+}
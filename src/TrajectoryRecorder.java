@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Appends the trajectory of a run to a memory-mapped binary file, one frame every few steps, for TrajectoryReader to replay.
+ * Each frame lists every live body back to front (ascending z), preceded by explicit removal records
+ * for the bodies merged away since the previous frame.
+ * <pre>
+ * header: int magic "ORBT", int version, int decimation, int reserved, double timeCompression, double spaceCompression, padded to 64 bytes
+ * frame:  int frameBytes, long step, int bodyCount, int removalCount, int[removalCount] removed ids,
+ *         bodyCount x {int id, double x, double y, double z, float radius, int color}
+ * </pre>
+ * All values are little-endian. A frameBytes of 0 marks the end of the recording.
+ */
+public class TrajectoryRecorder
+{
+    static final int MAGIC = 0x4F524254;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int FRAME_HEADER_BYTES = 4+8+4+4;
+    static final int BODY_BYTES = 4+8+8+8+4+4;
+    /**The file is mapped this many bytes at a time*/
+    private static final long CHUNK_BYTES = 64L*1024*1024;
+
+    private final FileChannel channel;
+    private final int decimation;
+    private MappedByteBuffer buffer;
+    /**File offset of the start of buffer*/
+    private long bufferStart;
+    /**Bytes of the file written so far*/
+    private long written;
+    private long framesWritten;
+
+    /**Ids present in the previous frame*/
+    private int[] previousIds = new int[0];
+    private int previousCount;
+    /**The number of the last frame each id was seen in, plus one*/
+    private long[] seenInFrame = new long[0];
+    private int[] removedIds = new int[0];
+    private long[] order = new long[0];
+
+    /**Creates or overwrites a recording.
+     * @param path The file to write
+     * @param decimation Record one frame every this many steps
+     * @param sim The simulation being recorded, for its time and space scales*/
+    public TrajectoryRecorder(Path path, int decimation, SystemSimulator sim) throws IOException
+    {
+        this.decimation = Math.max(1, decimation);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ensure(HEADER_BYTES);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(this.decimation);
+        buffer.putInt(0);
+        buffer.putDouble(sim.timeCompression);
+        buffer.putDouble(sim.spaceCompression);
+        buffer.position(HEADER_BYTES);
+        written = HEADER_BYTES;
+    }
+
+    /**Number of frames written so far*/
+    public long getFrameCount()
+    {
+        return framesWritten;
+    }
+
+    /**Records a frame if step falls on the decimation interval. Called by the simulation after each step.*/
+    public void maybeRecord(BodyStore bodies, long step) throws IOException
+    {
+        if (step % decimation == 0)
+        {
+            record(bodies, step);
+        }
+    }
+
+    /**Records a frame of the live bodies in the store now.*/
+    public void record(BodyStore bodies, long step) throws IOException
+    {
+        if (seenInFrame.length < bodies.idLimit())
+        {
+            seenInFrame = Arrays.copyOf(seenInFrame, bodies.idLimit()*2);
+        }
+        if (order.length < bodies.count)
+        {
+            order = new long[bodies.mass.length];
+        }
+        long frameMark = framesWritten+1;
+        int n = 0;
+        for (int i = 0; i < bodies.count; i++)
+        {
+            if (!bodies.removed[i])
+            {
+                seenInFrame[bodies.id[i]] = frameMark;
+                int bits = Float.floatToIntBits((float) bodies.z[i]);
+                int key = bits ^ ((bits >> 31) & 0x7FFFFFFF);
+                order[n++] = ((long) key << 32) | i;
+            }
+        }
+        Arrays.sort(order, 0, n);
+        int removals = 0;
+        for (int k = 0; k < previousCount; k++)
+        {
+            if (seenInFrame[previousIds[k]] != frameMark)
+            {
+                if (removals == removedIds.length)
+                {
+                    removedIds = Arrays.copyOf(removedIds, Math.max(16, removals*2));
+                }
+                removedIds[removals++] = previousIds[k];
+            }
+        }
+
+        int frameBytes = FRAME_HEADER_BYTES + 4*removals + BODY_BYTES*n;
+        ensure(frameBytes + 4);
+        buffer.putInt(frameBytes);
+        buffer.putLong(step);
+        buffer.putInt(n);
+        buffer.putInt(removals);
+        for (int k = 0; k < removals; k++)
+        {
+            buffer.putInt(removedIds[k]);
+        }
+        if (previousIds.length < n)
+        {
+            previousIds = new int[Math.max(n, bodies.mass.length)];
+        }
+        for (int k = 0; k < n; k++)
+        {
+            int i = (int) order[k];
+            buffer.putInt(bodies.id[i]);
+            buffer.putDouble(bodies.x[i]);
+            buffer.putDouble(bodies.y[i]);
+            buffer.putDouble(bodies.z[i]);
+            buffer.putFloat((float) bodies.size[i]);
+            buffer.putInt(bodies.color[i]);
+            previousIds[k] = bodies.id[i];
+        }
+        previousCount = n;
+        written += frameBytes;
+        framesWritten++;
+    }
+
+    /**Makes sure the mapping has room for the given number of bytes at the write position, remapping further along the file if not.*/
+    private void ensure(long bytes) throws IOException
+    {
+        if (buffer != null && buffer.remaining() >= bytes)
+        {
+            return;
+        }
+        bufferStart = written;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, bufferStart, Math.max(CHUNK_BYTES, bytes));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**Flushes the recording and trims the file to the frames written.*/
+    public void close() throws IOException
+    {
+        buffer.force();
+        buffer = null;
+        channel.truncate(written);
+        channel.close();
+    }
+}
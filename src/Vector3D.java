@@ -24,7 +24,7 @@ public class Vector3D
      * @return A double value for the length of the vector*/
     public double getMag()
     {
-        return Math.sqrt(Math.pow(x,2)+Math.pow(y,2)+Math.pow(z,2));
+        return Math.sqrt(x*x+y*y+z*z);
     }
 
     /**Adds another vector to this Vector
@@ -0,0 +1,155 @@
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed pool of threads that splits a loop over body slots across all cores.
+ * The calling thread takes part as worker 0. Slots are handed out in small chunks so uneven work
+ * (e.g. tree walks) stays balanced; each slot is still processed exactly once and independently,
+ * so results do not depend on the number of threads.
+ */
+public class WorkerPool
+{
+    /**A piece of work over a range of slots.*/
+    public interface RangeTask
+    {
+        /**Processes slots from (inclusive) to to (exclusive).
+         * @param worker Index of the worker running the range, below WorkerPool.size(); use it to pick per-thread scratch space*/
+        void run(int from, int to, int worker);
+    }
+
+    private final int size;
+    private final int chunk;
+    private final CyclicBarrier start;
+    private final CyclicBarrier end;
+    private final AtomicInteger next = new AtomicInteger();
+    private RangeTask task;
+    private int count;
+    private volatile boolean shutdown;
+    private volatile Throwable failure;
+
+    /**Creates a pool and starts its threads.
+     * @param threads Total number of workers, including the calling thread
+     * @param chunkSize Number of slots handed to a worker at a time*/
+    public WorkerPool(int threads, int chunkSize)
+    {
+        size = Math.max(1, threads);
+        chunk = Math.max(1, chunkSize);
+        start = new CyclicBarrier(size);
+        end = new CyclicBarrier(size);
+        for (int k = 1; k < size; k++)
+        {
+            final int worker = k;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop(worker);
+                }
+            }, "SimWorker-"+k);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**Creates a pool with one worker per available processor.*/
+    public WorkerPool()
+    {
+        this(Runtime.getRuntime().availableProcessors(), 32);
+    }
+
+    /**Number of workers, including the calling thread*/
+    public int size()
+    {
+        return size;
+    }
+
+    /**Runs a task over slots 0 to n-1 on every worker and returns once all of them are done.*/
+    public void forEach(int n, RangeTask t)
+    {
+        if (size == 1)
+        {
+            t.run(0, n, 0);
+            return;
+        }
+        task = t;
+        count = n;
+        next.set(0);
+        failure = null;
+        await(start);
+        try
+        {
+            work(0);
+        }
+        catch (Throwable e)
+        {
+            failure = e;
+        }
+        await(end);
+        task = null;
+        if (failure != null)
+        {
+            throw new IllegalStateException("Worker failed", failure);
+        }
+    }
+
+    /**Stops the pool's threads. The pool must not be used afterwards.*/
+    public void shutdown()
+    {
+        if (size > 1 && !shutdown)
+        {
+            shutdown = true;
+            await(start);
+        }
+    }
+
+    private void workerLoop(int worker)
+    {
+        while (true)
+        {
+            await(start);
+            if (shutdown)
+            {
+                return;
+            }
+            try
+            {
+                work(worker);
+            }
+            catch (Throwable e)
+            {
+                failure = e;
+            }
+            await(end);
+        }
+    }
+
+    private void work(int worker)
+    {
+        while (true)
+        {
+            int from = next.getAndAdd(chunk);
+            if (from >= count)
+            {
+                return;
+            }
+            task.run(from, Math.min(from+chunk, count), worker);
+        }
+    }
+
+    private static void await(CyclicBarrier barrier)
+    {
+        try
+        {
+            barrier.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for workers", e);
+        }
+        catch (BrokenBarrierException e)
+        {
+            throw new IllegalStateException("Worker pool broken", e);
+        }
+    }
+}
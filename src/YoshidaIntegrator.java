@@ -0,0 +1,27 @@
+/**
+ * Yoshida's 4th order symplectic method: three leapfrog steps of lengths w1, w0 and w1 times the full step,
+ * with w0 negative, whose errors cancel to 4th order.
+ * Each updateSystem() call runs one of the three, as a LeapfrogIntegrator step with one force evaluation, and the three
+ * together cover three steps of timeCompression. The state is a 4th order solution after every third step; in between,
+ * the bodies are at intermediate times, one of them beyond the end of the group, as is usual for composition methods.
+ * So SystemSimulator resolves collisions, samples conservation and publishes only between groups, and the runners
+ * round the number of steps up to a multiple of three.
+ */
+public class YoshidaIntegrator extends LeapfrogIntegrator
+{
+    private static final double CBRT2 = Math.cbrt(2);
+    static final double W1 = 1/(2 - CBRT2);
+    static final double W0 = -CBRT2/(2 - CBRT2);
+
+    @Override
+    public int stepMultiple()
+    {
+        return 3;
+    }
+
+    @Override
+    protected double substep(int step, double dt)
+    {
+        return 3*dt*(step % 3 == 1 ? W0 : W1);
+    }
+}